@@ -0,0 +1,87 @@
+/*
+ * BPMN Auto-Layouter
+ *
+ * Copyright 2015 by Marvin Ludwig - http://www.marvin-ludwig.de
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+
+package eu.ml82.bpmn_layouter.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.cau.cs.kieler.klay.layered.graph.LGraph;
+import eu.ml82.bpmn_layouter.core.KlayLayeredForBpmn;
+import eu.ml82.bpmn_layouter.core.metrics.MetricsAggregator;
+import eu.ml82.bpmn_layouter.core.metrics.MetricsAggregator.Statistics;
+import eu.ml82.bpmn_layouter.core.processors.artifacts.BpmnArtifactPostProcessor;
+import eu.ml82.bpmn_layouter.core.properties.PosType;
+
+/**
+ * BpmnArtifactPostProcessor on artifact-heavy diagrams.
+ *
+ * The processor needs the state the earlier processors of part 3 leave,
+ * so it can't be run on its own. The benchmark runs the complete layout
+ * and collects the processor's own times with the engine's metrics listener.
+ * They are printed at the end of each trial, the JMH score is the
+ * complete layout.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ArtifactPostProcessorBenchmark {
+
+	@Param({"50", "500", "5000"})
+	public int size;
+
+	private final KlayLayeredForBpmn layouter = new KlayLayeredForBpmn();
+	private final MetricsAggregator metrics = new MetricsAggregator();
+	private LGraph graph;
+
+	@Setup(Level.Trial)
+	public void setMetricsListener() {
+		layouter.setMetricsListener(metrics);
+	}
+
+	@Setup(Level.Invocation)
+	public void createGraph() {
+		graph = BenchmarkGraphs.create(BenchmarkGraphs.Shape.ARTIFACTS, size);
+	}
+
+	@Benchmark
+	public LGraph layout() {
+		layouter.doLayout(graph, PosType.ABSOLUTE);
+		return graph;
+	}
+
+	@TearDown(Level.Trial)
+	public void printMetrics() {
+		String processor = BpmnArtifactPostProcessor.class.getSimpleName();
+		for (Statistics statistics : metrics.getStatistics()){
+			if (!statistics.getProcessor().equals(processor)) continue;
+			System.out.println();
+			System.out.println(statistics + ", mean wall "
+					+ statistics.getTotalWallTime() / Math.max(1, statistics.getCount()) / 1000 + " us");
+		}
+		metrics.reset();
+	}
+
+}
@@ -0,0 +1,72 @@
+/*
+ * BPMN Auto-Layouter
+ *
+ * Copyright 2015 by Marvin Ludwig - http://www.marvin-ludwig.de
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+
+package eu.ml82.bpmn_layouter.benchmarks;
+
+import de.cau.cs.kieler.klay.layered.graph.LGraph;
+import eu.ml82.bpmn_layouter.samples.BpmnGraphGenerator;
+
+/**
+ * Generator settings for the benchmark graph shapes. The seed is fixed,
+ * so results of different runs are comparable.
+ *
+ * The size is the approximate number of flow nodes and artifacts,
+ * pools and lanes are not counted.
+ */
+public final class BenchmarkGraphs {
+
+	public enum Shape {
+		/** A single process with gateways and loops, no pools or lanes */
+		FLAT,
+		/** Pools with lanes and sub-lanes, sequence flows across lanes */
+		POOLS_AND_LANES,
+		/** Many artifacts, most of them with several edges */
+		ARTIFACTS,
+		/** Many pools and message flows between them */
+		MESSAGE_FLOWS,
+		/** Lanes holding many sub-processes */
+		SUB_PROCESSES,
+		/** A single process with sub-processes nested up to three levels deep */
+		NESTED_SUB_PROCESSES
+	}
+
+	private static final long SEED = 1;
+	private static final int NODES_PER_LANE = 50;
+
+	private BenchmarkGraphs() {
+	}
+
+	public static LGraph create(Shape shape, int size) {
+		return createGenerator(shape, size).generate(size);
+	}
+
+	public static BpmnGraphGenerator createGenerator(Shape shape, int size) {
+		int lanes = Math.max(1, size / NODES_PER_LANE);
+		BpmnGraphGenerator generator = new BpmnGraphGenerator(SEED);
+		switch (shape){
+		case FLAT:
+			return generator.setPools(0).setSubProcesses(0, 1, 0);
+		case POOLS_AND_LANES:
+			int pools = Math.max(1, lanes / 8);
+			return generator.setPools(pools).setLanesPerPool(Math.max(1, lanes / pools / 2)).setSubLanesPerLane(2)
+					.setLaneHandovers(0.1).setSubProcesses(0, 1, 0);
+		case ARTIFACTS:
+			return generator.setPools(1).setLanesPerPool(Math.max(1, lanes / 2)).setArtifacts(0.5, 4);
+		case MESSAGE_FLOWS:
+			return generator.setPools(Math.max(2, lanes)).setLanesPerPool(0).setMessageFlows(0.3);
+		case SUB_PROCESSES:
+			return generator.setPools(1).setLanesPerPool(Math.max(1, lanes / 2)).setSubProcesses(0.2, 8, 1);
+		case NESTED_SUB_PROCESSES:
+			return generator.setPools(0).setSubProcesses(0.15, 12, 3);
+		default:
+			throw new IllegalArgumentException("Unknown shape: " + shape);
+		}
+	}
+
+}
@@ -0,0 +1,188 @@
+/*
+ * BPMN Auto-Layouter
+ *
+ * Copyright 2015 by Marvin Ludwig - http://www.marvin-ludwig.de
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+
+package eu.ml82.bpmn_layouter.benchmarks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.cau.cs.kieler.core.alg.BasicProgressMonitor;
+import de.cau.cs.kieler.core.math.KVector;
+import de.cau.cs.kieler.klay.layered.graph.LEdge;
+import de.cau.cs.kieler.klay.layered.graph.LGraph;
+import de.cau.cs.kieler.klay.layered.graph.LNode;
+import de.cau.cs.kieler.klay.layered.graph.LPort;
+import de.cau.cs.kieler.klay.layered.graph.LShape;
+import eu.ml82.bpmn_layouter.core.processors.boundary_events.BpmnBoundaryEventPostProcessor;
+import eu.ml82.bpmn_layouter.core.properties.BpmnProperties;
+import eu.ml82.bpmn_layouter.core.utils.Maps;
+import eu.ml82.bpmn_layouter.samples.Utils;
+
+/**
+ * BpmnBoundaryEventPostProcessor on error handling heavy processes:
+ * activities with several boundary events, each with an exception path.
+ *
+ * The processor only needs the boundary events, their activities and
+ * the positions of their successors, so it runs on a generated graph
+ * without a layout. The placement doesn't depend on the previous
+ * positions of the boundary events, so the graph is reused.
+ * The time should grow linearly with the number of boundary events.
+ *
+ * baseline() runs the previous implementation of the processor, which
+ * searched all boundary events for each activity. It places the boundary
+ * events the same way, so the two benchmarks compare the grouping only.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BoundaryEventPostProcessorBenchmark {
+
+	private static final long SEED = 1;
+
+	@Param({"100", "1000", "5000"})
+	public int activities;
+
+	@Param({"1", "4"})
+	public int boundaryEventsPerActivity;
+
+	private final BpmnBoundaryEventPostProcessor processor = new BpmnBoundaryEventPostProcessor();
+	private LGraph graph;
+
+	@Setup(Level.Trial)
+	public void createGraph() {
+		Random random = new Random(SEED);
+		graph = new LGraph();
+		List<LNode> boundaryEvents = new ArrayList<LNode>();
+		for (int i = 0; i < activities; i++){
+			double x = i * 150;
+			LNode activity = Utils.createNode(graph, x, 0, 100, 80, "Task " + i, null);
+			for (int j = 0; j < boundaryEventsPerActivity; j++){
+				LNode boundaryEvent = Utils.createNode(graph, x, 0, 25, 25, "Boundary Event " + i + "_" + j, null);
+				boundaryEvent.setProperty(BpmnProperties.ATTACHED_TO, activity);
+				boundaryEvents.add(boundaryEvent);
+				LNode handler = Utils.createNode(graph, x + 150, random.nextInt(1000), 100, 80, "Handler " + i + "_" + j, null);
+				Utils.createEdge(boundaryEvent, handler, "");
+			}
+		}
+		graph.setProperty(BpmnProperties.BOUNDARY_EVENTS, boundaryEvents);
+	}
+
+	@Benchmark
+	public LGraph process() {
+		processor.process(graph, new BasicProgressMonitor(0));
+		return graph;
+	}
+
+	@Benchmark
+	public LGraph baseline() {
+		processBaseline(graph);
+		return graph;
+	}
+
+	/**
+	 * The previous BpmnBoundaryEventPostProcessor.process(): 
+	 * O(activities * boundary events) grouping, sorted with Maps.getKeysSortedByValue()
+	 */
+	private static void processBaseline(LGraph lGraph) {
+		Map<LNode, LNode> boundaryEventsAttachedTo = new HashMap<LNode, LNode>();
+		Set<LNode> attachedTos = new HashSet<LNode>();
+
+		List<LNode> boundaryEvents = lGraph.getProperty(BpmnProperties.BOUNDARY_EVENTS);
+
+		for (LNode node : boundaryEvents){
+			LNode attachedTo = node.getProperty(BpmnProperties.ATTACHED_TO);
+			if (attachedTo != null){
+				boundaryEventsAttachedTo.put(node, attachedTo);
+				attachedTos.add(attachedTo);
+			}
+		}
+
+		Map<LShape, Double> be = new HashMap<LShape, Double>();
+		for (LNode attachedTo : attachedTos){
+			be.clear();
+			for (Entry<LNode, LNode> entry : boundaryEventsAttachedTo.entrySet()){
+				LNode boundaryEvent = entry.getKey();
+				if (entry.getValue().equals(attachedTo)){
+					Iterator<LEdge> edgeIterator = boundaryEvent.getOutgoingEdges().iterator();
+					if (edgeIterator.hasNext()){
+						LEdge edge = edgeIterator.next();
+						be.put(edge.getSource(), edge.getTarget().getNode().getPosition().y);
+					}
+					else be.put(boundaryEvent, 0.0);
+				}
+			}
+			int offsetX = 0;
+			for (LShape shape : Maps.getKeysSortedByValue(be)){
+				LNode boundaryEvent;
+				if (shape instanceof LPort){
+					boundaryEvent = ((LPort) shape).getNode();
+				}
+				else boundaryEvent = (LNode) shape;
+
+				KVector originalSize = boundaryEvent.getProperty(BpmnProperties.ORIGINAL_SIZE);
+				if (originalSize != null) {
+					boundaryEvent.getSize().x = originalSize.x;
+					boundaryEvent.getSize().y = originalSize.y;
+				}
+				offsetX = offsetX + (int) (boundaryEvent.getSize().x + 15);
+				boundaryEvent.getPosition().x = attachedTo.getPosition().x
+												+ attachedTo.getSize().x
+												- offsetX;
+				double offsetY = attachedTo.getSize().y;
+				boolean bottomEvent = true;
+				if (boundaryEvent.getPosition().y < attachedTo.getPosition().y){
+					offsetY = 0;
+					bottomEvent = false;
+				}
+				boundaryEvent.getPosition().y = attachedTo.getPosition().y
+												+ offsetY
+												- boundaryEvent.getSize().y / 2;
+				if (shape instanceof LPort){
+					shape.getPosition().x = boundaryEvent.getSize().x / 2;
+					if (bottomEvent) shape.getPosition().y = boundaryEvent.getSize().y;
+					else shape.getPosition().y = 0;
+				}
+				for (LEdge outEdge : boundaryEvent.getOutgoingEdges()){
+					LNode targetNode = outEdge.getTarget().getNode();
+					LPort target = outEdge.getTarget();
+					double bendpointX = boundaryEvent.getPosition().x + boundaryEvent.getSize().x / 2;
+					double bendpointY = targetNode.getPosition().y + target.getPosition().y;
+					KVector newBendpoint = new KVector(bendpointX, bendpointY);
+					outEdge.getBendPoints().clear();
+					outEdge.getBendPoints().add(newBendpoint);
+				}
+			}
+		}
+	}
+
+}
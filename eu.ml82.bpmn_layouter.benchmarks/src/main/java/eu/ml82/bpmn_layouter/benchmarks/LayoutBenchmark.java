@@ -0,0 +1,73 @@
+/*
+ * BPMN Auto-Layouter
+ *
+ * Copyright 2015 by Marvin Ludwig - http://www.marvin-ludwig.de
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+
+package eu.ml82.bpmn_layouter.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.cau.cs.kieler.klay.layered.graph.LGraph;
+import eu.ml82.bpmn_layouter.core.KlayLayeredForBpmn;
+import eu.ml82.bpmn_layouter.core.properties.BpmnProperties;
+import eu.ml82.bpmn_layouter.core.properties.PosType;
+
+/**
+ * Complete layout of KlayLayeredForBpmn.doLayout for each graph shape and size.
+ *
+ * The layout changes the graph, so a new graph is created before
+ * each invocation. Graph creation is not measured.
+ *
+ * Large sizes take seconds per invocation, restrict the run with e.g.
+ * <code>-p size=50,500</code>.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LayoutBenchmark {
+
+	@Param({"FLAT", "POOLS_AND_LANES", "ARTIFACTS", "MESSAGE_FLOWS", "SUB_PROCESSES", "NESTED_SUB_PROCESSES"})
+	public BenchmarkGraphs.Shape shape;
+
+	@Param({"50", "500", "5000", "20000"})
+	public int size;
+
+	@Param({"false", "true"})
+	public boolean parallel;
+
+	private final KlayLayeredForBpmn layouter = new KlayLayeredForBpmn();
+	private LGraph graph;
+
+	@Setup(Level.Invocation)
+	public void createGraph() {
+		graph = BenchmarkGraphs.create(shape, size);
+		graph.setProperty(BpmnProperties.PARALLEL_LAYOUT, parallel);
+	}
+
+	@Benchmark
+	public LGraph layout() {
+		layouter.doLayout(graph, PosType.RELATIVE);
+		return graph;
+	}
+
+}
@@ -0,0 +1,188 @@
+/*
+ * BPMN Auto-Layouter
+ *
+ * Copyright 2015 by Marvin Ludwig - http://www.marvin-ludwig.de
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+
+package eu.ml82.bpmn_layouter.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.cau.cs.kieler.klay.layered.graph.LEdge;
+import de.cau.cs.kieler.klay.layered.graph.LGraph;
+import de.cau.cs.kieler.klay.layered.graph.LNode;
+import de.cau.cs.kieler.klay.layered.graph.Layer;
+import de.cau.cs.kieler.klay.layered.properties.InLayerConstraint;
+import de.cau.cs.kieler.klay.layered.properties.InternalProperties;
+import eu.ml82.bpmn_layouter.core.ContainerIndex;
+import eu.ml82.bpmn_layouter.core.LocalGraphHandler;
+import eu.ml82.bpmn_layouter.core.properties.BpmnElementType;
+import eu.ml82.bpmn_layouter.core.properties.BpmnProperties;
+
+/**
+ * LocalGraphHandler.prepareGraph for one lane of a pool with many lanes.
+ *
+ * Setup puts all flow nodes of the pool into a layered graph the way
+ * part 1 leaves them: the nodes of lane i are distributed over the layers
+ * in sequence order. prepareGraph removes the nodes and edges of the other
+ * lanes, so the graph is rebuilt before each invocation.
+ *
+ * baseline() runs the previous implementation of prepareGraph, which
+ * looked up each node in the list of the container's nodes and rescanned
+ * the foreign node's edges for each removed edge. It prepares the same
+ * local graph, so the two benchmarks compare the lookups only.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LocalGraphHandlerBenchmark {
+
+	@Param({"500", "5000", "20000"})
+	public int size;
+
+	private LGraph graph;
+	private ContainerIndex index;
+	private int containerId;
+	private List<LNode> localNodes;
+
+	@Setup(Level.Invocation)
+	public void createGraph() {
+		LGraph bpmnGraph = BenchmarkGraphs.create(BenchmarkGraphs.Shape.POOLS_AND_LANES, size);
+		List<LNode> lanes = new ArrayList<LNode>();
+		collectLanes(bpmnGraph, lanes);
+
+		graph = new LGraph();
+		List<Layer> layers = graph.getLayers();
+		for (LNode lane : lanes){
+			LGraph laneGraph = lane.getProperty(InternalProperties.NESTED_LGRAPH);
+			int i = 0;
+			for (LNode node : laneGraph.getLayerlessNodes()){
+				while (layers.size() <= i) layers.add(new Layer(graph));
+				node.setGraph(graph);
+				node.setLayer(layers.get(i++));
+			}
+		}
+		index = new ContainerIndex(lanes);
+		containerId = lanes.size() / 2;
+		localNodes = new ArrayList<LNode>(lanes.get(containerId).getProperty(InternalProperties.NESTED_LGRAPH).getLayerlessNodes());
+	}
+
+	@Benchmark
+	public Object prepareGraph() {
+		return new LocalGraphHandler().prepareGraph(graph, index, containerId);
+	}
+
+	@Benchmark
+	public Object baseline() {
+		return new BaselineLocalGraphHandler().prepareGraph(graph, localNodes);
+	}
+
+	/**
+	 * Collect the containers without nested containers
+	 */
+	private static void collectLanes(LGraph graph, List<LNode> lanes) {
+		for (LNode node : graph.getLayerlessNodes()){
+			LGraph nestedGraph = node.getProperty(InternalProperties.NESTED_LGRAPH);
+			if (nestedGraph == null) continue;
+			int before = lanes.size();
+			collectLanes(nestedGraph, lanes);
+			if (lanes.size() == before && hasFlowNodes(nestedGraph)) lanes.add(node);
+		}
+	}
+
+	private static boolean hasFlowNodes(LGraph graph) {
+		for (LNode node : graph.getLayerlessNodes()){
+			if (node.getProperty(InternalProperties.NESTED_LGRAPH) == null) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * The previous LocalGraphHandler: O(container nodes) List.contains() per node and edge,
+	 * the foreign node's edges are rescanned for each removed edge
+	 */
+	private static final class BaselineLocalGraphHandler {
+
+		private final List<LEdge> crossContainerEdges = new LinkedList<LEdge>();
+
+		List<LEdge> prepareGraph(LGraph graph, List<LNode> localNodes) {
+			for (Layer layer : graph.getLayers()){
+				List<LNode> bottomNodes = new LinkedList<LNode>();
+				List<LNode> topNodes = new LinkedList<LNode>();
+				List<LNode> middleNodes = new LinkedList<LNode>();
+				Iterator<LNode> layerNodesIterator = layer.getNodes().iterator();
+				while (layerNodesIterator.hasNext()){
+					LNode node = layerNodesIterator.next();
+					if (!localNodes.contains(node)) layerNodesIterator.remove();
+					else {
+						node.setGraph(graph);
+						checkAndRemoveEdges(node.getOutgoingEdges().iterator(), localNodes, false);
+						checkAndRemoveEdges(node.getIncomingEdges().iterator(), localNodes, true);
+
+						InLayerConstraint inLayerConstraint = node.getProperty(InternalProperties.IN_LAYER_CONSTRAINT);
+						if (inLayerConstraint == InLayerConstraint.TOP) topNodes.add(node);
+						else if (inLayerConstraint == InLayerConstraint.BOTTOM) bottomNodes.add(node);
+						else middleNodes.add(node);
+					}
+				}
+
+				if (bottomNodes.size() > 0){
+					for (LNode middleNode : middleNodes){
+						middleNode.setProperty(InternalProperties.IN_LAYER_SUCCESSOR_CONSTRAINTS, new LinkedList<LNode>(bottomNodes));
+					}
+				}
+				bottomNodes.addAll(middleNodes);
+				for (LNode topNode : topNodes){
+					topNode.setProperty(InternalProperties.IN_LAYER_SUCCESSOR_CONSTRAINTS, new LinkedList<LNode>(bottomNodes));
+				}
+			}
+			return crossContainerEdges;
+		}
+
+		private void checkAndRemoveEdges(Iterator<LEdge> edgeIterator, List<LNode> localNodes, boolean incoming) {
+			while (edgeIterator.hasNext()){
+				LEdge edge = edgeIterator.next();
+				LNode otherNode = incoming ? edge.getSource().getNode() : edge.getTarget().getNode();
+				if (localNodes.contains(otherNode)) continue;
+				if (edge.getProperty(BpmnProperties.ELEMENT_TYPE) != BpmnElementType.MESSAGE_FLOW
+						&& !edge.getProperty(BpmnProperties.ARTIFACT_DUMMY_EDGE))
+					crossContainerEdges.add(edge);
+				edgeIterator.remove();
+
+				LNode localNode = incoming ? edge.getTarget().getNode() : edge.getSource().getNode();
+				Iterator<LEdge> foreignEdges = incoming ? otherNode.getOutgoingEdges().iterator() 
+						: otherNode.getIncomingEdges().iterator();
+				while (foreignEdges.hasNext()){
+					if (foreignEdges.next() == edge) foreignEdges.remove();
+				}
+				localNode.setProperty(InternalProperties.IN_LAYER_CONSTRAINT, InLayerConstraint.BOTTOM);
+				otherNode.setProperty(InternalProperties.IN_LAYER_CONSTRAINT, InLayerConstraint.TOP);
+			}
+		}
+
+	}
+
+}
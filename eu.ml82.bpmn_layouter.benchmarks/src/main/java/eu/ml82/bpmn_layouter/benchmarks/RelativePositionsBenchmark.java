@@ -0,0 +1,105 @@
+/*
+ * BPMN Auto-Layouter
+ *
+ * Copyright 2015 by Marvin Ludwig - http://www.marvin-ludwig.de
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+
+package eu.ml82.bpmn_layouter.benchmarks;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.cau.cs.kieler.core.math.KVector;
+import de.cau.cs.kieler.klay.layered.graph.LGraph;
+import de.cau.cs.kieler.klay.layered.graph.LNode;
+import de.cau.cs.kieler.klay.layered.properties.InternalProperties;
+import eu.ml82.bpmn_layouter.core.KlayLayeredForBpmn;
+import eu.ml82.bpmn_layouter.core.LayoutResult;
+import eu.ml82.bpmn_layouter.core.RelativePositions;
+import eu.ml82.bpmn_layouter.core.properties.BpmnElementType;
+import eu.ml82.bpmn_layouter.core.properties.BpmnProperties;
+import eu.ml82.bpmn_layouter.core.properties.PosType;
+
+/**
+ * RelativePositions.make on laid out graphs, compared with reading
+ * all relative node positions with LayoutResult.
+ *
+ * make changes the positions in place, so each invocation gets
+ * a new graph with absolute positions. The layout is done in setup
+ * and not measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RelativePositionsBenchmark {
+
+	@Param({"POOLS_AND_LANES", "SUB_PROCESSES", "NESTED_SUB_PROCESSES"})
+	public BenchmarkGraphs.Shape shape;
+
+	@Param({"500", "5000"})
+	public int size;
+
+	private final KlayLayeredForBpmn layouter = new KlayLayeredForBpmn();
+	private LGraph graph;
+	private Set<LNode> subProcesses;
+
+	@Setup(Level.Invocation)
+	public void layoutGraph() {
+		graph = BenchmarkGraphs.create(shape, size);
+		layouter.doLayout(graph, PosType.ABSOLUTE);
+		subProcesses = new LinkedHashSet<LNode>();
+		collectSubProcesses(graph, subProcesses);
+	}
+
+	@Benchmark
+	public LGraph make() {
+		RelativePositions.make(graph, subProcesses);
+		return graph;
+	}
+
+	@Benchmark
+	public double layoutResult() {
+		return sumRelativePositions(LayoutResult.of(graph), graph);
+	}
+
+	private static double sumRelativePositions(LayoutResult layoutResult, LGraph graph) {
+		double sum = 0;
+		for (LNode node : graph.getLayerlessNodes()){
+			KVector pos = layoutResult.getPosition(node, PosType.RELATIVE);
+			sum += pos.x + pos.y;
+			LGraph nestedGraph = node.getProperty(InternalProperties.NESTED_LGRAPH);
+			if (nestedGraph != null) sum += sumRelativePositions(layoutResult, nestedGraph);
+		}
+		return sum;
+	}
+
+	private static void collectSubProcesses(LGraph graph, Set<LNode> subProcesses) {
+		for (LNode node : graph.getLayerlessNodes()){
+			LGraph nestedGraph = node.getProperty(InternalProperties.NESTED_LGRAPH);
+			if (nestedGraph == null) continue;
+			if (node.getProperty(BpmnProperties.ELEMENT_TYPE) == BpmnElementType.SUBPROCESS) subProcesses.add(node);
+			collectSubProcesses(nestedGraph, subProcesses);
+		}
+	}
+
+}
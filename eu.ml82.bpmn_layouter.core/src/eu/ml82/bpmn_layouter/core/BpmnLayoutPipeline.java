@@ -0,0 +1,176 @@
+/*
+ * BPMN Auto-Layouter
+ *
+ * Copyright 2015 by Marvin Ludwig - http://www.marvin-ludwig.de
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+
+package eu.ml82.bpmn_layouter.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import de.cau.cs.kieler.klay.layered.ILayoutProcessor;
+import de.cau.cs.kieler.klay.layered.intermediate.BigNodesIntermediateProcessor;
+import de.cau.cs.kieler.klay.layered.intermediate.BigNodesPostProcessor;
+import de.cau.cs.kieler.klay.layered.intermediate.BigNodesPreProcessor;
+import de.cau.cs.kieler.klay.layered.intermediate.EndLabelProcessor;
+import de.cau.cs.kieler.klay.layered.intermediate.LabelAndNodeSizeProcessor;
+import de.cau.cs.kieler.klay.layered.intermediate.LabelDummyInserter;
+import de.cau.cs.kieler.klay.layered.intermediate.LabelDummyRemover;
+import de.cau.cs.kieler.klay.layered.intermediate.LabelDummySwitcher;
+import de.cau.cs.kieler.klay.layered.intermediate.LabelSideSelector;
+import de.cau.cs.kieler.klay.layered.intermediate.LayerSizeAndGraphHeightCalculator;
+import de.cau.cs.kieler.klay.layered.intermediate.LongEdgeJoiner;
+import de.cau.cs.kieler.klay.layered.intermediate.LongEdgeSplitter;
+import de.cau.cs.kieler.klay.layered.intermediate.NodeMarginCalculator;
+import de.cau.cs.kieler.klay.layered.intermediate.PortSideProcessor;
+import de.cau.cs.kieler.klay.layered.intermediate.ReversedEdgeRestorer;
+import de.cau.cs.kieler.klay.layered.p1cycles.GreedyCycleBreaker;
+import de.cau.cs.kieler.klay.layered.p1cycles.InteractiveCycleBreaker;
+import de.cau.cs.kieler.klay.layered.p2layers.InteractiveLayerer;
+import de.cau.cs.kieler.klay.layered.p2layers.NetworkSimplexLayerer;
+import de.cau.cs.kieler.klay.layered.p3order.InteractiveCrossingMinimizer;
+import de.cau.cs.kieler.klay.layered.p3order.LayerSweepCrossingMinimizer;
+import de.cau.cs.kieler.klay.layered.p4nodes.bk.BKNodePlacer;
+import de.cau.cs.kieler.klay.layered.p5edges.OrthogonalEdgeRouter;
+import eu.ml82.bpmn_layouter.core.processors.BpmnContainerPostProcessor;
+import eu.ml82.bpmn_layouter.core.processors.BpmnContainerPreProcessor;
+import eu.ml82.bpmn_layouter.core.processors.BpmnGatewayProcessor;
+import eu.ml82.bpmn_layouter.core.processors.BpmnMessageFlowIntermediateProcessor;
+import eu.ml82.bpmn_layouter.core.processors.BpmnMessageFlowPostProcessor;
+import eu.ml82.bpmn_layouter.core.processors.BpmnMessageFlowPreProcessor;
+import eu.ml82.bpmn_layouter.core.processors.BpmnPortPostProcessor;
+import eu.ml82.bpmn_layouter.core.processors.BpmnPortPreProcessor;
+import eu.ml82.bpmn_layouter.core.processors.artifacts.BpmnArtifactIntermediateProcessor;
+import eu.ml82.bpmn_layouter.core.processors.artifacts.BpmnArtifactPostProcessor;
+import eu.ml82.bpmn_layouter.core.processors.artifacts.BpmnArtifactPreProcessor;
+import eu.ml82.bpmn_layouter.core.processors.boundary_events.BpmnBoundaryEventIntermediateProcessor1;
+import eu.ml82.bpmn_layouter.core.processors.boundary_events.BpmnBoundaryEventIntermediateProcessor2;
+import eu.ml82.bpmn_layouter.core.processors.boundary_events.BpmnBoundaryEventPostProcessor;
+import eu.ml82.bpmn_layouter.core.processors.boundary_events.BpmnBoundaryEventPreProcessor;
+
+/**
+ * The layout processors of the three layout parts.
+ *
+ * The original KlayLayered has a very flexible layout processor management.
+ * For a BPMN diagram we know what we need, so we create a fixed layout processor setup below.
+ * BE CAREFUL: The order is important. Changing processor positions will most likely break
+ *             parts of the layout.
+ *
+ * The pipeline itself is immutable. Layout processors are not thread-safe, so each
+ * thread gets its own processor instances. They are created on first use and reused
+ * for all following layout runs of that thread, so every processor must reset its
+ * state at the beginning of process().
+ *
+ * The interactive variant keeps the result of a previous layout: Cycle breaking 
+ * and layering (part 1) follow the node positions from left to right, crossing 
+ * minimization (part 2) keeps the order of the nodes from top to bottom. 
+ * Part 3 is the same in both variants.
+ */
+public final class BpmnLayoutPipeline {
+
+	public static final int PARTS = 3;
+
+	// The parts of the default variant, followed by the parts of the interactive variant
+	private final ThreadLocal<List<List<ILayoutProcessor>>> processors
+		= new ThreadLocal<List<List<ILayoutProcessor>>>() {
+			@Override
+			protected List<List<ILayoutProcessor>> initialValue() {
+				List<List<ILayoutProcessor>> parts = new ArrayList<List<ILayoutProcessor>>(2 * PARTS);
+				for (int part = 1; part <= PARTS; part++){
+					parts.add(Collections.unmodifiableList(createProcessors(part, false)));
+				}
+				for (int part = 1; part <= PARTS; part++){
+					// Part 3 has no interactive processors, the thread's instances are shared
+					if (part == 3) parts.add(parts.get(part - 1));
+					else parts.add(Collections.unmodifiableList(createProcessors(part, true)));
+				}
+				return Collections.unmodifiableList(parts);
+			}
+		};
+
+	/**
+	 * Get the calling thread's default processors of a layout part.
+	 *
+	 * @param part 1, 2 or 3
+	 * @return the processors in invocation order
+	 */
+	public List<ILayoutProcessor> getProcessors(int part) {
+		return getProcessors(part, false);
+	}
+
+	/**
+	 * Get the calling thread's processors of a layout part.
+	 *
+	 * @param part 1, 2 or 3
+	 * @param interactive true for the processors that keep the previous layout
+	 * @return the processors in invocation order
+	 */
+	public List<ILayoutProcessor> getProcessors(int part, boolean interactive) {
+		if (part < 1 || part > PARTS) throw new IllegalArgumentException("Unknown layout part " + part);
+		return processors.get().get((interactive ? PARTS : 0) + part - 1);
+	}
+
+	private static List<ILayoutProcessor> createProcessors(int part, boolean interactive){
+		List<ILayoutProcessor> algorithms = new ArrayList<ILayoutProcessor>();
+		if (part == 1){
+			algorithms.add(new BpmnArtifactPreProcessor());
+	        if (interactive) algorithms.add(new InteractiveCycleBreaker()); // phase 1
+	        else algorithms.add(new GreedyCycleBreaker()); // phase 1
+	        algorithms.add(new PortSideProcessor());
+			algorithms.add(new BpmnMessageFlowPreProcessor());
+			algorithms.add(new BpmnBoundaryEventPreProcessor());
+			algorithms.add(new BigNodesPreProcessor());
+	        algorithms.add(new LabelDummyInserter());
+	        if (interactive) algorithms.add(new InteractiveLayerer()); // phase 2
+	        else algorithms.add(new NetworkSimplexLayerer()); // phase 2
+			algorithms.add(new BpmnMessageFlowIntermediateProcessor());
+			algorithms.add(new BpmnBoundaryEventIntermediateProcessor1());
+			algorithms.add(new BigNodesIntermediateProcessor());
+			algorithms.add(new LongEdgeSplitter());
+		}
+		else if (part == 2){
+			// Part 2 must not contain processors that
+			// change node to layer assignments!
+	        algorithms.add(new LabelDummySwitcher());
+			if (interactive) algorithms.add(new InteractiveCrossingMinimizer()); // phase 3
+			else algorithms.add(new LayerSweepCrossingMinimizer()); // phase 3
+			algorithms.add(new LabelAndNodeSizeProcessor());
+			algorithms.add(new NodeMarginCalculator());
+			algorithms.add(new LabelSideSelector());
+			algorithms.add(new BpmnArtifactIntermediateProcessor());
+			algorithms.add(new BpmnPortPreProcessor());
+			//algorithms.add(new GreedySwitchProcessor()); TODO: Activate?
+			algorithms.add(new BKNodePlacer()); // phase 4
+			algorithms.add(new LayerSizeAndGraphHeightCalculator());
+			algorithms.add(new BpmnBoundaryEventIntermediateProcessor2());
+		}
+		else if (part == 3){
+			// LayerSizeAndGraphHeightCalculator is called twice. In part 2
+			// in order to calculate the height of the containers. And in part 3
+			// again to calculate the layer size over all containers.
+			algorithms.add(new BpmnPortPostProcessor());
+			algorithms.add(new BpmnContainerPreProcessor());
+			// From here node positions are absolute
+			algorithms.add(new LayerSizeAndGraphHeightCalculator());
+			algorithms.add(new OrthogonalEdgeRouter()); // phase 5
+			algorithms.add(new BigNodesPostProcessor());
+			algorithms.add(new LongEdgeJoiner());
+			algorithms.add(new ReversedEdgeRestorer());
+			algorithms.add(new LabelDummyRemover());
+			algorithms.add(new EndLabelProcessor());
+			algorithms.add(new BpmnBoundaryEventPostProcessor());
+			algorithms.add(new BpmnArtifactPostProcessor());
+			algorithms.add(new BpmnContainerPostProcessor());
+			// From here all nodes are on their final position
+			algorithms.add(new BpmnGatewayProcessor());
+			algorithms.add(new BpmnMessageFlowPostProcessor());
+		}
+		return algorithms;
+	}
+
+}
@@ -0,0 +1,72 @@
+/*
+ * BPMN Auto-Layouter
+ *
+ * Copyright 2015 by Marvin Ludwig - http://www.marvin-ludwig.de
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+
+package eu.ml82.bpmn_layouter.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.cau.cs.kieler.klay.layered.graph.LGraph;
+import de.cau.cs.kieler.klay.layered.graph.LNode;
+import de.cau.cs.kieler.klay.layered.properties.InternalProperties;
+
+/**
+ * Container membership of the nodes of a layered graph.
+ *
+ * Each BPMN container (pool or lane) gets an id by its position in the
+ * container list, each node the id of the container whose nested graph holds it.
+ * The index is built once after layout part 1, so checking whether a node is
+ * local to a container is a constant time lookup.
+ *
+ * LGraphElement.id can't be used as the container id,
+ * layout processors overwrite it.
+ */
+public final class ContainerIndex {
+
+	/** Container id of nodes that don't belong to a container. */
+	public static final int NO_CONTAINER = -1;
+
+	private final List<LNode> containers;
+	private final Map<LNode,Integer> containerIds = new IdentityHashMap<LNode,Integer>();
+
+	/**
+	 * @param containers the BPMN containers, their nested graphs must contain
+	 *        the flow nodes and the dummy nodes of part 1
+	 */
+	public ContainerIndex(Collection<LNode> containers) {
+		this.containers = new ArrayList<LNode>(containers);
+		for (int id = 0; id < this.containers.size(); id++){
+			LGraph nestedGraph = this.containers.get(id).getProperty(InternalProperties.NESTED_LGRAPH);
+			for (LNode node : nestedGraph.getLayerlessNodes()){
+				// A node belongs to the first container that holds it
+				if (!containerIds.containsKey(node)) containerIds.put(node, id);
+			}
+		}
+	}
+
+	/**
+	 * @return the node's container id or NO_CONTAINER
+	 */
+	public int getContainerId(LNode node) {
+		Integer id = containerIds.get(node);
+		return id != null ? id : NO_CONTAINER;
+	}
+
+	public LNode getContainer(int id) {
+		return containers.get(id);
+	}
+
+	public int size() {
+		return containers.size();
+	}
+
+}
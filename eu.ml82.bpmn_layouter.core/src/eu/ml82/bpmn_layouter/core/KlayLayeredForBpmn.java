@@ -10,17 +10,13 @@
 package eu.ml82.bpmn_layouter.core;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
-import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.Random;
-import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 
 import de.cau.cs.kieler.core.alg.BasicProgressMonitor;
 import de.cau.cs.kieler.core.alg.IKielerProgressMonitor;
@@ -37,52 +33,23 @@ import de.cau.cs.kieler.klay.layered.graph.LLabel;
 import de.cau.cs.kieler.klay.layered.graph.LNode;
 import de.cau.cs.kieler.klay.layered.graph.LPort;
 import de.cau.cs.kieler.klay.layered.graph.Layer;
-import de.cau.cs.kieler.klay.layered.intermediate.BigNodesIntermediateProcessor;
-import de.cau.cs.kieler.klay.layered.intermediate.BigNodesPostProcessor;
-import de.cau.cs.kieler.klay.layered.intermediate.BigNodesPreProcessor;
-import de.cau.cs.kieler.klay.layered.intermediate.EndLabelProcessor;
-import de.cau.cs.kieler.klay.layered.intermediate.LabelAndNodeSizeProcessor;
-import de.cau.cs.kieler.klay.layered.intermediate.LabelDummyInserter;
-import de.cau.cs.kieler.klay.layered.intermediate.LabelDummyRemover;
-import de.cau.cs.kieler.klay.layered.intermediate.LabelDummySwitcher;
-import de.cau.cs.kieler.klay.layered.intermediate.LabelSideSelector;
-import de.cau.cs.kieler.klay.layered.intermediate.LayerSizeAndGraphHeightCalculator;
-import de.cau.cs.kieler.klay.layered.intermediate.LongEdgeJoiner;
-import de.cau.cs.kieler.klay.layered.intermediate.LongEdgeSplitter;
-import de.cau.cs.kieler.klay.layered.intermediate.NodeMarginCalculator;
-import de.cau.cs.kieler.klay.layered.intermediate.PortSideProcessor;
-import de.cau.cs.kieler.klay.layered.intermediate.ReversedEdgeRestorer;
-import de.cau.cs.kieler.klay.layered.p1cycles.GreedyCycleBreaker;
-import de.cau.cs.kieler.klay.layered.p2layers.NetworkSimplexLayerer;
-import de.cau.cs.kieler.klay.layered.p3order.LayerSweepCrossingMinimizer;
-import de.cau.cs.kieler.klay.layered.p4nodes.bk.BKNodePlacer;
-import de.cau.cs.kieler.klay.layered.p5edges.OrthogonalEdgeRouter;
 import de.cau.cs.kieler.klay.layered.properties.FixedAlignment;
 import de.cau.cs.kieler.klay.layered.properties.InteractiveReferencePoint;
 import de.cau.cs.kieler.klay.layered.properties.InternalProperties;
 import de.cau.cs.kieler.klay.layered.properties.Properties;
 import de.cau.cs.kieler.klay.layered.properties.Spacings;
-import eu.ml82.bpmn_layouter.core.processors.BpmnContainerPostProcessor;
-import eu.ml82.bpmn_layouter.core.processors.BpmnContainerPreProcessor;
-import eu.ml82.bpmn_layouter.core.processors.BpmnGatewayProcessor;
-import eu.ml82.bpmn_layouter.core.processors.BpmnMessageFlowIntermediateProcessor;
-import eu.ml82.bpmn_layouter.core.processors.BpmnMessageFlowPostProcessor;
-import eu.ml82.bpmn_layouter.core.processors.BpmnMessageFlowPreProcessor;
-import eu.ml82.bpmn_layouter.core.processors.BpmnPortPostProcessor;
-import eu.ml82.bpmn_layouter.core.processors.BpmnPortPreProcessor;
+import eu.ml82.bpmn_layouter.core.cache.LayoutCache;
+import eu.ml82.bpmn_layouter.core.metrics.ILayoutMetricsListener;
+import eu.ml82.bpmn_layouter.core.metrics.ProcessorMetrics;
+import eu.ml82.bpmn_layouter.core.metrics.ThreadResources;
 import eu.ml82.bpmn_layouter.core.processors.artifacts.BpmnArtifact;
-import eu.ml82.bpmn_layouter.core.processors.artifacts.BpmnArtifactIntermediateProcessor;
-import eu.ml82.bpmn_layouter.core.processors.artifacts.BpmnArtifactPostProcessor;
-import eu.ml82.bpmn_layouter.core.processors.artifacts.BpmnArtifactPreProcessor;
-import eu.ml82.bpmn_layouter.core.processors.boundary_events.BpmnBoundaryEventIntermediateProcessor1;
-import eu.ml82.bpmn_layouter.core.processors.boundary_events.BpmnBoundaryEventIntermediateProcessor2;
-import eu.ml82.bpmn_layouter.core.processors.boundary_events.BpmnBoundaryEventPostProcessor;
-import eu.ml82.bpmn_layouter.core.processors.boundary_events.BpmnBoundaryEventPreProcessor;
 import eu.ml82.bpmn_layouter.core.properties.BpmnElementType;
 import eu.ml82.bpmn_layouter.core.properties.BpmnProperties;
 import eu.ml82.bpmn_layouter.core.properties.PosType;
+import eu.ml82.bpmn_layouter.core.utils.ContainerOffsets;
 import eu.ml82.bpmn_layouter.core.utils.Graph;
 import eu.ml82.bpmn_layouter.core.utils.Maps;
+import eu.ml82.bpmn_layouter.core.utils.Parallel;
 import eu.ml82.bpmn_layouter.core.utils.Utils;
 
 
@@ -96,12 +63,37 @@ import eu.ml82.bpmn_layouter.core.utils.Utils;
 public final class KlayLayeredForBpmn {
 	
 
-    private Set<LNode> flowNodes;    
-    // BPMN containers are pools, lanes or subprocesses
-    private Map<LNode,Double> bpmnContainers_pre;
-    private Set<LNode> subProcesses;
-    private List<LEdge> messageFlows;
-    IKielerProgressMonitor monitor;
+    // The engine holds no state of a layout run (see LayoutContext),
+    // so one instance may be used by several threads concurrently.
+    private ExecutorService executor;
+    private final BpmnLayoutPipeline pipeline = new BpmnLayoutPipeline();
+    private volatile ILayoutMetricsListener metricsListener;
+    private volatile LayoutCache layoutCache;
+	
+	/**
+	 * Set a listener that receives wall time, CPU time and allocated bytes of each
+	 * layout processor invocation. null (default) disables metrics collection.
+	 */
+	public void setMetricsListener(ILayoutMetricsListener metricsListener) {
+		this.metricsListener = metricsListener;
+	}
+	
+	public ILayoutMetricsListener getMetricsListener() {
+		return metricsListener;
+	}
+	
+	/**
+	 * Set a cache for layout results. Graphs with the same structure (see GraphFingerprint)
+	 * get the cached layout without running the layout processors.
+	 * null (default) disables caching.
+	 */
+	public void setLayoutCache(LayoutCache layoutCache) {
+		this.layoutCache = layoutCache;
+	}
+	
+	public LayoutCache getLayoutCache() {
+		return layoutCache;
+	}
 	
     /**
      * 
@@ -116,13 +108,58 @@ public final class KlayLayeredForBpmn {
 	}
 
     public void doLayout(final LGraph lGraph, PosType posType, IKielerProgressMonitor monitor) {
+    	doLayout(lGraph, posType, null, monitor);
+    }
+    
+    /**
+     * 
+     * Layout LGraph after small changes, keeping its previous layout as far as possible.
+     * 
+     * The graph must have been layouted before with the same posType, the changes
+     * are made to the layouted graph and recorded in the change set. 
+     * Layers and the order of the nodes in unchanged pools and lanes are kept, 
+     * only the changed pools and lanes are layouted again. Edges are routed again.
+     * Sub-processes are always layouted completely.
+     * 
+     * Positions drift with every incremental layout, so do a complete
+     * layout from time to time.
+     * 
+     */
+	public void doIncrementalLayout(final LGraph lGraph, PosType posType, LayoutChangeSet changes) {
+		doIncrementalLayout(lGraph, posType, changes, null);
+	}
+	
+	public void doIncrementalLayout(final LGraph lGraph, PosType posType, LayoutChangeSet changes, 
+			IKielerProgressMonitor monitor) {
+		if (changes == null) throw new IllegalArgumentException("No change set");
+		doLayout(lGraph, posType, changes, monitor);
+	}
 
-        this.monitor = monitor;
+    private void doLayout(final LGraph lGraph, PosType posType, LayoutChangeSet changes, IKielerProgressMonitor monitor) {
     	
     	if (monitor == null) {
         	monitor = new BasicProgressMonitor(0);
         }
         monitor.begin("Layered layout", 1);
+        
+        // The lookup must be done before the graph is changed.
+        // An incremental layout depends on the previous layout, it isn't cached.
+        // The same goes for a layout that keeps the node order of unchanged containers.
+        boolean keepUnchangedOrder = changes == null && lGraph.getProperty(BpmnProperties.KEEP_UNCHANGED_ORDER);
+        LayoutCache layoutCache = this.layoutCache;
+        LayoutCache.Lookup cacheLookup = null;
+        if (layoutCache != null && changes == null && !keepUnchangedOrder) {
+        	cacheLookup = layoutCache.lookup(lGraph, posType);
+        	if (cacheLookup.isHit()) {
+        		setResultOffsets(lGraph, posType);
+        		monitor.done();
+        		return;
+        	}
+        }
+        
+        LayoutContext context = new LayoutContext(monitor, changes != null, keepUnchangedOrder);
+        // The offsets of a previous layout are outdated
+        lGraph.setProperty(BpmnProperties.CONTAINER_OFFSETS, null);
 
         lGraph
 		.setProperty(Properties.INTERACTIVE_REFERENCE_POINT, InteractiveReferencePoint.CENTER)
@@ -135,39 +172,49 @@ public final class KlayLayeredForBpmn {
         	lGraph.setProperty(LayoutOptions.SPACING,40.0f);
 
         configureGraphProperties(lGraph);
-
-        flowNodes = new LinkedHashSet<LNode>();    
-        bpmnContainers_pre = new HashMap<LNode,Double>();
-        subProcesses = new HashSet<LNode>();
-        messageFlows = new LinkedList<LEdge>(); // filled during dive
         
+        // Processors run their concurrent work on the executor of the engine
+        if (lGraph.getProperty(BpmnProperties.PARALLEL_LAYOUT)) 
+        	lGraph.setProperty(BpmnProperties.EXECUTOR, getExecutor());
+
+        // The interactive processors need the absolute positions of the previous layout
+        if ((changes != null || keepUnchangedOrder) && posType == PosType.RELATIVE) 
+        	RelativePositions.makeAbsolute(lGraph);
+
         List<LNode> originalTopLevelNodes =  new LinkedList<LNode>(lGraph.getLayerlessNodes());
-        boolean simpleLayout = dive(lGraph,null,0);
+        boolean simpleLayout = dive(context,lGraph,null,0);
         
         // In cases where a pool accidentally contains a flow element
         // and lanes, we must remove that pool from the container list.
         List<LNode> containerParents = new ArrayList<LNode>();
-        for (LNode container : bpmnContainers_pre.keySet()){
+        for (LNode container : context.bpmnContainers.keySet()){
         	LNode parent = container.getProperty(InternalProperties.PARENT_LNODE);
         	containerParents.add(parent);
         }
         for (LNode containerParent : containerParents){
-        	bpmnContainers_pre.remove(containerParent);
+        	context.bpmnContainers.remove(containerParent);
+        }
+        
+        if (changes != null){
+        	context.changedContainers.addAll(changes.getChangedContainers(context.subProcesses));
+        	changes.placeAddedNodes(lGraph.getProperty(LayoutOptions.SPACING));
         }
         
-        layoutSubProcesses(lGraph);
+        layoutSubProcesses(context,lGraph);
 
-        lGraph.setProperty(BpmnProperties.MESSAGE_FLOWS,messageFlows); // Important: After sub-process layouting
+        lGraph.setProperty(BpmnProperties.MESSAGE_FLOWS,context.messageFlows); // Important: After sub-process layouting
                                
         if (simpleLayout){ // No pools and lanes
-        	doLayout(1,lGraph,monitor);
-        	doLayout(2,lGraph,monitor);
+        	// There is no container to layout again, an incremental 
+        	// layout keeps the order of all nodes
+        	doLayout(1,lGraph,monitor,null,context.incremental);
+        	doLayout(2,lGraph,monitor,null,context.incremental);
         	lGraph.getOffset().y = 0;
         	lGraph.getOffset().x = 0;
-        	doLayout(3,lGraph,monitor);
+        	doLayout(3,lGraph,monitor,null);
         }
         else{ // Layout with pools and lanes
-        	doBpmnLayout(lGraph, monitor);
+        	doBpmnLayout(context, lGraph);
         }
         
         // Move all nodes away from the layers
@@ -179,27 +226,41 @@ public final class KlayLayeredForBpmn {
             layer.getNodes().clear();
         }
         lGraph.getLayers().clear();
+        lGraph.setProperty(BpmnProperties.EXECUTOR, null);
         
         // Remove remaining dummy nodes and edges
         cleanGraph(lGraph);        
         
         // Calculate absolute position of sub-process children
-        subProcessPostProcessing();
+        subProcessPostProcessing(context);
         
         // Debugging: Output graph as PNG image   
         // Graph.draw(lGraph, "./graph.png", PosType.ABSOLUTE);
                 
         // Make node positions relative
-        if (posType == PosType.RELATIVE) RelativePositions.make(lGraph, subProcesses);
+        if (posType == PosType.RELATIVE) RelativePositions.make(lGraph, context.subProcesses);
+        setResultOffsets(lGraph, posType);
+
+        // A canceled layout is incomplete
+        if (cacheLookup != null && !monitor.isCanceled()) layoutCache.store(cacheLookup);
 
         monitor.done();
-        System.out.println("Layout done");
     }
 
+	/**
+	 * Absolute positions can be read as relative ones with LayoutResult,
+	 * which needs the container offset table of the layouted graph.
+	 */
+	private void setResultOffsets(LGraph graph, PosType posType) {
+		graph.setProperty(BpmnProperties.CONTAINER_OFFSETS, null);
+		if (posType == PosType.ABSOLUTE) ContainerOffsets.get(graph).setAbsolute();
+	}
+	
 	/** 
      * Remove remaining dummy nodes and labels
      */
 	private void cleanGraph(LGraph graph) {
+		graph.setProperty(BpmnProperties.CONTAINER_OFFSETS, null);
 		Iterator<LNode> nodes = graph.getLayerlessNodes().iterator();
 		while (nodes.hasNext()){
 			LNode node = nodes.next();
@@ -225,7 +286,7 @@ public final class KlayLayeredForBpmn {
     * 2.) Get pools and lanes<br>
     * 3.) Check whether we can do a "simple" layout (no pools or lanes)<br>
     */
-    private boolean dive(LGraph graph,LNode parent,double parentYPos) {
+    private boolean dive(LayoutContext context,LGraph graph,LNode parent,double parentYPos) {
     	boolean simpleLayout = true;
     	Object originDummy = new Object();
         for (LNode node : graph.getLayerlessNodes()) {
@@ -251,31 +312,25 @@ public final class KlayLayeredForBpmn {
 
             	BpmnElementType elementType = node.getProperty(BpmnProperties.ELEMENT_TYPE);
             	if (elementType != null && elementType == BpmnElementType.SUBPROCESS){
-                	flowNodes.add(node);
-                	addMessageFlow(node);
-                	subProcesses.add(node);
-                	node.setProperty(LayoutOptions.SIZE_CONSTRAINT, null);
+                	context.flowNodes.add(node);
+                	addMessageFlow(context,node);
                 	if (parent != null) {
                     	// add parent to container list
-                    	bpmnContainers_pre.put(parent,parentYPos);
-                	}
-                	for (LNode subProcessChildNode : nestedGraph.getLayerlessNodes()){
-                		subProcessChildNode.setProperty(InternalProperties.PARENT_LNODE, node);
-                    	origin = subProcessChildNode.getProperty(InternalProperties.ORIGIN);
-                    	if (origin == null) subProcessChildNode.setProperty(InternalProperties.ORIGIN, originDummy);
+                    	context.bpmnContainers.put(parent,parentYPos);
                 	}
+                	diveSubProcess(context, node, originDummy);
             	}	
             	else {
                 	simpleLayout = false;
-            		dive(nestedGraph, node, containerYPos);           	
+            		dive(context, nestedGraph, node, containerYPos);           	
             	}
             }
             else { // we are at the bottom of the tree (reached a flow node)
-            	flowNodes.add(node);
-            	addMessageFlow(node);
+            	context.flowNodes.add(node);
+            	addMessageFlow(context,node);
             	if (parent != null) {
 					// add parent to container list
-                	bpmnContainers_pre.put(parent,parentYPos);
+                	context.bpmnContainers.put(parent,parentYPos);
             	}
             } 
         }
@@ -283,10 +338,38 @@ public final class KlayLayeredForBpmn {
         return simpleLayout;
     }    
     
-    private void addMessageFlow(LNode node){
+    /**
+     * Register a sub-process and prepare its children.
+     * Nested sub-processes are registered as well, the children 
+     * of a sub-process are layouted on their own (see layoutSubProcesses).
+     */
+    private void diveSubProcess(LayoutContext context, LNode subProcess, Object originDummy) {
+    	context.subProcesses.add(subProcess);
+    	subProcess.setProperty(LayoutOptions.SIZE_CONSTRAINT, null);
+    	LGraph nestedGraph = subProcess.getProperty(InternalProperties.NESTED_LGRAPH);
+    	for (LNode subProcessChildNode : nestedGraph.getLayerlessNodes()){
+    		subProcessChildNode.setProperty(InternalProperties.PARENT_LNODE, subProcess);
+        	Object origin = subProcessChildNode.getProperty(InternalProperties.ORIGIN);
+        	if (origin == null) subProcessChildNode.setProperty(InternalProperties.ORIGIN, originDummy);
+        	
+        	LGraph childGraph = subProcessChildNode.getProperty(InternalProperties.NESTED_LGRAPH);
+        	if (subProcessChildNode.getProperty(BpmnProperties.ELEMENT_TYPE) == BpmnElementType.SUBPROCESS
+        			&& childGraph != null && childGraph.getLayerlessNodes().size() > 0){
+        		List<LNode> nestedSubProcesses = context.nestedSubProcesses.get(subProcess);
+        		if (nestedSubProcesses == null){
+        			nestedSubProcesses = new ArrayList<LNode>();
+        			context.nestedSubProcesses.put(subProcess, nestedSubProcesses);
+        		}
+        		nestedSubProcesses.add(subProcessChildNode);
+        		diveSubProcess(context, subProcessChildNode, originDummy);
+        	}
+    	}
+    }
+    
+    private void addMessageFlow(LayoutContext context, LNode node){
     	for (LEdge edge : node.getOutgoingEdges()){
     		BpmnElementType flowType = edge.getProperty(BpmnProperties.ELEMENT_TYPE);
-    		if (flowType == BpmnElementType.MESSAGE_FLOW) messageFlows.add(edge);
+    		if (flowType == BpmnElementType.MESSAGE_FLOW) context.messageFlows.add(edge);
     	}
     }
         
@@ -296,33 +379,30 @@ public final class KlayLayeredForBpmn {
      * Part 2: "Local" graphs within pool or lane
      * Part 3: Complete graph
      */ 
-    private void doBpmnLayout(final LGraph graph, final IKielerProgressMonitor monitor) {
+    private void doBpmnLayout(final LayoutContext context, final LGraph graph) {
+    	final IKielerProgressMonitor monitor = context.monitor;
         boolean monitorStarted = monitor.isRunning();
         if (!monitorStarted) {
             monitor.begin("Component Layout", 1);
         }
     	
-        final double CONTAINER_PADDING_TOP_BOTTOM = graph.getProperty(BpmnProperties.CONTAINER_PADDING_TOP_BOTTOM);
-        final double CONTAINER_PADDING_LEFT_RIGHT = graph.getProperty(BpmnProperties.CONTAINER_PADDING_LEFT_RIGHT);
-        final double CONTAINER_SPACING = graph.getProperty(BpmnProperties.CONTAINER_SPACING);
-    	
         /////////// Layout part 1
                 
     	// Prepare graph for layout part 1 (layering) by creating a flat graph
         // with only flow nodes / no containers
         graph.getLayerlessNodes().clear();
-        for (LNode node : flowNodes){
+        for (LNode node : context.flowNodes){
         	graph.getLayerlessNodes().add(node);
         }         
         
         // Layering processors
                 
-        doLayout(1,graph,monitor);
+        doLayout(1,graph,monitor,null,context.incremental);
         
     	// Add new nodes (e.g. big node dummy nodes, edge label dummy nodes)
     	for(Layer layer : graph.getLayers()){
     		for(LNode node : layer.getNodes()){
-				if (!flowNodes.contains(node)){ 
+				if (!context.flowNodes.contains(node)){ 
 					// We need to attached the dummy node to
 					// the corresponding BPMN container
 					LNode parentNode = node.getProperty(InternalProperties.PARENT_LNODE);
@@ -345,85 +425,227 @@ public final class KlayLayeredForBpmn {
     		}
     	}
                 
-        /////////// Layout part 2: layout local graph
-    	// Make copy of layers and layer nodes
-        Map<Layer, LinkedHashSet<LNode>> originalLayerNodes = new LinkedHashMap<Layer,LinkedHashSet<LNode>>();
-        Map<Layer, LinkedHashSet<LNode>> layoutedLayerNodes = new LinkedHashMap<Layer,LinkedHashSet<LNode>>();
-    	for(Layer layer : graph.getLayers()){
-    		originalLayerNodes.put(layer, new LinkedHashSet<LNode>(layer.getNodes()));
-    		layoutedLayerNodes.put(layer, new LinkedHashSet<LNode>());
-    	}
-   	
-    	double lanePosY = 0;
-    	double poolPosY = 0;
-    	double laneSizeY = 0;
-    	double poolSizeY = 0;
-    	LNode currentPool = null; 
+        /////////// Layout part 2: layout local graphs
+    	Set<LNode> bpmnContainers = Maps.getKeysSortedByValue(context.bpmnContainers);
+        graph.setProperty(BpmnProperties.CONTAINERS,bpmnContainers);
+        
+        ContainerIndex index = new ContainerIndex(bpmnContainers);
+        ContainerStacker stacker = new ContainerStacker(graph);
+        List<LEdge> crossContainerEdges = layoutContainers(context, graph, index, stacker);
+        
+        /////////// Layout part 3
+        graph.getLayerlessNodes().clear();
+        // Restore container-crossing edges
+        for (LEdge edge : crossContainerEdges){
+        	BpmnElementType flowType = edge.getProperty(BpmnProperties.ELEMENT_TYPE);
+        	LNode sourceNode = edge.getSource().getNode();
+        	LNode targetNode = edge.getTarget().getNode();
+    		if (flowType == BpmnElementType.MESSAGE_FLOW){
+	        	LPort southPort = new LPort(); 
+	        	southPort.setSide(PortSide.SOUTH);
+	        	LPort northPort = new LPort(); 
+	        	northPort.setSide(PortSide.NORTH);
+	        	southPort.setNode(sourceNode);
+	        	northPort.setNode(targetNode);
+	        	edge.setSource(southPort);
+	        	edge.setTarget(northPort);
+    		}
+    		else {
+    			edge.setSource(Utils.getPort(sourceNode, edge.getSource().getSide()));
+    			edge.setTarget(Utils.getPort(targetNode, edge.getTarget().getSide()));
+    		}
+        }
+        
+        doLayout(3,graph,monitor,null);
+        
+        // Resize graph
+        graph.getSize().x = graph.getSize().x + 100;
+        graph.getSize().y = stacker.getHeight();
+        graph.getOffset().y = 0;
+    }
 
+    /**
+     * Layout part 2: Crossing minimization and node placement 
+     * within each container (pool or lane).
+     * 
+     * The containers are layouted on their own local graph, either one after the 
+     * other or concurrently. Stacking the containers and merging the local graphs back 
+     * into the complete graph is done afterwards in container order, so the result 
+     * is the same in both cases.
+     * 
+     * An incremental layout keeps the node order of the containers that are not in its
+     * change set. A complete layout with KEEP_UNCHANGED_ORDER keeps the node order of the
+     * containers whose signature didn't change since the last layout. In both cases only
+     * crossing minimization follows the previous positions, the rest of part 2 is done as usual.
+     * A normal complete layout minimizes the crossings of all containers.
+     * 
+     * @return the container-crossing edges
+     */
+    private List<LEdge> layoutContainers(final LayoutContext context, final LGraph graph, ContainerIndex index, 
+    		ContainerStacker stacker) {
+    	final IKielerProgressMonitor monitor = context.monitor;
+        final double CONTAINER_PADDING_TOP_BOTTOM = graph.getProperty(BpmnProperties.CONTAINER_PADDING_TOP_BOTTOM);
+        
+        List<LocalGraphView> views = LocalGraphView.create(graph, index);
+    	
+    	// Remove non-local edges and set in-layer constraints.
+    	// This must be done in container order, see LocalGraphHandler.
     	List<LEdge> crossContainerEdges = new LinkedList<LEdge>();
     	List<BpmnArtifact> artifacts = graph.getProperty(BpmnProperties.ARTIFACTS);
-    	Map<BpmnArtifact,List<LEdge>> tmpArtifacts = new HashMap<BpmnArtifact,List<LEdge>>();
-    	for (BpmnArtifact artifact : artifacts){
-    		if (artifact.dummyEdges != null)
-    			tmpArtifacts.put(artifact, new LinkedList<LEdge>(artifact.dummyEdges));
+    	List<LNode> boundaryEvents = graph.getProperty(BpmnProperties.BOUNDARY_EVENTS);
+    	final Set<LNode> interactiveContainers = new HashSet<LNode>();
+    	for (LocalGraphView view : views){
+    		List<LEdge> localCrossContainerEdges = new LocalGraphHandler().prepareGraph(view.localGraph, index, view.containerId);
+    		crossContainerEdges.addAll(localCrossContainerEdges);
+    		
+    		// Interactive crossing minimization restores the node order of an unchanged
+    		// container from the previous positions
+    		if (context.incremental){
+    			if (!context.changedContainers.contains(view.container)) interactiveContainers.add(view.container);
+    		}
+    		else if (context.keepUnchangedOrder){
+    			LocalGraphView.Signature signature = view.signature(localCrossContainerEdges);
+    			LocalGraphView.Signature previousSignature = view.container.getProperty(LocalGraphView.SIGNATURE);
+    			view.container.setProperty(LocalGraphView.SIGNATURE, signature);
+    			if (signature.equals(previousSignature)) interactiveContainers.add(view.container);
+    		}
+    		else {
+    			// The positions of this layout don't belong to an earlier signature
+    			view.container.setProperty(LocalGraphView.SIGNATURE, null);
+    		}
+    		
+    		// Local artifacts only know their local dummy edges. The intermediate 
+    		// processor drops them, the original artifacts stay untouched.
+    		List<BpmnArtifact> localArtifacts = new LinkedList<BpmnArtifact>();
+    		for (BpmnArtifact artifact : artifacts){
+    			if (artifact.dummyEdges == null) continue;
+    			BpmnArtifact localArtifact = new BpmnArtifact();
+    			localArtifact.node = artifact.node;
+    			localArtifact.dummyEdges = new LinkedList<LEdge>();
+    			for (LEdge dummyEdge : artifact.dummyEdges){
+            		if (dummyEdge.getSource().getNode().getProperty(InternalProperties.PARENT_LNODE) == view.container
+                		&& dummyEdge.getTarget().getNode().getProperty(InternalProperties.PARENT_LNODE) == view.container){
+            			localArtifact.dummyEdges.add(dummyEdge);
+            		}
+    			}
+    			localArtifacts.add(localArtifact);
+    		}
+    		view.localGraph.setProperty(BpmnProperties.ARTIFACTS, localArtifacts);
+    		
+    		List<LNode> localBoundaryEvents = new LinkedList<LNode>();
+    		if (boundaryEvents != null){
+    			for (LNode boundaryEvent : boundaryEvents){
+    				if (index.getContainerId(boundaryEvent) == view.containerId) localBoundaryEvents.add(boundaryEvent);
+    			}
+    		}
+    		view.localGraph.setProperty(BpmnProperties.BOUNDARY_EVENTS, localBoundaryEvents);
     	}
     	
-    	Set<LNode> bpmnContainers = Maps.getKeysSortedByValue(bpmnContainers_pre);
-        graph.setProperty(BpmnProperties.CONTAINERS,bpmnContainers);
-        
-    	// Layout each container (pool or lane)
-        for (LNode bpmnContainer : bpmnContainers){   
-        	
-        	LGraph localGraph = bpmnContainer.getProperty(InternalProperties.NESTED_LGRAPH);
-        	List<LNode> localNodes = localGraph.getLayerlessNodes();        	
-        	LNode parentNode = bpmnContainer.getProperty(InternalProperties.PARENT_LNODE);
-        	                	
-        	//// Prepare local graph
-        	
-        	// Remove all non-local nodes and edges from the graph 
-        	crossContainerEdges.addAll(new LocalGraphHandler().prepareGraph(graph, localNodes));
-        	// Remove empty layers, as they would cause errors during crossing minimization        
-        	Iterator<Layer> layerIterator = graph.getLayers().iterator();
-            while (layerIterator.hasNext()){
-            	Layer layer = layerIterator.next();
-            	if (layer.getNodes().size() == 0) layerIterator.remove();
-            }
-            
-            // Prepare artifacts - remove and store non local dummy edges
-			for (BpmnArtifact artifact : artifacts){
-				if (artifact.dummyEdges != null){
-					Iterator<LEdge> dummyEdges = artifact.dummyEdges.iterator();
-	            	while (dummyEdges.hasNext()){
-	            		LEdge dummyEdge = dummyEdges.next();
-	            		if (dummyEdge.getSource().getNode().getProperty(InternalProperties.PARENT_LNODE) != bpmnContainer
-	            			|| dummyEdge.getTarget().getNode().getProperty(InternalProperties.PARENT_LNODE) != bpmnContainer){
-	            			dummyEdges.remove();
-	            		}
-	            	}
-				}
-            }
-                
-            // DO LAYOUT PART 2
-            doLayout(2,graph,monitor);
-            
-            // Restore artifact dummy edges
-			for (Entry<BpmnArtifact, List<LEdge>> entry : tmpArtifacts.entrySet()){
-				entry.getKey().dummyEdges = entry.getValue();
-            }
-        	
+    	// DO LAYOUT PART 2
+    	if (graph.getProperty(BpmnProperties.PARALLEL_LAYOUT)){
+	    	List<Runnable> tasks = new ArrayList<Runnable>(views.size());
+	    	for (final LocalGraphView view : views){
+	    		tasks.add(new Runnable() {
+					public void run() {
+						// Progress monitors are not thread-safe, each task gets its own
+						IKielerProgressMonitor localMonitor = new LocalProgressMonitor(monitor);
+						localMonitor.begin("Container layout", 1);
+						doLayout(2, view.localGraph, localMonitor, view.container, 
+								interactiveContainers.contains(view.container));
+						localMonitor.done();
+					}
+				});
+	    	}
+	    	Parallel.invokeAll(getExecutor(), tasks);
+    	}
+    	else {
+    		for (LocalGraphView view : views){
+    			doLayout(2, view.localGraph, monitor, view.container, interactiveContainers.contains(view.container));
+    		}
+    	}
+    	
+    	// Stack containers in container order
+    	for (LocalGraphView view : views){
+    		LGraph localGraph = view.localGraph;
+    		
             // Add y offset for container height
             int minY = Integer.MAX_VALUE; 
-        	for(Layer layer : graph.getLayers()){
+        	for(Layer layer : localGraph.getLayers()){
         		for(LNode node : layer.getNodes()){
         			minY = (int) Math.min(minY, node.getPosition().y);
         		}
         	}
-        	for(Layer layer : graph.getLayers()){
+        	for(Layer layer : localGraph.getLayers()){
         		for(LNode node : layer.getNodes()){
         			node.getPosition().y = node.getPosition().y - minY + CONTAINER_PADDING_TOP_BOTTOM;
         		}
         	}
-        	        	
+        	
+        	// Set container position and size
+        	stacker.stack(view.container, localGraph.getSize().y);
+    	}
+    	
+    	LocalGraphView.merge(graph, views);
+    	
+    	return crossContainerEdges;
+    }
+    
+    /**
+     * Returns the executor for the parallel container layout and processors.
+     * It's created on first use.
+     */
+    private synchronized ExecutorService getExecutor() {
+    	if (executor == null) executor = Parallel.newExecutor("bpmn-layout");
+    	return executor;
+    }
+    
+    /**
+     * Progress monitor for a local layout task. 
+     * Cancelling the parent monitor cancels the task.
+     */
+    private static final class LocalProgressMonitor extends BasicProgressMonitor {
+    	
+    	private final IKielerProgressMonitor parent;
+    	
+    	LocalProgressMonitor(IKielerProgressMonitor parent) {
+    		super(0);
+    		this.parent = parent;
+    	}
+    	
+    	@Override
+    	public boolean isCanceled() {
+    		return parent.isCanceled();
+    	}
+    }
+    
+    /**
+     * Stacks pools and lanes vertically in the order they are passed in
+     * and sets their position and height.
+     */
+    private static final class ContainerStacker {
+    	
+        private final double CONTAINER_PADDING_TOP_BOTTOM;
+        private final double CONTAINER_PADDING_LEFT_RIGHT;
+        private final double CONTAINER_SPACING;
+        
+    	private double lanePosY = 0;
+    	private double poolPosY = 0;
+    	private double poolSizeY = 0;
+    	private LNode currentPool = null; 
+    	
+    	ContainerStacker(LGraph graph) {
+            CONTAINER_PADDING_TOP_BOTTOM = graph.getProperty(BpmnProperties.CONTAINER_PADDING_TOP_BOTTOM);
+            CONTAINER_PADDING_LEFT_RIGHT = graph.getProperty(BpmnProperties.CONTAINER_PADDING_LEFT_RIGHT);
+            CONTAINER_SPACING = graph.getProperty(BpmnProperties.CONTAINER_SPACING);
+    	}
+    	
+    	/**
+    	 * @param bpmnContainer the next container
+    	 * @param height height of the container's local graph
+    	 */
+    	void stack(LNode bpmnContainer, double height) {
+        	LNode parentNode = bpmnContainer.getProperty(InternalProperties.PARENT_LNODE);
+        	
         	// Set container position 
         	LNode nextPool;
         	if (parentNode != null) nextPool = parentNode;
@@ -450,152 +672,65 @@ public final class KlayLayeredForBpmn {
         	}
         	
         	currentPool = nextPool;
-        	lanePosY = lanePosY + graph.getSize().y + 2 * CONTAINER_PADDING_TOP_BOTTOM - 1;
-        	poolPosY = poolPosY + graph.getSize().y + 2 * CONTAINER_PADDING_TOP_BOTTOM;
+        	lanePosY = lanePosY + height + 2 * CONTAINER_PADDING_TOP_BOTTOM - 1;
+        	poolPosY = poolPosY + height + 2 * CONTAINER_PADDING_TOP_BOTTOM;
         	
         	// Set container size
-        	laneSizeY = graph.getSize().y + 2 * CONTAINER_PADDING_TOP_BOTTOM;
+        	double laneSizeY = height + 2 * CONTAINER_PADDING_TOP_BOTTOM;
         	bpmnContainer.getSize().y = laneSizeY;
         	if (parentNode != null){
         		poolSizeY = poolSizeY + laneSizeY - 1;
         		parentNode.getSize().y = poolSizeY + 1;
         	}
-        	
-        	// Add new nodes from part 2 (e.g. long edge dummy nodes)
-        	for(Layer layer : graph.getLayers()){
-        		for(LNode node : layer.getNodes()){
-					if (!localNodes.contains(node)){ 
-						HashSet<LNode> originalLayer = originalLayerNodes.get(layer);	
-        				originalLayer.add(node);
-					}
-				// Add nodes to set of layouted nodes
-				// Needed for keeping node order of layouted nodes when restoring original graph
-				LinkedHashSet<LNode> nodeSet = layoutedLayerNodes.get(layer);
-				nodeSet.addAll(layer.getNodes());
-				}
-        	}
-        	
-        	// Restore original graph
-        	// It's important to keep the in-layer node order
-        	graph.getLayers().clear();
-        	for(Entry<Layer, LinkedHashSet<LNode>> entry : originalLayerNodes.entrySet()){
-        		Layer originalLayer = entry.getKey();
-        		HashSet<LNode> originalNodes = entry.getValue();
-        		graph.getLayers().add(originalLayer);
-        		
-        		// add nodes that are already layouted (to keep order)
-        		LinkedHashSet<LNode> tmpNodeSet = new LinkedHashSet<LNode>(layoutedLayerNodes.get(originalLayer));
-        		//add remaining nodes
-        		tmpNodeSet.addAll(originalNodes);
-        		
-        		originalLayer.getNodes().clear();
-        		originalLayer.getNodes().addAll(tmpNodeSet);
-    		}
-        }
-        
-        /////////// Layout part 3
-        graph.getLayerlessNodes().clear();
-        // Restore container-crossing edges
-        for (LEdge edge : crossContainerEdges){
-        	BpmnElementType flowType = edge.getProperty(BpmnProperties.ELEMENT_TYPE);
-        	LNode sourceNode = edge.getSource().getNode();
-        	LNode targetNode = edge.getTarget().getNode();
-    		if (flowType == BpmnElementType.MESSAGE_FLOW){
-	        	LPort southPort = new LPort(); 
-	        	southPort.setSide(PortSide.SOUTH);
-	        	LPort northPort = new LPort(); 
-	        	northPort.setSide(PortSide.NORTH);
-	        	southPort.setNode(sourceNode);
-	        	northPort.setNode(targetNode);
-	        	edge.setSource(southPort);
-	        	edge.setTarget(northPort);
-    		}
-    		else {
-    			edge.setSource(Utils.getPort(sourceNode, edge.getSource().getSide()));
-    			edge.setTarget(Utils.getPort(targetNode, edge.getTarget().getSide()));
-    		}
-        }
-        
-        doLayout(3,graph,monitor);
-        
-        // Resize graph
-        graph.getSize().x = graph.getSize().x + 100;
-        graph.getSize().y = poolPosY;
-        graph.getOffset().y = 0;
+    	}
+    	
+    	/**
+    	 * @return the height of all stacked containers
+    	 */
+    	double getHeight() {
+    		return poolPosY;
+    	}
     }
 
-    // The original KlayLayered has a very flexible layout processor management.
-    // For a BPMN diagram we know what we need, so we create a fixed layout processor setup below.
-    // BE CAREFUL: The order is important. Changing processor positions will most likely break 
-    //             parts of the layout.
-    private void doLayout (int part, LGraph graph, IKielerProgressMonitor monitor){
-		List<ILayoutProcessor> algorithms = new LinkedList<ILayoutProcessor>();
-		if (part == 1){
-			algorithms.add(new BpmnArtifactPreProcessor());
-	        algorithms.add(new GreedyCycleBreaker()); // phase 1
-	        algorithms.add(new PortSideProcessor());
-			algorithms.add(new BpmnMessageFlowPreProcessor());
-			algorithms.add(new BpmnBoundaryEventPreProcessor());
-			algorithms.add(new BigNodesPreProcessor());
-	        algorithms.add(new LabelDummyInserter());
-	        algorithms.add(new NetworkSimplexLayerer()); // phase
-			algorithms.add(new BpmnMessageFlowIntermediateProcessor());
-			algorithms.add(new BpmnBoundaryEventIntermediateProcessor1());
-			algorithms.add(new BigNodesIntermediateProcessor());
-			algorithms.add(new LongEdgeSplitter());
-		}
-		else if (part == 2){
-			// Part 2 must not contain processors that
-			// change node to layer assignments!
-	        algorithms.add(new LabelDummySwitcher());
-			algorithms.add(new LayerSweepCrossingMinimizer()); // phase 3
-			algorithms.add(new LabelAndNodeSizeProcessor());
-			algorithms.add(new NodeMarginCalculator());
-			algorithms.add(new LabelSideSelector());
-			algorithms.add(new BpmnArtifactIntermediateProcessor());
-			algorithms.add(new BpmnPortPreProcessor());
-			//algorithms.add(new GreedySwitchProcessor()); TODO: Activate?
-			algorithms.add(new BKNodePlacer()); // phase 4
-			algorithms.add(new LayerSizeAndGraphHeightCalculator());		
-			algorithms.add(new BpmnBoundaryEventIntermediateProcessor2());
-		}
-		else if (part == 3){
-			// LayerSizeAndGraphHeightCalculator is called twice. In part 2
-			// in order to calculate the height of the containers. And in part 3
-			// again to calculate the layer size over all containers.	
-			algorithms.add(new BpmnPortPostProcessor()); 
-			algorithms.add(new BpmnContainerPreProcessor());
-			// From here node positions are absolute
-			algorithms.add(new LayerSizeAndGraphHeightCalculator());	        
-			algorithms.add(new OrthogonalEdgeRouter()); // phase 5
-			algorithms.add(new BigNodesPostProcessor());
-			algorithms.add(new LongEdgeJoiner());
-			algorithms.add(new ReversedEdgeRestorer());
-			algorithms.add(new LabelDummyRemover());
-			algorithms.add(new EndLabelProcessor());
-			algorithms.add(new BpmnBoundaryEventPostProcessor());
-			algorithms.add(new BpmnArtifactPostProcessor());
-			algorithms.add(new BpmnContainerPostProcessor());
-			// From here all nodes are on their final position
-			algorithms.add(new BpmnGatewayProcessor());
-			algorithms.add(new BpmnMessageFlowPostProcessor());
-		}
-        
+    // The processors of each part are defined by the BpmnLayoutPipeline.
+    // container is the pool, lane or sub-process that is layouted (only for metrics)
+    private void doLayout (int part, LGraph graph, IKielerProgressMonitor monitor, LNode container){
+    	doLayout(part, graph, monitor, container, false);
+    }
+    
+    // interactive: keep the layers / node order of the previous layout
+    private void doLayout (int part, LGraph graph, IKielerProgressMonitor monitor, LNode container, boolean interactive){
+    	ILayoutMetricsListener metricsListener = this.metricsListener;
         // Invoke each layout processor
-        for (ILayoutProcessor processor : algorithms) {
+        for (ILayoutProcessor processor : pipeline.getProcessors(part, interactive)) {
         	if (monitor.isCanceled()) {
                return;
         	}
-			processor.process(graph, monitor.subTask(0));
+        	if (metricsListener == null){
+        		processor.process(graph, monitor.subTask(0));
+        	}
+        	else {
+        		long cpuTime = ThreadResources.cpuTime();
+        		long allocatedBytes = ThreadResources.allocatedBytes();
+        		long wallTime = System.nanoTime();
+        		processor.process(graph, monitor.subTask(0));
+        		wallTime = System.nanoTime() - wallTime;
+        		if (cpuTime >= 0) cpuTime = ThreadResources.cpuTime() - cpuTime;
+        		if (allocatedBytes >= 0) allocatedBytes = ThreadResources.allocatedBytes() - allocatedBytes;
+        		metricsListener.processed(new ProcessorMetrics(part, container, 
+        				processor.getClass().getSimpleName(), wallTime, cpuTime, allocatedBytes));
+        	}
         }
     }   
     
     /**
      * - Calculate sub-processes children's absolute positions
      * - Make all layered nodes layerless
+     * Parents come first, so the position of a nested sub-process is absolute
+     * when its children are moved.
      */
-	private void subProcessPostProcessing() {
-	   for (LNode subProcess : subProcesses){
+	private void subProcessPostProcessing(LayoutContext context) {
+	   for (LNode subProcess : context.subProcesses){
         	LGraph subGraph = subProcess.getProperty(InternalProperties.NESTED_LGRAPH);
         	List<LNode> layerlessNodes = subGraph.getLayerlessNodes();
         	
@@ -619,6 +754,11 @@ public final class KlayLayeredForBpmn {
         		}
         		
         	}
+        	// Move all nodes away from the layers, a later layout starts from the layerless nodes
+        	for (Layer layer : subGraph.getLayers()){
+        		layer.getNodes().clear();
+        	}
+        	subGraph.getLayers().clear();
         }
 	}
 
@@ -627,18 +767,73 @@ public final class KlayLayeredForBpmn {
 	 * Perform complete layout on all sub-processes.
 	 * Thereafter we have the sub-process size and we can
 	 * handle it as any other node. 
+	 * Nested sub-processes are nodes of their parent's graph, so they are
+	 * layouted first, innermost first. Sibling sub-processes don't depend on each 
+	 * other, with PARALLEL_LAYOUT they are layouted concurrently.
+	 * With a layout cache, sub-processes with the same content
+	 * (e.g. copies or called processes) are layouted only once.
 	 */
-	private void layoutSubProcesses(LGraph lGraph) {
-		// Layout sub-processes
-	    for (LNode subProcess : subProcesses){
+	private void layoutSubProcesses(LayoutContext context, LGraph lGraph) {
+		// Each sub-process gets its own random number generator, seeded
+		// in document order to keep the layout reproducible
+		Random random = lGraph.getProperty(InternalProperties.RANDOM);
+		List<LNode> topLevelSubProcesses = new ArrayList<LNode>();
+	    for (LNode subProcess : context.subProcesses){
 	    	LGraph subGraph = subProcess.getProperty(InternalProperties.NESTED_LGRAPH);
 	    	subGraph.getAllProperties().putAll(lGraph.getAllProperties());
-	    	doLayout(1,subGraph,monitor);
-	    	doLayout(2,subGraph,monitor);
-	    	doLayout(3,subGraph,monitor);
-	    	subProcess.getSize().x = subGraph.getSize().x + 2*lGraph.getProperty(BpmnProperties.CONTAINER_PADDING_LEFT_RIGHT);
-	    	subProcess.getSize().y = subGraph.getSize().y + 2*lGraph.getProperty(BpmnProperties.CONTAINER_PADDING_TOP_BOTTOM);
+	    	subGraph.setProperty(InternalProperties.RANDOM, new Random(random.nextLong()));
+	    	if (!context.subProcesses.contains(subProcess.getProperty(InternalProperties.PARENT_LNODE))){
+	    		topLevelSubProcesses.add(subProcess);
+	    	}
 	    }
+	    layoutSubProcesses(context, topLevelSubProcesses, lGraph.getProperty(BpmnProperties.PARALLEL_LAYOUT), 
+	    		context.monitor);
+	}
+	
+	private void layoutSubProcesses(final LayoutContext context, List<LNode> subProcesses, 
+			final boolean parallel, final IKielerProgressMonitor monitor) {
+		if (parallel && subProcesses.size() > 1){
+	    	List<Runnable> tasks = new ArrayList<Runnable>(subProcesses.size());
+	    	for (final LNode subProcess : subProcesses){
+	    		tasks.add(new Runnable() {
+					public void run() {
+						// Progress monitors are not thread-safe, each task gets its own
+						IKielerProgressMonitor localMonitor = new LocalProgressMonitor(monitor);
+						localMonitor.begin("Sub-process layout", 1);
+						layoutSubProcess(context, subProcess, parallel, localMonitor);
+						localMonitor.done();
+					}
+				});
+	    	}
+	    	// Tasks of nested sub-processes are added to the same executor,
+	    	// invokeAll() can't dead lock on that
+	    	Parallel.invokeAll(getExecutor(), tasks);
+		}
+		else {
+			for (LNode subProcess : subProcesses){
+				layoutSubProcess(context, subProcess, parallel, monitor);
+			}
+		}
+	}
+	
+	private void layoutSubProcess(LayoutContext context, LNode subProcess, boolean parallel, 
+			IKielerProgressMonitor monitor) {
+		List<LNode> nestedSubProcesses = context.nestedSubProcesses.get(subProcess);
+		if (nestedSubProcesses != null) layoutSubProcesses(context, nestedSubProcesses, parallel, monitor);
+		if (monitor.isCanceled()) return;
+		
+    	LGraph subGraph = subProcess.getProperty(InternalProperties.NESTED_LGRAPH);
+		LayoutCache layoutCache = this.layoutCache;
+    	LayoutCache.Lookup cacheLookup = null;
+    	if (layoutCache != null) cacheLookup = layoutCache.lookupSubProcess(subProcess);
+    	if (cacheLookup == null || !cacheLookup.isHit()){
+	    	doLayout(1,subGraph,monitor,subProcess);
+	    	doLayout(2,subGraph,monitor,subProcess);
+	    	doLayout(3,subGraph,monitor,subProcess);
+	    	if (cacheLookup != null && !monitor.isCanceled()) layoutCache.store(cacheLookup);
+    	}
+    	subProcess.getSize().x = subGraph.getSize().x + 2*subGraph.getProperty(BpmnProperties.CONTAINER_PADDING_LEFT_RIGHT);
+    	subProcess.getSize().y = subGraph.getSize().y + 2*subGraph.getProperty(BpmnProperties.CONTAINER_PADDING_TOP_BOTTOM);
 	}
     
 	////////////////////////////////////////////////////////////////////////////////
@@ -0,0 +1,164 @@
+/*
+ * BPMN Auto-Layouter
+ *
+ * Copyright 2015 by Marvin Ludwig - http://www.marvin-ludwig.de
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+
+package eu.ml82.bpmn_layouter.core;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import de.cau.cs.kieler.core.math.KVector;
+import de.cau.cs.kieler.klay.layered.graph.LEdge;
+import de.cau.cs.kieler.klay.layered.graph.LNode;
+import de.cau.cs.kieler.klay.layered.properties.InternalProperties;
+
+/**
+ * Changes of a layouted graph since its last layout, see KlayLayeredForBpmn.doIncrementalLayout().
+ *
+ * The graph is changed by the caller, the change set just records what was changed.
+ * Removals and moves must be recorded before the graph is layouted again,
+ * as the container of an element is only known from the last layout.
+ *
+ * Added nodes should get a position, e.g. where the user dropped them.
+ * Added nodes at (0,0) are placed right of their predecessors.
+ */
+public final class LayoutChangeSet {
+
+	// Nodes whose current container changed
+	private final Set<LNode> changedNodes = new LinkedHashSet<LNode>();
+	private final List<LNode> addedNodes = new ArrayList<LNode>();
+	private final List<LEdge> addedEdges = new ArrayList<LEdge>();
+	// Containers of the last layout that lost an element
+	private final Set<LNode> previousContainers = new HashSet<LNode>();
+
+	/**
+	 * A node was added to the graph
+	 */
+	public LayoutChangeSet addNode(LNode node) {
+		changedNodes.add(node);
+		addedNodes.add(node);
+		return this;
+	}
+
+	/**
+	 * A node was removed from the graph. Its edges must be removed (and recorded) as well.
+	 */
+	public LayoutChangeSet removeNode(LNode node) {
+		previousContainers.add(node.getProperty(InternalProperties.PARENT_LNODE));
+		return this;
+	}
+
+	/**
+	 * A node was moved to another container, e.g. to another lane.
+	 */
+	public LayoutChangeSet moveNode(LNode node) {
+		previousContainers.add(node.getProperty(InternalProperties.PARENT_LNODE));
+		changedNodes.add(node);
+		return this;
+	}
+
+	/**
+	 * An edge was added to the graph
+	 */
+	public LayoutChangeSet addEdge(LEdge edge) {
+		addedEdges.add(edge);
+		return this;
+	}
+
+	/**
+	 * An edge is removed from the graph. Call this before the edge is disconnected.
+	 */
+	public LayoutChangeSet removeEdge(LEdge edge) {
+		if (edge.getSource() != null) removeNode(edge.getSource().getNode());
+		if (edge.getTarget() != null) removeNode(edge.getTarget().getNode());
+		return this;
+	}
+
+	public boolean isEmpty() {
+		return changedNodes.isEmpty() && addedEdges.isEmpty() && previousContainers.isEmpty();
+	}
+
+	/**
+	 * Get the pools and lanes that must be layouted again.
+	 * Changes within a sub-process change the container of the (outermost) sub-process.
+	 *
+	 * @param subProcesses the sub-processes of the graph
+	 */
+	Set<LNode> getChangedContainers(Set<LNode> subProcesses) {
+		Set<LNode> containers = new HashSet<LNode>();
+		for (LNode container : previousContainers){
+			containers.add(getContainer(container, subProcesses));
+		}
+		for (LNode node : changedNodes){
+			containers.add(getContainer(node.getProperty(InternalProperties.PARENT_LNODE), subProcesses));
+		}
+		for (LEdge edge : addedEdges){
+			containers.add(getContainer(edge.getSource().getNode().getProperty(InternalProperties.PARENT_LNODE), subProcesses));
+			containers.add(getContainer(edge.getTarget().getNode().getProperty(InternalProperties.PARENT_LNODE), subProcesses));
+		}
+		containers.remove(null);
+		return containers;
+	}
+
+	private static LNode getContainer(LNode container, Set<LNode> subProcesses) {
+		while (container != null && subProcesses.contains(container)){
+			container = container.getProperty(InternalProperties.PARENT_LNODE);
+		}
+		return container;
+	}
+
+	/**
+	 * Give added nodes at (0,0) a position next to their neighbors, so the
+	 * interactive layering puts them into the right layer.
+	 * Positions must be absolute.
+	 *
+	 * @param spacing the spacing between nodes
+	 */
+	void placeAddedNodes(double spacing) {
+		Set<LNode> unplaced = new HashSet<LNode>();
+		for (LNode node : addedNodes){
+			KVector position = node.getPosition();
+			if (position.x == 0 && position.y == 0) unplaced.add(node);
+		}
+		for (LNode node : addedNodes){
+			if (!unplaced.contains(node)) continue;
+			KVector position = node.getPosition();
+			LNode predecessor = null;
+			for (LEdge edge : node.getIncomingEdges()){
+				LNode source = edge.getSource().getNode();
+				if (unplaced.contains(source)) continue;
+				if (predecessor == null || rightBorder(source) > rightBorder(predecessor)) predecessor = source;
+			}
+			if (predecessor != null){
+				position.x = rightBorder(predecessor) + spacing;
+				position.y = predecessor.getPosition().y;
+				unplaced.remove(node);
+				continue;
+			}
+			LNode successor = null;
+			for (LEdge edge : node.getOutgoingEdges()){
+				LNode target = edge.getTarget().getNode();
+				if (unplaced.contains(target)) continue;
+				if (successor == null || target.getPosition().x < successor.getPosition().x) successor = target;
+			}
+			if (successor != null){
+				position.x = successor.getPosition().x - spacing - node.getSize().x;
+				position.y = successor.getPosition().y;
+				unplaced.remove(node);
+			}
+		}
+	}
+
+	private static double rightBorder(LNode node) {
+		return node.getPosition().x + node.getSize().x;
+	}
+
+}
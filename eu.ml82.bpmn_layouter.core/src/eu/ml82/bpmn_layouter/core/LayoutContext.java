@@ -0,0 +1,55 @@
+/*
+ * BPMN Auto-Layouter
+ *
+ * Copyright 2015 by Marvin Ludwig - http://www.marvin-ludwig.de
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+
+package eu.ml82.bpmn_layouter.core;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import de.cau.cs.kieler.core.alg.IKielerProgressMonitor;
+import de.cau.cs.kieler.klay.layered.graph.LEdge;
+import de.cau.cs.kieler.klay.layered.graph.LNode;
+
+/**
+ * State of a single layout run.
+ *
+ * A new context is created for each call of KlayLayeredForBpmn.doLayout(),
+ * so concurrent layout runs don't share any state.
+ */
+final class LayoutContext {
+
+	final IKielerProgressMonitor monitor;
+	// Incremental layout: keep the previous layout except for the changed containers
+	final boolean incremental;
+	final Set<LNode> changedContainers = new HashSet<LNode>();
+	// Complete layout: keep the node order of containers that didn't change, see BpmnProperties.KEEP_UNCHANGED_ORDER
+	final boolean keepUnchangedOrder;
+
+    final Set<LNode> flowNodes = new LinkedHashSet<LNode>();
+    // BPMN containers are pools, lanes or subprocesses
+    // and their y-position before layout
+    final Map<LNode,Double> bpmnContainers = new HashMap<LNode,Double>();
+    // All sub-processes, a parent before its nested sub-processes
+    final Set<LNode> subProcesses = new LinkedHashSet<LNode>();
+    // The sub-processes nested in a sub-process
+    final Map<LNode,List<LNode>> nestedSubProcesses = new HashMap<LNode,List<LNode>>();
+    final List<LEdge> messageFlows = new LinkedList<LEdge>(); // filled during dive
+
+    LayoutContext(IKielerProgressMonitor monitor, boolean incremental, boolean keepUnchangedOrder) {
+    	this.monitor = monitor;
+    	this.incremental = incremental;
+    	this.keepUnchangedOrder = keepUnchangedOrder;
+    }
+
+}
@@ -0,0 +1,100 @@
+/*
+ * BPMN Auto-Layouter
+ *
+ * Copyright 2015 by Marvin Ludwig - http://www.marvin-ludwig.de
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+
+package eu.ml82.bpmn_layouter.core;
+
+import de.cau.cs.kieler.core.math.KVector;
+import de.cau.cs.kieler.core.math.KVectorChain;
+import de.cau.cs.kieler.klay.layered.graph.LEdge;
+import de.cau.cs.kieler.klay.layered.graph.LGraph;
+import de.cau.cs.kieler.klay.layered.graph.LLabel;
+import de.cau.cs.kieler.klay.layered.graph.LNode;
+import de.cau.cs.kieler.klay.layered.graph.LPort;
+import de.cau.cs.kieler.klay.layered.properties.InternalProperties;
+import eu.ml82.bpmn_layouter.core.properties.BpmnProperties;
+import eu.ml82.bpmn_layouter.core.properties.PosType;
+import eu.ml82.bpmn_layouter.core.utils.ContainerOffsets;
+
+/**
+ * Read the positions of a layouted graph as absolute or relative positions.
+ * (Relative means relative to a container like a pool, lane or sub-process.)
+ *
+ * The graph must be layouted with PosType.ABSOLUTE, the positions are transformed
+ * on demand with the container offset table of the layout. Unlike PosType.RELATIVE,
+ * the graph isn't changed, so callers that read only some elements don't pay for
+ * transforming the whole graph.
+ *
+ * Node positions are relative to the container of the node. Edge points and
+ * edge labels are relative to the container of the source node, like with
+ * PosType.RELATIVE. All methods return new vectors.
+ */
+public final class LayoutResult {
+
+	private final ContainerOffsets containerOffsets;
+
+	private LayoutResult(ContainerOffsets containerOffsets) {
+		this.containerOffsets = containerOffsets;
+	}
+
+	/**
+	 * @param graph graph layouted with PosType.ABSOLUTE
+	 */
+	public static LayoutResult of(LGraph graph) {
+		ContainerOffsets containerOffsets = graph.getProperty(BpmnProperties.CONTAINER_OFFSETS);
+		if (containerOffsets == null || !containerOffsets.isAbsolute())
+			throw new IllegalStateException("The graph must be layouted with PosType.ABSOLUTE");
+		return new LayoutResult(containerOffsets);
+	}
+
+	public KVector getPosition(LNode node, PosType posType) {
+		return toFrame(new KVector(node.getPosition()), node, posType);
+	}
+
+	/**
+	 * @return position of the source port
+	 */
+	public KVector getSourcePoint(LEdge edge, PosType posType) {
+		return toFrame(getPortPosition(edge.getSource()), edge.getSource().getNode(), posType);
+	}
+
+	/**
+	 * @return position of the target port
+	 */
+	public KVector getTargetPoint(LEdge edge, PosType posType) {
+		return toFrame(getPortPosition(edge.getTarget()), edge.getSource().getNode(), posType);
+	}
+
+	public KVectorChain getBendPoints(LEdge edge, PosType posType) {
+		KVectorChain bendPoints = new KVectorChain();
+		for (KVector bendPoint : edge.getBendPoints()){
+			bendPoints.add(toFrame(new KVector(bendPoint), edge.getSource().getNode(), posType));
+		}
+		return bendPoints;
+	}
+
+	public KVector getLabelPosition(LEdge edge, LLabel label, PosType posType) {
+		return toFrame(new KVector(label.getPosition()), edge.getSource().getNode(), posType);
+	}
+
+	private static KVector getPortPosition(LPort port) {
+		return new KVector(port.getPosition()).add(port.getNode().getPosition());
+	}
+
+	/**
+	 * Transform an absolute position into the frame of a node's container
+	 */
+	private KVector toFrame(KVector pos, LNode node, PosType posType) {
+		if (posType == PosType.RELATIVE){
+			LNode container = node.getProperty(InternalProperties.PARENT_LNODE);
+			if (container != null) pos.sub(containerOffsets.getOrigin(container));
+		}
+		return pos;
+	}
+
+}
@@ -14,6 +14,9 @@ package eu.ml82.bpmn_layouter.core;
  * and set nodes that have incoming or outgoing cross-container edges 
  * as nodes that must be at top or bottom of the container
  * 
+ * Container membership is looked up in a ContainerIndex, so preparing
+ * a local graph is linear in the number of its nodes and edges.
+ * 
  */
 
 import java.util.Iterator;
@@ -33,7 +36,13 @@ public final class LocalGraphHandler {
 	
 	List<LEdge> crossContainerEdges = new LinkedList<LEdge>();
 	
-    public List<LEdge> prepareGraph(final LGraph graph, final List<LNode> localNodes) {
+	/**
+	 * Remove all nodes that don't belong to the given container from the graph's layers
+	 * and all edges between local and non-local nodes.
+	 * 
+	 * @return the removed container-crossing edges, without message flows and artifact dummy edges 
+	 */
+    public List<LEdge> prepareGraph(final LGraph graph, final ContainerIndex index, final int containerId) {
     	
     	// prepare local graph
     	for (Layer layer : graph.getLayers()){
@@ -43,13 +52,13 @@ public final class LocalGraphHandler {
     		Iterator<LNode> layerNodesIterator = layer.getNodes().iterator();
     		while (layerNodesIterator.hasNext()){
     			LNode node = layerNodesIterator.next();
-    			if (!localNodes.contains(node)) layerNodesIterator.remove();
+    			if (index.getContainerId(node) != containerId) layerNodesIterator.remove();
     			else { 
     				node.setGraph(graph);
     				
     				// remove non-local edges
-    				checkAndRemoveEdges(node.getOutgoingEdges().iterator(),localNodes,"outgoing");
-    				checkAndRemoveEdges(node.getIncomingEdges().iterator(),localNodes,"incoming");
+    				checkAndRemoveEdges(node.getOutgoingEdges().iterator(),index,containerId,"outgoing");
+    				checkAndRemoveEdges(node.getIncomingEdges().iterator(),index,containerId,"incoming");
     				
     				InLayerConstraint inLayerConstraint = node.getProperty(InternalProperties.IN_LAYER_CONSTRAINT);
     				if (inLayerConstraint != null){ 
@@ -82,17 +91,11 @@ public final class LocalGraphHandler {
     	else return edge.getTarget().getNode();
     }
     
-    private void removeEdge(Iterator<LEdge> edgeIterator, LEdge edge){
-    	while (edgeIterator.hasNext()){
-    		if (edgeIterator.next() == edge) edgeIterator.remove();
-    	}
-    }
-    
     // remove non-local edges
-    private void checkAndRemoveEdges(Iterator<LEdge> edgeIterator, final List<LNode> localNodes, String type){
+    private void checkAndRemoveEdges(Iterator<LEdge> edgeIterator, final ContainerIndex index, final int containerId, String type){
  		while (edgeIterator.hasNext()){
  			LEdge edge = edgeIterator.next();
-     		if (!localNodes.contains(getNode(edge,type))) {
+     		if (index.getContainerId(getNode(edge,type)) != containerId) {
      			if (edge.getProperty(BpmnProperties.ELEMENT_TYPE) != BpmnElementType.MESSAGE_FLOW
      				&& !edge.getProperty(BpmnProperties.ARTIFACT_DUMMY_EDGE))
      				crossContainerEdges.add(edge);
@@ -108,12 +111,13 @@ public final class LocalGraphHandler {
 				if (type.equals("incoming")) {
  					localNode = targetNode;
  					foreignNode = sourceNode; 
- 					removeEdge(foreignNode.getOutgoingEdges().iterator(),edge);
+ 					// Only the foreign port's edge list needs to be updated
+ 					edge.getSource().getOutgoingEdges().remove(edge);
  				}
  				else {
  					localNode = sourceNode;
  					foreignNode = targetNode;
- 					removeEdge(foreignNode.getIncomingEdges().iterator(),edge);
+ 					edge.getTarget().getIncomingEdges().remove(edge);
  				}			
         		
 				localNode.setProperty(InternalProperties.IN_LAYER_CONSTRAINT, InLayerConstraint.BOTTOM);
@@ -0,0 +1,242 @@
+/*
+ * BPMN Auto-Layouter
+ *
+ * Copyright 2015 by Marvin Ludwig - http://www.marvin-ludwig.de
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+
+package eu.ml82.bpmn_layouter.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import de.cau.cs.kieler.core.properties.IProperty;
+import de.cau.cs.kieler.core.properties.Property;
+import de.cau.cs.kieler.klay.layered.graph.LEdge;
+import de.cau.cs.kieler.klay.layered.graph.LGraph;
+import de.cau.cs.kieler.klay.layered.graph.LNode;
+import de.cau.cs.kieler.klay.layered.graph.LPort;
+import de.cau.cs.kieler.klay.layered.graph.Layer;
+import de.cau.cs.kieler.klay.layered.properties.InternalProperties;
+
+/**
+ * Local layered graph of a BPMN container (pool or lane) for layout part 2.
+ *
+ * The local graph presents only the container's nodes and its non-empty layers
+ * to the layout processors. The nodes are handed over from the layers of the
+ * complete graph and handed back by merge(), nothing else of the complete graph
+ * is touched. So there is no need to copy and restore the complete graph's layers
+ * for every container, and the local graphs can be layouted independently of
+ * each other.
+ */
+final class LocalGraphView {
+
+	/** The signature of the container's local graph in the last layout, see signature() */
+	static final IProperty<Signature> SIGNATURE = new Property<Signature>(
+			"eu.ml82.bpmn_layouter.core.container_signature");
+
+	final LNode container;
+	final int containerId;
+	final LGraph localGraph = new LGraph();
+	// The global layer of each local layer
+	private final List<Layer> globalLayers = new ArrayList<Layer>();
+
+	private LocalGraphView(LNode container, int containerId, LGraph graph, Random random) {
+		this.container = container;
+		this.containerId = containerId;
+		localGraph.copyProperties(graph);
+		localGraph.setProperty(InternalProperties.RANDOM, random);
+	}
+
+	/**
+	 * Create the local graphs of all containers and move the nodes from the
+	 * layers of the complete graph to the local layers. Nodes without container
+	 * stay where they are.
+	 *
+	 * Each local graph gets its own random number generator, seeded in container
+	 * order to keep the layout reproducible.
+	 *
+	 * @return the local graphs in container order
+	 */
+	static List<LocalGraphView> create(LGraph graph, ContainerIndex index) {
+		Random random = graph.getProperty(InternalProperties.RANDOM);
+		List<LocalGraphView> views = new ArrayList<LocalGraphView>(index.size());
+		for (int containerId = 0; containerId < index.size(); containerId++){
+			views.add(new LocalGraphView(index.getContainer(containerId), containerId, graph, new Random(random.nextLong())));
+		}
+		for (Layer layer : graph.getLayers()){
+			List<LNode> layerNodes = new ArrayList<LNode>(layer.getNodes());
+			layer.getNodes().clear();
+			for (LNode node : layerNodes){
+				int containerId = index.getContainerId(node);
+				if (containerId == ContainerIndex.NO_CONTAINER) layer.getNodes().add(node);
+				else node.setLayer(views.get(containerId).getLocalLayer(layer));
+			}
+		}
+		return views;
+	}
+
+	/**
+	 * Move the nodes of the local graphs back to the layers of the complete graph.
+	 * Within a layer, the nodes are ordered by container and keep their local order,
+	 * nodes without container come last.
+	 */
+	static void merge(LGraph graph, List<LocalGraphView> views) {
+		Map<Layer,List<LNode>> remainingNodes = new IdentityHashMap<Layer,List<LNode>>();
+		for (Layer layer : graph.getLayers()){
+			remainingNodes.put(layer, new ArrayList<LNode>(layer.getNodes()));
+			layer.getNodes().clear();
+		}
+		for (LocalGraphView view : views){
+			List<Layer> localLayers = view.localGraph.getLayers();
+			for (int i = 0; i < localLayers.size(); i++){
+				Layer localLayer = localLayers.get(i);
+				Layer layer = view.globalLayers.get(i);
+				List<LNode> layerNodes = new ArrayList<LNode>(localLayer.getNodes());
+				localLayer.getNodes().clear();
+				for (LNode node : layerNodes){
+					node.setLayer(layer);
+					node.setGraph(graph);
+				}
+			}
+			localLayers.clear();
+			view.globalLayers.clear();
+		}
+		for (Layer layer : graph.getLayers()){
+			layer.getNodes().addAll(remainingNodes.get(layer));
+		}
+	}
+
+	/**
+	 * Signature of everything the crossing minimization of the container depends on:
+	 * the nodes of each local layer, the local edges and their port sides,
+	 * the container-crossing edges and the layer span within the complete graph.
+	 * 
+	 * Elements are identified by object identity, dummy nodes by the edge or node
+	 * they were created for. So signatures of the same graph can be compared from
+	 * one layout to the next, nothing else.
+	 * 
+	 * @param crossContainerEdges the edges removed from the local graph
+	 */
+	Signature signature(List<LEdge> crossContainerEdges) {
+		List<Layer> localLayers = localGraph.getLayers();
+		int firstLayer = globalLayers.isEmpty() ? -1 : globalLayers.get(0).getIndex();
+		Signature signature = new Signature(firstLayer);
+		for (int i = 0; i < localLayers.size(); i++){
+			Set<Key> layerNodes = new HashSet<Key>();
+			for (LNode node : localLayers.get(i).getNodes()){
+				layerNodes.add(new Key(identity(node), node.getNodeType()));
+				for (LPort port : node.getPorts()){
+					for (LEdge edge : port.getOutgoingEdges()){
+						LPort target = edge.getTarget();
+						signature.addEdge(new Key(identity(node), port.getSide(), identity(target.getNode()), target.getSide()));
+					}
+				}
+			}
+			signature.layers.add(layerNodes);
+		}
+		for (LEdge edge : crossContainerEdges){
+			signature.addEdge(new Key(identity(edge.getSource().getNode()), identity(edge.getTarget().getNode())));
+		}
+		return signature;
+	}
+
+	private static Object identity(LNode node) {
+		Object origin = node.getProperty(InternalProperties.ORIGIN);
+		// Dummy nodes are created again for each layout
+		if (origin instanceof LEdge || origin instanceof LNode) return origin;
+		return node;
+	}
+
+	/**
+	 * Nodes and edges of a local graph, see signature(). Two signatures are equal if they 
+	 * have the same nodes in each layer and the same edges, in any order.
+	 * Unlike a hash, the signatures of two different local graphs are never equal.
+	 */
+	static final class Signature {
+
+		private final int firstLayer;
+		private final List<Set<Key>> layers = new ArrayList<Set<Key>>();
+		// Number of edges per end points and port sides, there may be parallel edges
+		private final Map<Key,Integer> edges = new HashMap<Key,Integer>();
+
+		private Signature(int firstLayer) {
+			this.firstLayer = firstLayer;
+		}
+
+		private void addEdge(Key edge) {
+			Integer count = edges.get(edge);
+			edges.put(edge, count != null ? count + 1 : 1);
+		}
+
+		@Override
+		public boolean equals(Object object) {
+			if (!(object instanceof Signature)) return false;
+			Signature other = (Signature) object;
+			return firstLayer == other.firstLayer && layers.equals(other.layers) && edges.equals(other.edges);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * (31 * firstLayer + layers.hashCode()) + edges.hashCode();
+		}
+
+	}
+
+	/**
+	 * Element of a signature, its parts are compared by identity
+	 */
+	private static final class Key {
+
+		private final Object[] parts;
+
+		Key(Object... parts) {
+			this.parts = parts;
+		}
+
+		@Override
+		public boolean equals(Object object) {
+			if (!(object instanceof Key)) return false;
+			Object[] otherParts = ((Key) object).parts;
+			if (otherParts.length != parts.length) return false;
+			for (int i = 0; i < parts.length; i++){
+				if (parts[i] != otherParts[i]) return false;
+			}
+			return true;
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = 0;
+			for (Object part : parts){
+				hash = 31 * hash + System.identityHashCode(part);
+			}
+			return hash;
+		}
+
+	}
+
+	/**
+	 * Get the local layer for a global layer. Global layers must be
+	 * requested in order. Layers without local nodes are left out,
+	 * as empty layers would cause errors during crossing minimization.
+	 */
+	private Layer getLocalLayer(Layer globalLayer) {
+		int last = globalLayers.size() - 1;
+		if (last >= 0 && globalLayers.get(last) == globalLayer)
+			return localGraph.getLayers().get(last);
+		Layer localLayer = new Layer(localGraph);
+		localGraph.getLayers().add(localLayer);
+		globalLayers.add(globalLayer);
+		return localLayer;
+	}
+
+}
@@ -9,6 +9,11 @@
 
 package eu.ml82.bpmn_layouter.core;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import de.cau.cs.kieler.core.math.KVector;
@@ -25,6 +30,9 @@ import eu.ml82.bpmn_layouter.core.utils.Utils;
 /**
  * Adjust graph in order to have relative node positions.
  * (Relative to container)
+ * 
+ * Each transformation is one traversal of the graph, moving nodes, 
+ * bendpoints, ports and labels in place.
  */
 
 public class RelativePositions {
@@ -32,17 +40,23 @@ public class RelativePositions {
 	/**
      * Adjust graph in order to have relative node positions.
      * (Relative to container)
-	 * @param subProcesses 
-	 * @param subProcesses 
+	 * @param subProcesses all sub-processes, a parent before its nested sub-processes
      */
     public static void make(LGraph graph, Set<LNode> subProcesses){
     	Set<LNode> containers = graph.getProperty(BpmnProperties.CONTAINERS);
     	if (containers != null){
-	        adjustEdges(graph);
-	        adjustNodes(graph, new KVector(0,0));
+    		// Edges between containers need the absolute container positions,
+    		// keep them before the containers are moved
+    		Map<LNode,KVector> containerPositions = new HashMap<LNode,KVector>();
+    		collectContainerPositions(graph, containerPositions);
+	        adjustNodes(graph, new KVector(0,0), containerPositions);
     	}
     	else if (subProcesses != null){
-      		for (LNode subProcess : subProcesses){
+    		// Innermost first, the position of a sub-process must be absolute
+    		// until its children are adjusted
+    		List<LNode> innermostFirst = new ArrayList<LNode>(subProcesses);
+    		Collections.reverse(innermostFirst);
+      		for (LNode subProcess : innermostFirst){
     			graph = subProcess.getProperty(InternalProperties.NESTED_LGRAPH);
     			if (graph != null){
     		       	adjustSubProcessChildNodes(subProcess);	
@@ -52,60 +66,91 @@ public class RelativePositions {
     }
     
     
-	private static void adjustNodes(LGraph graph, KVector offset){
+    /**
+     * Turn the relative node positions and bend points of a layouted graph 
+     * back into absolute ones. Ports and labels are not changed.
+     */
+    public static void makeAbsolute(LGraph graph){
+    	makeAbsolute(graph, new KVector(0,0));
+    }
+    
+    /**
+     * @param offset absolute position of the container of the graph
+     */
+    private static void makeAbsolute(LGraph graph, KVector offset){
 		for (LNode node : graph.getLayerlessNodes()){
-			graph = node.getProperty(InternalProperties.NESTED_LGRAPH);
-			if (graph != null) {
-				KVector newOffset = node.getPosition();
-				adjustNodes(graph, newOffset);
+			// Bendpoints are relative to the source node's container
+			for (LEdge edge : node.getOutgoingEdges()){
+				for (KVector bendpoint : edge.getBendPoints()){
+					bendpoint.add(offset);
+				}
+			}
+			node.getPosition().add(offset);
+			LGraph nestedGraph = node.getProperty(InternalProperties.NESTED_LGRAPH);
+			if (nestedGraph != null) {
+				makeAbsolute(nestedGraph, node.getPosition());
 			}
-			node.getPosition().sub(offset);
 		}
-	}
+    }
     
-    /**
-     * Adjust edges (port and bendpoint positions)
-     */
-    private static void adjustEdges(LGraph graph){
+    private static void collectContainerPositions(LGraph graph, Map<LNode,KVector> containerPositions){
     	for (LNode node : graph.getLayerlessNodes()){
-			graph = node.getProperty(InternalProperties.NESTED_LGRAPH);
-			if (graph != null) {
-				adjustEdges(graph);
+			LGraph nestedGraph = node.getProperty(InternalProperties.NESTED_LGRAPH);
+			if (nestedGraph != null) {
+				containerPositions.put(node, new KVector(node.getPosition()));
+				collectContainerPositions(nestedGraph, containerPositions);
 			}
+    	}
+    }
+    
+    /**
+     * Adjust nodes and their outgoing edges
+     * 
+     * @param offset absolute position of the container of the graph
+     * @param containerPositions absolute positions of all containers
+     */
+	private static void adjustNodes(LGraph graph, KVector offset, Map<LNode,KVector> containerPositions){
+		for (LNode node : graph.getLayerlessNodes()){
 			for (LEdge edge : node.getOutgoingEdges()){
-				adjustEdge(edge);
+				adjustEdge(edge, containerPositions);
 			}
-		}    		
-    }
+			LGraph nestedGraph = node.getProperty(InternalProperties.NESTED_LGRAPH);
+			if (nestedGraph != null) {
+				adjustNodes(nestedGraph, containerPositions.get(node), containerPositions);
+			}
+			node.getPosition().sub(offset);
+		}
+	}
     
-    private static void adjustEdge(LEdge edge){
+    /**
+     * Adjust edge (port, bendpoint and label positions)
+     */
+    private static void adjustEdge(LEdge edge, Map<LNode,KVector> containerPositions){
     	LPort source = edge.getSource();
 		LPort target = edge.getTarget();
 		LNode targetContainer = target.getNode().getProperty(InternalProperties.PARENT_LNODE);
 		LNode sourceContainer = source.getNode().getProperty(InternalProperties.PARENT_LNODE);
-		KVector adjustPos;
-		KVector sourceContainerPos = sourceContainer.getPosition();
+		KVector sourceContainerPos = containerPositions.get(sourceContainer);
 		if (sourceContainer	!= targetContainer){
 			if (Utils.countEdges(target.getConnectedEdges().iterator())> 1){
 				target = clonePort(target);
 				edge.setTarget(target);
 			}
-			KVector targetContainerPos = targetContainer.getPosition();
-			adjustPos = new KVector(sourceContainerPos).sub(targetContainerPos);
-			target.getPosition().sub(adjustPos);
+			KVector targetContainerPos = containerPositions.get(targetContainer);
+			KVector targetPos = target.getPosition();
+			targetPos.x -= sourceContainerPos.x - targetContainerPos.x;
+			targetPos.y -= sourceContainerPos.y - targetContainerPos.y;
     	}
 		
 		// Adjust bendpoints
-		adjustPos = sourceContainerPos;
 		for (KVector bendpoint : edge.getBendPoints()){
-			bendpoint.sub(adjustPos);
+			bendpoint.sub(sourceContainerPos);
 		}
 		
 		// Adjust edge labels
-		for (LLabel edgeLabel : edge.getLabels()){
-			LNode parent = edge.getSource().getNode().getProperty(InternalProperties.PARENT_LNODE);
-			if (parent != null){
-				edgeLabel.getPosition().sub(parent.getPosition());
+		if (sourceContainer != null){
+			for (LLabel edgeLabel : edge.getLabels()){
+				edgeLabel.getPosition().sub(sourceContainerPos);
 			}
 		}
     }
@@ -0,0 +1,114 @@
+/*
+ * BPMN Auto-Layouter
+ *
+ * Copyright 2015 by Marvin Ludwig - http://www.marvin-ludwig.de
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+
+package eu.ml82.bpmn_layouter.core.cache;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.cau.cs.kieler.klay.layered.graph.LEdge;
+import de.cau.cs.kieler.klay.layered.graph.LGraph;
+import de.cau.cs.kieler.klay.layered.graph.LLabel;
+import de.cau.cs.kieler.klay.layered.graph.LNode;
+import de.cau.cs.kieler.klay.layered.graph.LPort;
+import de.cau.cs.kieler.klay.layered.properties.InternalProperties;
+import eu.ml82.bpmn_layouter.core.properties.BpmnElementType;
+import eu.ml82.bpmn_layouter.core.properties.BpmnProperties;
+
+/**
+ * The graphs, nodes, ports, edges and labels of a graph before the layout,
+ * each kind numbered in a fixed traversal order.
+ *
+ * Two graphs with the same fingerprint have the same elements in the same order,
+ * so a snapshot of one graph's layout can be applied to the other by index.
+ * The layout changes the structure (it moves nodes and edges and adds ports),
+ * so the elements must be collected before the layout.
+ *
+ * The graph may be the nested graph of a sub-process, the owner. It is the
+ * PARENT_LNODE of the graph's nodes but not an element itself. Sub-processes
+ * nested in it are layouted before, only their size matters, so their
+ * content isn't part of the elements.
+ */
+final class GraphElements {
+
+	final List<LGraph> graphs = new ArrayList<LGraph>();
+	final List<LNode> nodes = new ArrayList<LNode>();
+	final List<LPort> ports = new ArrayList<LPort>();
+	final List<LEdge> edges = new ArrayList<LEdge>();
+	final List<LLabel> labels = new ArrayList<LLabel>();
+
+	/** The node the graph is nested in, null for a top level graph */
+	final LNode owner;
+
+	private final Map<Object,Integer> index = new IdentityHashMap<Object,Integer>();
+
+	GraphElements(LGraph graph) {
+		this(graph, null);
+	}
+
+	GraphElements(LGraph graph, LNode owner) {
+		this.owner = owner;
+		addGraph(graph);
+		// Edges in the order of their source ports, then edges from ports outside the graph
+		for (LPort port : ports){
+			for (LEdge edge : port.getOutgoingEdges()){
+				add(edges, edge);
+			}
+		}
+		for (LPort port : ports){
+			for (LEdge edge : port.getIncomingEdges()){
+				add(edges, edge);
+			}
+		}
+		for (LEdge edge : edges){
+			for (LLabel label : edge.getLabels()){
+				add(labels, label);
+			}
+		}
+	}
+
+	private void addGraph(LGraph graph) {
+		add(graphs, graph);
+		for (LNode node : graph.getLayerlessNodes()){
+			add(nodes, node);
+			for (LLabel label : node.getLabels()){
+				add(labels, label);
+			}
+			for (LPort port : node.getPorts()){
+				add(ports, port);
+			}
+			LGraph nestedGraph = node.getProperty(InternalProperties.NESTED_LGRAPH);
+			if (nestedGraph != null && !index.containsKey(nestedGraph) && !isNestedSubProcess(node)) addGraph(nestedGraph);
+		}
+	}
+
+	private <T> void add(List<T> list, T element) {
+		if (index.containsKey(element)) return;
+		index.put(element, list.size());
+		list.add(element);
+	}
+
+	/**
+	 * @return true if the node is a sub-process in the graph of the owner
+	 */
+	boolean isNestedSubProcess(LNode node) {
+		return owner != null && node.getProperty(BpmnProperties.ELEMENT_TYPE) == BpmnElementType.SUBPROCESS;
+	}
+
+	/**
+	 * @return the index of a graph, node, port, edge or label, -1 if it isn't an element of the graph
+	 */
+	int indexOf(Object element) {
+		Integer i = index.get(element);
+		return i != null ? i : -1;
+	}
+
+}
@@ -0,0 +1,196 @@
+/*
+ * BPMN Auto-Layouter
+ *
+ * Copyright 2015 by Marvin Ludwig - http://www.marvin-ludwig.de
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+
+package eu.ml82.bpmn_layouter.core.cache;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.cau.cs.kieler.core.properties.IProperty;
+import de.cau.cs.kieler.kiml.options.LayoutOptions;
+import de.cau.cs.kieler.klay.layered.graph.LEdge;
+import de.cau.cs.kieler.klay.layered.graph.LGraph;
+import de.cau.cs.kieler.klay.layered.graph.LLabel;
+import de.cau.cs.kieler.klay.layered.graph.LNode;
+import de.cau.cs.kieler.klay.layered.graph.LPort;
+import de.cau.cs.kieler.klay.layered.properties.InternalProperties;
+import de.cau.cs.kieler.klay.layered.properties.Properties;
+import eu.ml82.bpmn_layouter.core.properties.BpmnElementType;
+import eu.ml82.bpmn_layouter.core.properties.BpmnProperties;
+import eu.ml82.bpmn_layouter.core.properties.PosType;
+
+/**
+ * SHA-1 hash over everything in a graph that the layout depends on:
+ * <ul>
+ * <li>the container nesting and the order of the nodes in each graph</li>
+ * <li>node ids, element types, sizes and label sizes</li>
+ * <li>ports and their sides, edges with their end points, types and label sizes</li>
+ * <li>the stacking order of pools and lanes (their y positions before the layout)</li>
+ * <li>the layout options of the graph and the position type, or for the nested graph
+ *     of a sub-process that it is one</li>
+ * </ul>
+ * Label texts, other positions and any other properties are not part of the hash,
+ * so renaming an element doesn't change it as long as the label sizes stay the same.
+ * 
+ * The ids are left out for the nested graph of a sub-process, so copies of 
+ * a sub-process share the hash. The snapshot maps the elements by their index.
+ */
+public final class GraphFingerprint {
+
+	/** Changes whenever the hash or the snapshot content changes */
+	static final int VERSION = 3;
+
+	private static final List<IProperty<?>> GRAPH_OPTIONS = Arrays.<IProperty<?>>asList(
+			LayoutOptions.SPACING, LayoutOptions.BORDER_SPACING, LayoutOptions.DIRECTION,
+			Properties.RANDOM_SEED, Properties.THOROUGHNESS, Properties.EDGE_SPACING_FACTOR,
+			InternalProperties.ASPECT_RATIO, BpmnProperties.CONTAINER_PADDING_TOP_BOTTOM,
+			BpmnProperties.CONTAINER_PADDING_LEFT_RIGHT, BpmnProperties.CONTAINER_SPACING);
+
+	private GraphFingerprint() {
+	}
+
+	/**
+	 * @return the hash as a hex string
+	 */
+	public static String of(LGraph graph, PosType posType) {
+		return of(new GraphElements(graph), String.valueOf(posType));
+	}
+
+	/**
+	 * @param kind what the layout is for: the position type or SUBPROCESS
+	 */
+	static String of(GraphElements elements, String kind) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new DigestOutputStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+				// Only the digest is needed
+			}
+		}, digest)));
+		try {
+			write(elements, kind, out);
+			out.flush();
+		} catch (IOException e) {
+			// Can't happen, nothing is written
+			throw new IllegalStateException(e);
+		}
+		StringBuilder hex = new StringBuilder();
+		for (byte b : digest.digest()){
+			hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return hex.toString();
+	}
+
+	private static void write(GraphElements elements, String kind, DataOutputStream out) throws IOException {
+		out.writeInt(VERSION);
+		out.writeUTF(kind);
+		// Copies of a sub-process have different BPMN ids
+		boolean withIds = !BpmnElementType.SUBPROCESS.name().equals(kind);
+		LGraph graph = elements.graphs.get(0);
+		for (IProperty<?> option : GRAPH_OPTIONS){
+			out.writeUTF(String.valueOf(graph.getProperty(option)));
+		}
+
+		// Nesting
+		for (LGraph nestedGraph : elements.graphs){
+			out.writeInt(nestedGraph.getLayerlessNodes().size());
+			for (LNode node : nestedGraph.getLayerlessNodes()){
+				out.writeInt(elements.indexOf(node));
+			}
+		}
+
+		Map<LNode,Integer> containerRanks = getContainerRanks(graph);
+		for (LNode node : elements.nodes){
+			if (withIds) out.writeUTF(String.valueOf(node.getProperty(BpmnProperties.ID)));
+			out.writeUTF(String.valueOf(node.getProperty(BpmnProperties.ELEMENT_TYPE)));
+			out.writeDouble(node.getSize().x);
+			out.writeDouble(node.getSize().y);
+			out.writeInt(elements.indexOf(node.getProperty(InternalProperties.NESTED_LGRAPH)));
+			Integer rank = containerRanks.get(node);
+			out.writeInt(rank != null ? rank : -1);
+			out.writeUTF(String.valueOf(node.getProperty(LayoutOptions.PORT_CONSTRAINTS)));
+			writeLabels(node.getLabels(), out);
+			out.writeInt(node.getPorts().size());
+			for (LPort port : node.getPorts()){
+				out.writeUTF(String.valueOf(port.getSide()));
+			}
+		}
+
+		for (LEdge edge : elements.edges){
+			out.writeInt(elements.indexOf(edge.getSource()));
+			out.writeInt(elements.indexOf(edge.getTarget()));
+			if (withIds) out.writeUTF(String.valueOf(edge.getProperty(BpmnProperties.ID)));
+			out.writeUTF(String.valueOf(edge.getProperty(BpmnProperties.ELEMENT_TYPE)));
+			out.writeUTF(String.valueOf(edge.getProperty(LayoutOptions.EDGE_TYPE)));
+			out.writeUTF(String.valueOf(edge.getProperty(LayoutOptions.EDGE_LABEL_PLACEMENT)));
+			out.writeBoolean(edge.getProperty(BpmnProperties.BOUNDARY_EVENT_DUMMY_EDGE));
+			out.writeBoolean(edge.getProperty(BpmnProperties.ARTIFACT_DUMMY_EDGE));
+			writeLabels(edge.getLabels(), out);
+		}
+	}
+
+	private static void writeLabels(List<LLabel> labels, DataOutputStream out) throws IOException {
+		out.writeInt(labels.size());
+		for (LLabel label : labels){
+			out.writeDouble(label.getSize().x);
+			out.writeDouble(label.getSize().y);
+		}
+	}
+
+	/**
+	 * Pools and lanes are stacked in the order of their absolute y position,
+	 * only this order is part of the hash.
+	 */
+	private static Map<LNode,Integer> getContainerRanks(LGraph graph) {
+		// Insertion order, so containers at the same position keep the document order
+		final Map<LNode,Double> yPositions = new LinkedHashMap<LNode,Double>();
+		collectContainers(graph, 0, yPositions);
+		List<LNode> containers = new ArrayList<LNode>(yPositions.keySet());
+		Collections.sort(containers, new Comparator<LNode>() {
+			public int compare(LNode n1, LNode n2) {
+				return Double.compare(yPositions.get(n1), yPositions.get(n2));
+			}
+		});
+		Map<LNode,Integer> ranks = new IdentityHashMap<LNode,Integer>();
+		for (int i = 0; i < containers.size(); i++){
+			ranks.put(containers.get(i), i);
+		}
+		return ranks;
+	}
+
+	private static void collectContainers(LGraph graph, double parentYPos, Map<LNode,Double> yPositions) {
+		for (LNode node : graph.getLayerlessNodes()){
+			LGraph nestedGraph = node.getProperty(InternalProperties.NESTED_LGRAPH);
+			if (nestedGraph == null || nestedGraph.getLayerlessNodes().isEmpty()) continue;
+			if (node.getProperty(BpmnProperties.ELEMENT_TYPE) == BpmnElementType.SUBPROCESS) continue;
+			double yPos = parentYPos + node.getPosition().y;
+			yPositions.put(node, yPos);
+			collectContainers(nestedGraph, yPos, yPositions);
+		}
+	}
+
+}
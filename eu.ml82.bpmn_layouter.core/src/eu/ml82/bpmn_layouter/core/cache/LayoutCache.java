@@ -0,0 +1,289 @@
+/*
+ * BPMN Auto-Layouter
+ *
+ * Copyright 2015 by Marvin Ludwig - http://www.marvin-ludwig.de
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+
+package eu.ml82.bpmn_layouter.core.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.cau.cs.kieler.klay.layered.graph.LGraph;
+import de.cau.cs.kieler.klay.layered.graph.LNode;
+import de.cau.cs.kieler.klay.layered.properties.InternalProperties;
+import eu.ml82.bpmn_layouter.core.properties.BpmnElementType;
+import eu.ml82.bpmn_layouter.core.properties.PosType;
+
+/**
+ * Cache of layout results, keyed by the GraphFingerprint of the graph before the layout.
+ * Set it with KlayLayeredForBpmn.setLayoutCache(), a hit skips the whole layout.
+ *
+ * The memory tier is an LRU cache limited by the number of entries and by the
+ * approximate size of the snapshots. Optionally snapshots are also written to a
+ * directory, one file per fingerprint; they survive restarts and are read
+ * when the memory tier misses. Errors of the disk tier are ignored, it's a cache.
+ *
+ * Thread-safe, one cache can be shared by several layouters.
+ */
+public final class LayoutCache {
+
+	private final int maxEntries;
+	private final long maxBytes;
+	private final File directory;
+
+	private final LinkedHashMap<String,LayoutSnapshot> snapshots
+		= new LinkedHashMap<String,LayoutSnapshot>(16, 0.75f, true);
+	private long bytes = 0;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong diskHits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * In-memory cache
+	 */
+	public LayoutCache(int maxEntries, long maxBytes) {
+		this(maxEntries, maxBytes, null);
+	}
+
+	/**
+	 * @param directory the directory of the disk tier, null for none. It is created if necessary.
+	 */
+	public LayoutCache(int maxEntries, long maxBytes, File directory) {
+		this.maxEntries = maxEntries;
+		this.maxBytes = maxBytes;
+		this.directory = directory;
+		if (directory != null) directory.mkdirs();
+	}
+
+	/**
+	 * Apply the cached layout of a graph if there is one.
+	 * Must be called before the graph is changed by a layout.
+	 *
+	 * @return the lookup, isHit() tells whether the layout was applied
+	 */
+	public Lookup lookup(LGraph graph, PosType posType) {
+		return lookup(new GraphElements(graph), String.valueOf(posType));
+	}
+
+	/**
+	 * Apply the cached layout of the nested graph of a sub-process if there is one.
+	 * The layout of the nested graph doesn't depend on anything outside of it,
+	 * so it is shared by all sub-processes with the same content.
+	 * The sub-process itself is not changed.
+	 *
+	 * @return the lookup, isHit() tells whether the layout was applied
+	 */
+	public Lookup lookupSubProcess(LNode subProcess) {
+		LGraph nestedGraph = subProcess.getProperty(InternalProperties.NESTED_LGRAPH);
+		return lookup(new GraphElements(nestedGraph, subProcess), BpmnElementType.SUBPROCESS.name());
+	}
+
+	private Lookup lookup(GraphElements elements, String kind) {
+		String fingerprint = GraphFingerprint.of(elements, kind);
+		LayoutSnapshot snapshot = getFromMemory(fingerprint);
+		boolean fromDisk = false;
+		if (snapshot == null){
+			snapshot = getFromDisk(fingerprint);
+			fromDisk = snapshot != null;
+		}
+		// Only an applied snapshot is a hit
+		if (snapshot != null && snapshot.apply(elements)){
+			if (fromDisk) diskHits.incrementAndGet();
+			else hits.incrementAndGet();
+			return new Lookup(fingerprint, elements, true);
+		}
+		misses.incrementAndGet();
+		return new Lookup(fingerprint, elements, false);
+	}
+
+	/**
+	 * Store the layout of a graph or sub-process.
+	 *
+	 * @param lookup the lookup made before the layout
+	 */
+	public void store(Lookup lookup) {
+		if (lookup.isHit()) return;
+		LayoutSnapshot snapshot = LayoutSnapshot.capture(lookup.elements);
+		if (snapshot != null) put(lookup.fingerprint, snapshot);
+	}
+
+	/**
+	 * Hits and misses are counted by lookup() only.
+	 *
+	 * @return the snapshot or null
+	 */
+	public LayoutSnapshot get(String fingerprint) {
+		LayoutSnapshot snapshot = getFromMemory(fingerprint);
+		if (snapshot != null) return snapshot;
+		return getFromDisk(fingerprint);
+	}
+
+	private LayoutSnapshot getFromMemory(String fingerprint) {
+		synchronized (snapshots) {
+			return snapshots.get(fingerprint);
+		}
+	}
+
+	private LayoutSnapshot getFromDisk(String fingerprint) {
+		if (directory == null) return null;
+		LayoutSnapshot snapshot = readFile(fingerprint);
+		if (snapshot != null) putInMemory(fingerprint, snapshot);
+		return snapshot;
+	}
+
+	public void put(String fingerprint, LayoutSnapshot snapshot) {
+		putInMemory(fingerprint, snapshot);
+		if (directory != null) writeFile(fingerprint, snapshot);
+	}
+
+	private void putInMemory(String fingerprint, LayoutSnapshot snapshot) {
+		long size = snapshot.getSize();
+		if (size > maxBytes) return;
+		synchronized (snapshots) {
+			LayoutSnapshot previous = snapshots.put(fingerprint, snapshot);
+			if (previous != null) bytes -= previous.getSize();
+			bytes += size;
+			// Evict the least recently used snapshots
+			Iterator<Map.Entry<String,LayoutSnapshot>> entries = snapshots.entrySet().iterator();
+			while ((snapshots.size() > maxEntries || bytes > maxBytes) && entries.hasNext()){
+				bytes -= entries.next().getValue().getSize();
+				entries.remove();
+			}
+		}
+	}
+
+	/**
+	 * Remove all snapshots from memory and disk
+	 */
+	public void clear() {
+		synchronized (snapshots) {
+			snapshots.clear();
+			bytes = 0;
+		}
+		if (directory == null) return;
+		File[] files = directory.listFiles();
+		if (files == null) return;
+		for (File file : files){
+			if (file.getName().endsWith(".layout")) file.delete();
+		}
+	}
+
+	private LayoutSnapshot readFile(String fingerprint) {
+		File file = new File(directory, fingerprint + ".layout");
+		if (!file.isFile()) return null;
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				return LayoutSnapshot.read(in);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			file.delete();
+			return null;
+		} catch (RuntimeException e) {
+			// Corrupt file
+			file.delete();
+			return null;
+		}
+	}
+
+	private void writeFile(String fingerprint, LayoutSnapshot snapshot) {
+		File file = new File(directory, fingerprint + ".layout");
+		try {
+			// Write to a temporary file first, other processes must not read half a snapshot
+			File temp = File.createTempFile(fingerprint, ".tmp", directory);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+			try {
+				snapshot.write(out);
+			} finally {
+				out.close();
+			}
+			if (!temp.renameTo(file)){
+				file.delete();
+				if (!temp.renameTo(file)) temp.delete();
+			}
+		} catch (IOException e) {
+			// Continue without the disk tier for this snapshot
+		}
+	}
+
+	/**
+	 * @return number of snapshots in memory
+	 */
+	public int size() {
+		synchronized (snapshots) {
+			return snapshots.size();
+		}
+	}
+
+	/**
+	 * @return approximate size of the snapshots in memory
+	 */
+	public long getBytes() {
+		synchronized (snapshots) {
+			return bytes;
+		}
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getDiskHits() {
+		return diskHits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	@Override
+	public String toString() {
+		return "LayoutCache: " + size() + " entries, " + getBytes() / 1024 + " KB, hits=" + getHits()
+				+ " disk hits=" + getDiskHits() + " misses=" + getMisses();
+	}
+
+	/**
+	 * Result of lookup(), pass it to store() after the layout on a miss
+	 */
+	public static final class Lookup {
+
+		private final String fingerprint;
+		private final GraphElements elements;
+		private final boolean hit;
+
+		private Lookup(String fingerprint, GraphElements elements, boolean hit) {
+			this.fingerprint = fingerprint;
+			this.elements = elements;
+			this.hit = hit;
+		}
+
+		public String getFingerprint() {
+			return fingerprint;
+		}
+
+		/**
+		 * @return true if the cached layout was applied
+		 */
+		public boolean isHit() {
+			return hit;
+		}
+	}
+
+}
@@ -0,0 +1,599 @@
+/*
+ * BPMN Auto-Layouter
+ *
+ * Copyright 2015 by Marvin Ludwig - http://www.marvin-ludwig.de
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+
+package eu.ml82.bpmn_layouter.core.cache;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import de.cau.cs.kieler.core.math.KVector;
+import de.cau.cs.kieler.core.math.KVectorChain;
+import de.cau.cs.kieler.kiml.options.LayoutOptions;
+import de.cau.cs.kieler.kiml.options.PortSide;
+import de.cau.cs.kieler.klay.layered.graph.LEdge;
+import de.cau.cs.kieler.klay.layered.graph.LGraph;
+import de.cau.cs.kieler.klay.layered.graph.LInsets;
+import de.cau.cs.kieler.klay.layered.graph.LLabel;
+import de.cau.cs.kieler.klay.layered.graph.LNode;
+import de.cau.cs.kieler.klay.layered.graph.LPort;
+import de.cau.cs.kieler.klay.layered.graph.LShape;
+import de.cau.cs.kieler.klay.layered.graph.Layer;
+import de.cau.cs.kieler.klay.layered.properties.InternalProperties;
+import eu.ml82.bpmn_layouter.core.properties.BpmnProperties;
+
+/**
+ * The result of a layout run: positions and sizes of all nodes, ports and labels,
+ * bend points and the structure the layout leaves behind (ports it added,
+ * edge end points, the nodes and layers of each graph and PARENT_LNODE).
+ *
+ * Elements are referenced by their index in the GraphElements of the graph
+ * before the layout, so a snapshot can be applied to any graph with the same
+ * fingerprint. Snapshots are immutable.
+ */
+public final class LayoutSnapshot {
+
+	/** Reference of an edge end point that isn't connected */
+	private static final int DETACHED = Integer.MIN_VALUE;
+
+	/** Reference of the owner of the graph, see GraphElements */
+	private static final int OWNER = -2;
+
+	private static final PortSide[] SIDES = PortSide.values();
+
+	// Per graph: the final layerless nodes, the nodes of each layer; size, offset and insets (8 values)
+	private final int[][] graphNodes;
+	private final int[][][] graphLayers;
+	private final double[] graphGeometry;
+
+	// Per node: position and size (4 values), graph, parent, ports and labels
+	private final double[] nodeGeometry;
+	private final int[] nodeGraphs;
+	private final int[] nodeParents;
+	private final int[][] nodePorts;
+	private final int[][] nodeLabels;
+
+	// Ports of the graph and ports added by the layout: position and size, side
+	private final double[] portGeometry;
+	private final byte[] portSides;
+	private final double[] newPortGeometry;
+	private final byte[] newPortSides;
+
+	// Per edge: end point references, whether the edge is in its port's edge list,
+	// bend points, junction points and labels
+	private final int[] edgeSources;
+	private final int[] edgeTargets;
+	private final boolean[] edgeSourcesAttached;
+	private final boolean[] edgeTargetsAttached;
+	private final double[][] edgeBendPoints;
+	private final double[][] edgeJunctionPoints;
+	private final int[][] edgeLabels;
+
+	private final double[] labelGeometry;
+	private final int[] messageFlows;
+
+	private LayoutSnapshot(int graphs, int nodes, int ports, int newPorts, int edges, int labels, boolean messageFlows,
+			int messageFlowCount) {
+		graphNodes = new int[graphs][];
+		graphLayers = new int[graphs][][];
+		graphGeometry = new double[graphs * 8];
+		nodeGeometry = new double[nodes * 4];
+		nodeGraphs = new int[nodes];
+		nodeParents = new int[nodes];
+		nodePorts = new int[nodes][];
+		nodeLabels = new int[nodes][];
+		portGeometry = new double[ports * 4];
+		portSides = new byte[ports];
+		newPortGeometry = new double[newPorts * 4];
+		newPortSides = new byte[newPorts];
+		edgeSources = new int[edges];
+		edgeTargets = new int[edges];
+		edgeSourcesAttached = new boolean[edges];
+		edgeTargetsAttached = new boolean[edges];
+		edgeBendPoints = new double[edges][];
+		edgeJunctionPoints = new double[edges][];
+		edgeLabels = new int[edges][];
+		labelGeometry = new double[labels * 4];
+		this.messageFlows = messageFlows ? new int[messageFlowCount] : null;
+	}
+
+	////////////////////////////////////////////////////////////////////////////////
+	// Capture
+
+	/**
+	 * Take a snapshot of a layouted graph.
+	 *
+	 * @param elements the elements of the graph before the layout
+	 * @return null if the layout left elements behind that aren't part of the
+	 *         graph before the layout, such a layout can't be replayed
+	 */
+	static LayoutSnapshot capture(GraphElements elements) {
+		// Ports added by the layout
+		List<LPort> newPorts = new ArrayList<LPort>();
+		Map<LPort,Integer> newPortIndex = new IdentityHashMap<LPort,Integer>();
+		for (LNode node : elements.nodes){
+			for (LPort port : node.getPorts()){
+				if (elements.indexOf(port) < 0 && !newPortIndex.containsKey(port)){
+					newPortIndex.put(port, newPorts.size());
+					newPorts.add(port);
+				}
+			}
+		}
+		List<LEdge> messageFlows = elements.graphs.get(0).getProperty(BpmnProperties.MESSAGE_FLOWS);
+		LayoutSnapshot snapshot = new LayoutSnapshot(elements.graphs.size(), elements.nodes.size(), elements.ports.size(),
+				newPorts.size(), elements.edges.size(), elements.labels.size(),
+				messageFlows != null, messageFlows != null ? messageFlows.size() : 0);
+
+		for (int i = 0; i < elements.graphs.size(); i++){
+			LGraph graph = elements.graphs.get(i);
+			snapshot.graphNodes[i] = indexes(elements, graph.getLayerlessNodes());
+			if (snapshot.graphNodes[i] == null) return null;
+			// Nodes stay in their layers after the layout of a sub-process
+			List<Layer> layers = graph.getLayers();
+			snapshot.graphLayers[i] = new int[layers.size()][];
+			for (int j = 0; j < layers.size(); j++){
+				snapshot.graphLayers[i][j] = indexes(elements, layers.get(j).getNodes());
+				if (snapshot.graphLayers[i][j] == null) return null;
+			}
+			double[] geometry = snapshot.graphGeometry;
+			LInsets insets = graph.getInsets();
+			geometry[8 * i] = graph.getSize().x;
+			geometry[8 * i + 1] = graph.getSize().y;
+			geometry[8 * i + 2] = graph.getOffset().x;
+			geometry[8 * i + 3] = graph.getOffset().y;
+			geometry[8 * i + 4] = insets.top;
+			geometry[8 * i + 5] = insets.bottom;
+			geometry[8 * i + 6] = insets.left;
+			geometry[8 * i + 7] = insets.right;
+		}
+
+		for (int i = 0; i < elements.nodes.size(); i++){
+			LNode node = elements.nodes.get(i);
+			LGraph nestedGraph = node.getProperty(InternalProperties.NESTED_LGRAPH);
+			if (nestedGraph != null && elements.indexOf(nestedGraph) < 0 && !elements.isNestedSubProcess(node)) return null;
+			LNode parent = node.getProperty(InternalProperties.PARENT_LNODE);
+			int parentIndex = parent == null ? -1 : parent == elements.owner ? OWNER : elements.indexOf(parent);
+			if (parent != null && parentIndex == -1) return null;
+			setGeometry(snapshot.nodeGeometry, i, node);
+			snapshot.nodeGraphs[i] = elements.indexOf(node.getGraph());
+			snapshot.nodeParents[i] = parentIndex;
+			snapshot.nodeLabels[i] = indexes(elements, node.getLabels());
+			if (snapshot.nodeLabels[i] == null) return null;
+			int[] ports = new int[node.getPorts().size()];
+			for (int j = 0; j < ports.length; j++){
+				LPort port = node.getPorts().get(j);
+				ports[j] = reference(elements, newPortIndex, port);
+				// Edges added by the layout
+				for (LEdge edge : port.getOutgoingEdges()){
+					if (elements.indexOf(edge) < 0) return null;
+				}
+				for (LEdge edge : port.getIncomingEdges()){
+					if (elements.indexOf(edge) < 0) return null;
+				}
+			}
+			snapshot.nodePorts[i] = ports;
+		}
+
+		for (int i = 0; i < elements.ports.size(); i++){
+			LPort port = elements.ports.get(i);
+			setGeometry(snapshot.portGeometry, i, port);
+			snapshot.portSides[i] = port.getSide() != null ? (byte) port.getSide().ordinal() : -1;
+		}
+		for (int i = 0; i < newPorts.size(); i++){
+			LPort port = newPorts.get(i);
+			setGeometry(snapshot.newPortGeometry, i, port);
+			snapshot.newPortSides[i] = port.getSide() != null ? (byte) port.getSide().ordinal() : -1;
+		}
+
+		for (int i = 0; i < elements.edges.size(); i++){
+			LEdge edge = elements.edges.get(i);
+			LPort source = edge.getSource();
+			LPort target = edge.getTarget();
+			snapshot.edgeSources[i] = source != null ? reference(elements, newPortIndex, source) : DETACHED;
+			snapshot.edgeTargets[i] = target != null ? reference(elements, newPortIndex, target) : DETACHED;
+			if (snapshot.edgeSources[i] == -1 || snapshot.edgeTargets[i] == -1) return null;
+			snapshot.edgeSourcesAttached[i] = source != null && containsEdge(source.getOutgoingEdges(), edge);
+			snapshot.edgeTargetsAttached[i] = target != null && containsEdge(target.getIncomingEdges(), edge);
+			snapshot.edgeBendPoints[i] = toArray(edge.getBendPoints());
+			snapshot.edgeJunctionPoints[i] = toArray(edge.getProperty(LayoutOptions.JUNCTION_POINTS));
+			snapshot.edgeLabels[i] = indexes(elements, edge.getLabels());
+			if (snapshot.edgeLabels[i] == null) return null;
+		}
+
+		for (int i = 0; i < elements.labels.size(); i++){
+			setGeometry(snapshot.labelGeometry, i, elements.labels.get(i));
+		}
+
+		if (messageFlows != null){
+			int i = 0;
+			for (LEdge edge : messageFlows){
+				snapshot.messageFlows[i] = elements.indexOf(edge);
+				if (snapshot.messageFlows[i++] < 0) return null;
+			}
+		}
+		return snapshot;
+	}
+
+	/**
+	 * @return the index of a port of the graph, -(index + 2) for a port added by the layout
+	 *         or -1 for a port that isn't attached to a node of the graph
+	 */
+	private static int reference(GraphElements elements, Map<LPort,Integer> newPortIndex, LPort port) {
+		int index = elements.indexOf(port);
+		if (index >= 0) return index;
+		Integer newIndex = newPortIndex.get(port);
+		// Ports of nodes that aren't in the graph
+		if (newIndex == null) return -1;
+		return -(newIndex + 2);
+	}
+
+	private static int[] indexes(GraphElements elements, List<?> list) {
+		int[] indexes = new int[list.size()];
+		for (int i = 0; i < indexes.length; i++){
+			indexes[i] = elements.indexOf(list.get(i));
+			if (indexes[i] < 0) return null;
+		}
+		return indexes;
+	}
+
+	private static boolean containsEdge(List<LEdge> edges, LEdge edge) {
+		for (LEdge e : edges){
+			if (e == edge) return true;
+		}
+		return false;
+	}
+
+	private static void setGeometry(double[] geometry, int i, LShape shape) {
+		geometry[4 * i] = shape.getPosition().x;
+		geometry[4 * i + 1] = shape.getPosition().y;
+		geometry[4 * i + 2] = shape.getSize().x;
+		geometry[4 * i + 3] = shape.getSize().y;
+	}
+
+	private static double[] toArray(KVectorChain points) {
+		if (points == null) return null;
+		double[] array = new double[2 * points.size()];
+		int i = 0;
+		for (KVector point : points){
+			array[i++] = point.x;
+			array[i++] = point.y;
+		}
+		return array;
+	}
+
+	////////////////////////////////////////////////////////////////////////////////
+	// Apply
+
+	/**
+	 * Apply the layout to a graph with the same fingerprint as the graph of the snapshot.
+	 *
+	 * @param elements the elements of the graph, collected before anything was changed
+	 * @return false if the graph doesn't match the snapshot, it is unchanged then
+	 */
+	boolean apply(GraphElements elements) {
+		if (elements.graphs.size() != graphNodes.length || elements.nodes.size() != nodePorts.length
+				|| elements.ports.size() != portSides.length || elements.edges.size() != edgeSources.length
+				|| elements.labels.size() != labelGeometry.length / 4) return false;
+
+		// Ports: Detach all, then attach them in their final order
+		LPort[] newPorts = new LPort[newPortSides.length];
+		for (int i = 0; i < newPorts.length; i++){
+			newPorts[i] = new LPort();
+			applyGeometry(newPortGeometry, i, newPorts[i]);
+			if (newPortSides[i] >= 0) newPorts[i].setSide(SIDES[newPortSides[i]]);
+		}
+		for (int i = 0; i < portSides.length; i++){
+			LPort port = elements.ports.get(i);
+			if (port.getNode() != null) port.setNode(null);
+			applyGeometry(portGeometry, i, port);
+			if (portSides[i] >= 0) port.setSide(SIDES[portSides[i]]);
+		}
+
+		for (int i = 0; i < nodePorts.length; i++){
+			LNode node = elements.nodes.get(i);
+			if (node.getLayer() != null) node.setLayer(null);
+			applyGeometry(nodeGeometry, i, node);
+			for (int reference : nodePorts[i]){
+				resolve(elements, newPorts, reference).setNode(node);
+			}
+			if (nodeGraphs[i] >= 0) node.setGraph(elements.graphs.get(nodeGraphs[i]));
+			LNode parent = null;
+			if (nodeParents[i] >= 0) parent = elements.nodes.get(nodeParents[i]);
+			else if (nodeParents[i] == OWNER) parent = elements.owner;
+			node.setProperty(InternalProperties.PARENT_LNODE, parent);
+			setLabels(elements, node.getLabels(), nodeLabels[i]);
+		}
+
+		for (int i = 0; i < edgeSources.length; i++){
+			LEdge edge = elements.edges.get(i);
+			LPort source = resolve(elements, newPorts, edgeSources[i]);
+			LPort target = resolve(elements, newPorts, edgeTargets[i]);
+			edge.setSource(source);
+			edge.setTarget(target);
+			if (source != null && !edgeSourcesAttached[i]) source.getOutgoingEdges().remove(edge);
+			if (target != null && !edgeTargetsAttached[i]) target.getIncomingEdges().remove(edge);
+			KVectorChain bendPoints = edge.getBendPoints();
+			bendPoints.clear();
+			addPoints(bendPoints, edgeBendPoints[i]);
+			if (edgeJunctionPoints[i] != null){
+				KVectorChain junctionPoints = new KVectorChain();
+				addPoints(junctionPoints, edgeJunctionPoints[i]);
+				edge.setProperty(LayoutOptions.JUNCTION_POINTS, junctionPoints);
+			}
+			else edge.setProperty(LayoutOptions.JUNCTION_POINTS, null);
+			setLabels(elements, edge.getLabels(), edgeLabels[i]);
+		}
+
+		for (int i = 0; i < labelGeometry.length / 4; i++){
+			applyGeometry(labelGeometry, i, elements.labels.get(i));
+		}
+
+		for (int i = 0; i < graphNodes.length; i++){
+			LGraph graph = elements.graphs.get(i);
+			List<LNode> nodes = graph.getLayerlessNodes();
+			nodes.clear();
+			for (int node : graphNodes[i]){
+				nodes.add(elements.nodes.get(node));
+			}
+			List<Layer> layers = graph.getLayers();
+			layers.clear();
+			for (int[] layerNodes : graphLayers[i]){
+				Layer layer = new Layer(graph);
+				layers.add(layer);
+				for (int node : layerNodes){
+					elements.nodes.get(node).setLayer(layer);
+				}
+			}
+			LInsets insets = graph.getInsets();
+			graph.getSize().x = graphGeometry[8 * i];
+			graph.getSize().y = graphGeometry[8 * i + 1];
+			graph.getOffset().x = graphGeometry[8 * i + 2];
+			graph.getOffset().y = graphGeometry[8 * i + 3];
+			insets.top = graphGeometry[8 * i + 4];
+			insets.bottom = graphGeometry[8 * i + 5];
+			insets.left = graphGeometry[8 * i + 6];
+			insets.right = graphGeometry[8 * i + 7];
+		}
+
+		if (messageFlows != null){
+			List<LEdge> edges = new LinkedList<LEdge>();
+			for (int edge : messageFlows){
+				edges.add(elements.edges.get(edge));
+			}
+			elements.graphs.get(0).setProperty(BpmnProperties.MESSAGE_FLOWS, edges);
+		}
+		return true;
+	}
+
+	private static LPort resolve(GraphElements elements, LPort[] newPorts, int reference) {
+		if (reference == DETACHED) return null;
+		if (reference >= 0) return elements.ports.get(reference);
+		return newPorts[-reference - 2];
+	}
+
+	private static void setLabels(GraphElements elements, List<LLabel> labels, int[] indexes) {
+		labels.clear();
+		for (int label : indexes){
+			labels.add(elements.labels.get(label));
+		}
+	}
+
+	private static void applyGeometry(double[] geometry, int i, LShape shape) {
+		shape.getPosition().x = geometry[4 * i];
+		shape.getPosition().y = geometry[4 * i + 1];
+		shape.getSize().x = geometry[4 * i + 2];
+		shape.getSize().y = geometry[4 * i + 3];
+	}
+
+	private static void addPoints(KVectorChain chain, double[] points) {
+		for (int i = 0; i < points.length; i += 2){
+			chain.add(new KVector(points[i], points[i + 1]));
+		}
+	}
+
+	////////////////////////////////////////////////////////////////////////////////
+	// Size and serialization
+
+	/**
+	 * @return the approximate memory usage in bytes
+	 */
+	public long getSize() {
+		long size = 64L * (16 + graphNodes.length + 2 * nodePorts.length + 3 * edgeSources.length);
+		size += 8L * (graphGeometry.length + nodeGeometry.length + portGeometry.length + newPortGeometry.length
+				+ labelGeometry.length);
+		size += 4L * (nodeGraphs.length + nodeParents.length + edgeSources.length + edgeTargets.length);
+		size += portSides.length + newPortSides.length + 2 * edgeSources.length;
+		for (int[] nodes : graphNodes) size += 4L * nodes.length;
+		for (int[][] layers : graphLayers){
+			size += 16L * layers.length;
+			for (int[] nodes : layers) size += 4L * nodes.length;
+		}
+		for (int[] ports : nodePorts) size += 4L * ports.length;
+		for (int[] labels : nodeLabels) size += 4L * labels.length;
+		for (int[] labels : edgeLabels) size += 4L * labels.length;
+		for (double[] points : edgeBendPoints) size += 8L * points.length;
+		for (double[] points : edgeJunctionPoints) if (points != null) size += 8L * points.length;
+		if (messageFlows != null) size += 4L * messageFlows.length;
+		return size;
+	}
+
+	void write(DataOutputStream out) throws IOException {
+		out.writeInt(GraphFingerprint.VERSION);
+		out.writeInt(graphNodes.length);
+		out.writeInt(nodePorts.length);
+		out.writeInt(portSides.length);
+		out.writeInt(newPortSides.length);
+		out.writeInt(edgeSources.length);
+		out.writeInt(labelGeometry.length / 4);
+		out.writeInt(messageFlows != null ? messageFlows.length : -1);
+		for (int[] nodes : graphNodes) writeInts(out, nodes);
+		for (int[][] layers : graphLayers){
+			out.writeInt(layers.length);
+			for (int[] nodes : layers) writeInts(out, nodes);
+		}
+		writeDoubles(out, graphGeometry);
+		writeDoubles(out, nodeGeometry);
+		writeInts(out, nodeGraphs);
+		writeInts(out, nodeParents);
+		for (int[] ports : nodePorts) writeInts(out, ports);
+		for (int[] labels : nodeLabels) writeInts(out, labels);
+		writeDoubles(out, portGeometry);
+		out.write(portSides);
+		writeDoubles(out, newPortGeometry);
+		out.write(newPortSides);
+		writeInts(out, edgeSources);
+		writeInts(out, edgeTargets);
+		for (int i = 0; i < edgeSources.length; i++){
+			out.writeBoolean(edgeSourcesAttached[i]);
+			out.writeBoolean(edgeTargetsAttached[i]);
+			writeDoubles(out, edgeBendPoints[i]);
+			out.writeBoolean(edgeJunctionPoints[i] != null);
+			if (edgeJunctionPoints[i] != null) writeDoubles(out, edgeJunctionPoints[i]);
+			writeInts(out, edgeLabels[i]);
+		}
+		writeDoubles(out, labelGeometry);
+		if (messageFlows != null) writeInts(out, messageFlows);
+	}
+
+	/**
+	 * The indexes of the snapshot are validated, so apply() can't fail halfway
+	 * on a corrupt snapshot.
+	 *
+	 * @return null if the snapshot was written by a different version
+	 * @throws IOException if the snapshot is corrupt
+	 */
+	static LayoutSnapshot read(DataInputStream in) throws IOException {
+		if (in.readInt() != GraphFingerprint.VERSION) return null;
+		int graphs = in.readInt();
+		int nodes = in.readInt();
+		int ports = in.readInt();
+		int newPorts = in.readInt();
+		int edges = in.readInt();
+		int labels = in.readInt();
+		int messageFlows = in.readInt();
+		LayoutSnapshot snapshot = new LayoutSnapshot(graphs, nodes, ports, newPorts, edges, labels,
+				messageFlows >= 0, Math.max(0, messageFlows));
+		for (int i = 0; i < graphs; i++) snapshot.graphNodes[i] = readInts(in, null);
+		for (int i = 0; i < graphs; i++){
+			snapshot.graphLayers[i] = new int[in.readInt()][];
+			for (int j = 0; j < snapshot.graphLayers[i].length; j++) snapshot.graphLayers[i][j] = readInts(in, null);
+		}
+		readDoubles(in, snapshot.graphGeometry);
+		readDoubles(in, snapshot.nodeGeometry);
+		readInts(in, snapshot.nodeGraphs);
+		readInts(in, snapshot.nodeParents);
+		for (int i = 0; i < nodes; i++) snapshot.nodePorts[i] = readInts(in, null);
+		for (int i = 0; i < nodes; i++) snapshot.nodeLabels[i] = readInts(in, null);
+		readDoubles(in, snapshot.portGeometry);
+		in.readFully(snapshot.portSides);
+		readDoubles(in, snapshot.newPortGeometry);
+		in.readFully(snapshot.newPortSides);
+		readInts(in, snapshot.edgeSources);
+		readInts(in, snapshot.edgeTargets);
+		for (int i = 0; i < edges; i++){
+			snapshot.edgeSourcesAttached[i] = in.readBoolean();
+			snapshot.edgeTargetsAttached[i] = in.readBoolean();
+			snapshot.edgeBendPoints[i] = readDoubles(in, null);
+			if (in.readBoolean()) snapshot.edgeJunctionPoints[i] = readDoubles(in, null);
+			snapshot.edgeLabels[i] = readInts(in, null);
+		}
+		readDoubles(in, snapshot.labelGeometry);
+		if (snapshot.messageFlows != null) readInts(in, snapshot.messageFlows);
+		if (!snapshot.isValid()) throw new IOException("Corrupt snapshot");
+		return snapshot;
+	}
+
+	/**
+	 * @return whether all indexes reference elements of the snapshot
+	 */
+	private boolean isValid() {
+		int graphs = graphNodes.length;
+		int nodes = nodePorts.length;
+		int labels = labelGeometry.length / 4;
+		for (int i = 0; i < graphs; i++){
+			if (!inRange(graphNodes[i], nodes)) return false;
+			for (int[] layerNodes : graphLayers[i]){
+				if (!inRange(layerNodes, nodes)) return false;
+			}
+		}
+		for (int i = 0; i < nodes; i++){
+			if (nodeGraphs[i] < -1 || nodeGraphs[i] >= graphs) return false;
+			int parent = nodeParents[i];
+			if (parent != -1 && parent != OWNER && (parent < 0 || parent >= nodes)) return false;
+			for (int reference : nodePorts[i]){
+				if (reference == DETACHED || !isPortReference(reference)) return false;
+			}
+			if (!inRange(nodeLabels[i], labels)) return false;
+		}
+		if (!isSides(portSides) || !isSides(newPortSides)) return false;
+		for (int i = 0; i < edgeSources.length; i++){
+			if (edgeSources[i] != DETACHED && !isPortReference(edgeSources[i])) return false;
+			if (edgeTargets[i] != DETACHED && !isPortReference(edgeTargets[i])) return false;
+			if (edgeBendPoints[i].length % 2 != 0) return false;
+			if (edgeJunctionPoints[i] != null && edgeJunctionPoints[i].length % 2 != 0) return false;
+			if (!inRange(edgeLabels[i], labels)) return false;
+		}
+		return messageFlows == null || inRange(messageFlows, edgeSources.length);
+	}
+
+	private boolean isPortReference(int reference) {
+		if (reference >= 0) return reference < portSides.length;
+		int newPort = -reference - 2;
+		return newPort >= 0 && newPort < newPortSides.length;
+	}
+
+	private static boolean inRange(int[] indexes, int size) {
+		for (int index : indexes){
+			if (index < 0 || index >= size) return false;
+		}
+		return true;
+	}
+
+	private static boolean isSides(byte[] sides) {
+		for (byte side : sides){
+			if (side < -1 || side >= SIDES.length) return false;
+		}
+		return true;
+	}
+
+	private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+		out.writeInt(values.length);
+		for (int value : values) out.writeInt(value);
+	}
+
+	private static void writeDoubles(DataOutputStream out, double[] values) throws IOException {
+		out.writeInt(values.length);
+		for (double value : values) out.writeDouble(value);
+	}
+
+	/**
+	 * Read into values or, if null, into a new array
+	 */
+	private static int[] readInts(DataInputStream in, int[] values) throws IOException {
+		int length = in.readInt();
+		if (values == null) values = new int[length];
+		else if (values.length != length) throw new IOException("Corrupt snapshot");
+		for (int i = 0; i < length; i++) values[i] = in.readInt();
+		return values;
+	}
+
+	private static double[] readDoubles(DataInputStream in, double[] values) throws IOException {
+		int length = in.readInt();
+		if (values == null) values = new double[length];
+		else if (values.length != length) throw new IOException("Corrupt snapshot");
+		for (int i = 0; i < length; i++) values[i] = in.readDouble();
+		return values;
+	}
+
+}
@@ -0,0 +1,27 @@
+/*
+ * BPMN Auto-Layouter
+ *
+ * Copyright 2015 by Marvin Ludwig - http://www.marvin-ludwig.de
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+
+package eu.ml82.bpmn_layouter.core.metrics;
+
+/**
+ * Receives the metrics of each layout processor invocation.
+ *
+ * The listener is called by the thread that ran the processor. In parallel layout
+ * mode several threads may call it at the same time, so implementations must be thread-safe.
+ *
+ * @see eu.ml82.bpmn_layouter.core.KlayLayeredForBpmn#setMetricsListener(ILayoutMetricsListener)
+ */
+public interface ILayoutMetricsListener {
+
+	/**
+	 * Called after a layout processor has finished.
+	 */
+	void processed(ProcessorMetrics metrics);
+
+}
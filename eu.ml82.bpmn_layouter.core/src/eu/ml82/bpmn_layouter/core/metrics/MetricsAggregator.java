@@ -0,0 +1,190 @@
+/*
+ * BPMN Auto-Layouter
+ *
+ * Copyright 2015 by Marvin Ludwig - http://www.marvin-ludwig.de
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+
+package eu.ml82.bpmn_layouter.core.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.cau.cs.kieler.klay.layered.graph.LNode;
+import eu.ml82.bpmn_layouter.core.properties.BpmnProperties;
+
+/**
+ * In-memory aggregation of processor metrics per layout part and processor.
+ * By default the runs of all containers (pools, lanes, sub-processes) of
+ * part 2 are combined, use {@link #MetricsAggregator(boolean)} to keep them
+ * apart by the container's BPMN id.
+ *
+ * Thread-safe, one instance can collect the metrics of all layout runs of a service.
+ */
+public final class MetricsAggregator implements ILayoutMetricsListener {
+
+	private final Map<String,Statistics> statistics = new LinkedHashMap<String,Statistics>();
+	private final boolean perContainer;
+
+	public MetricsAggregator() {
+		this(false);
+	}
+
+	/**
+	 * @param perContainer if true, the metrics of part 2 are aggregated per container
+	 */
+	public MetricsAggregator(boolean perContainer) {
+		this.perContainer = perContainer;
+	}
+
+	public void processed(ProcessorMetrics metrics) {
+		String container = perContainer ? containerId(metrics.getContainer()) : null;
+		String key = metrics.getPart() + ":" + container + ":" + metrics.getProcessor();
+		synchronized (statistics) {
+			Statistics entry = statistics.get(key);
+			if (entry == null){
+				entry = new Statistics(metrics.getPart(), container, metrics.getProcessor());
+				statistics.put(key, entry);
+			}
+			entry.add(metrics);
+		}
+	}
+
+	// node identity changes with every layout run, the BPMN id doesn't
+	private static String containerId(LNode container) {
+		if (container == null) return null;
+		return container.getProperty(BpmnProperties.ID);
+	}
+
+	/**
+	 * @return copies of the current statistics, highest total wall time first
+	 */
+	public List<Statistics> getStatistics() {
+		List<Statistics> copy = new ArrayList<Statistics>();
+		synchronized (statistics) {
+			for (Statistics entry : statistics.values()){
+				copy.add(entry.copy());
+			}
+		}
+		Collections.sort(copy, new Comparator<Statistics>() {
+			public int compare(Statistics s1, Statistics s2) {
+				return s1.totalWallTime < s2.totalWallTime ? 1 : (s1.totalWallTime > s2.totalWallTime ? -1 : 0);
+			}
+		});
+		return copy;
+	}
+
+	public void reset() {
+		synchronized (statistics) {
+			statistics.clear();
+		}
+	}
+
+	/**
+	 * One line per part, container and processor, e.g. for a metrics endpoint.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		for (Statistics entry : getStatistics()){
+			builder.append(entry).append('\n');
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Aggregated metrics of one processor in one layout part.
+	 * The container is null for the complete graph and if
+	 * containers are combined.
+	 * Times are in nanoseconds. CPU time and allocated bytes
+	 * are -1 if the JVM doesn't support them.
+	 */
+	public static final class Statistics {
+
+		private final int part;
+		private final String container;
+		private final String processor;
+		private long count;
+		private long totalWallTime;
+		private long maxWallTime;
+		private long totalCpuTime;
+		private long totalAllocatedBytes;
+
+		private Statistics(int part, String container, String processor) {
+			this.part = part;
+			this.container = container;
+			this.processor = processor;
+		}
+
+		private void add(ProcessorMetrics metrics) {
+			count++;
+			totalWallTime += metrics.getWallTime();
+			maxWallTime = Math.max(maxWallTime, metrics.getWallTime());
+			if (metrics.getCpuTime() < 0 || totalCpuTime < 0) totalCpuTime = -1;
+			else totalCpuTime += metrics.getCpuTime();
+			if (metrics.getAllocatedBytes() < 0 || totalAllocatedBytes < 0) totalAllocatedBytes = -1;
+			else totalAllocatedBytes += metrics.getAllocatedBytes();
+		}
+
+		private Statistics copy() {
+			Statistics copy = new Statistics(part, container, processor);
+			copy.count = count;
+			copy.totalWallTime = totalWallTime;
+			copy.maxWallTime = maxWallTime;
+			copy.totalCpuTime = totalCpuTime;
+			copy.totalAllocatedBytes = totalAllocatedBytes;
+			return copy;
+		}
+
+		public int getPart() {
+			return part;
+		}
+
+		/**
+		 * @return BPMN id of the container or null
+		 */
+		public String getContainer() {
+			return container;
+		}
+
+		public String getProcessor() {
+			return processor;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public long getTotalWallTime() {
+			return totalWallTime;
+		}
+
+		public long getMaxWallTime() {
+			return maxWallTime;
+		}
+
+		public long getTotalCpuTime() {
+			return totalCpuTime;
+		}
+
+		public long getTotalAllocatedBytes() {
+			return totalAllocatedBytes;
+		}
+
+		@Override
+		public String toString() {
+			return "part " + part + (container != null ? " [" + container + "]" : "") + " " + processor
+					+ ": count " + count
+					+ ", wall " + totalWallTime / 1000 + " us (max " + maxWallTime / 1000 + " us)"
+					+ ", cpu " + (totalCpuTime < 0 ? "n/a" : totalCpuTime / 1000 + " us")
+					+ ", allocated " + (totalAllocatedBytes < 0 ? "n/a" : totalAllocatedBytes + " bytes");
+		}
+	}
+
+}
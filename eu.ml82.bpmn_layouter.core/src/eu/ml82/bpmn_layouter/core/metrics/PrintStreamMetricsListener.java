@@ -0,0 +1,36 @@
+/*
+ * BPMN Auto-Layouter
+ *
+ * Copyright 2015 by Marvin Ludwig - http://www.marvin-ludwig.de
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+
+package eu.ml82.bpmn_layouter.core.metrics;
+
+import java.io.PrintStream;
+
+import de.cau.cs.kieler.klay.layered.graph.LNode;
+import eu.ml82.bpmn_layouter.core.properties.BpmnProperties;
+
+/**
+ * Writes one line per processor invocation, e.g. to System.out.
+ */
+public final class PrintStreamMetricsListener implements ILayoutMetricsListener {
+
+	private final PrintStream out;
+
+	public PrintStreamMetricsListener(PrintStream out) {
+		this.out = out;
+	}
+
+	public void processed(ProcessorMetrics metrics) {
+		LNode container = metrics.getContainer();
+		String line = metrics.toString();
+		if (container != null) line += " [" + container.getProperty(BpmnProperties.ID) + "]";
+		// println is synchronized, lines of different threads don't get mixed up
+		out.println(line);
+	}
+
+}
@@ -0,0 +1,76 @@
+/*
+ * BPMN Auto-Layouter
+ *
+ * Copyright 2015 by Marvin Ludwig - http://www.marvin-ludwig.de
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+
+package eu.ml82.bpmn_layouter.core.metrics;
+
+import de.cau.cs.kieler.klay.layered.graph.LNode;
+
+/**
+ * Metrics of a single layout processor invocation.
+ */
+public final class ProcessorMetrics {
+
+	private final int part;
+	private final LNode container;
+	private final String processor;
+	private final long wallTime;
+	private final long cpuTime;
+	private final long allocatedBytes;
+
+	/**
+	 * @param part layout part (1, 2 or 3)
+	 * @param container the pool, lane or sub-process that was layouted, or null for the complete graph
+	 * @param processor the processor's class name
+	 * @param wallTime elapsed time in nanoseconds
+	 * @param cpuTime thread CPU time in nanoseconds, -1 if not supported by the JVM
+	 * @param allocatedBytes bytes allocated by the thread, -1 if not supported by the JVM
+	 */
+	public ProcessorMetrics(int part, LNode container, String processor,
+			long wallTime, long cpuTime, long allocatedBytes) {
+		this.part = part;
+		this.container = container;
+		this.processor = processor;
+		this.wallTime = wallTime;
+		this.cpuTime = cpuTime;
+		this.allocatedBytes = allocatedBytes;
+	}
+
+	public int getPart() {
+		return part;
+	}
+
+	public LNode getContainer() {
+		return container;
+	}
+
+	public String getProcessor() {
+		return processor;
+	}
+
+	public long getWallTime() {
+		return wallTime;
+	}
+
+	public long getCpuTime() {
+		return cpuTime;
+	}
+
+	public long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+
+	@Override
+	public String toString() {
+		return "part " + part + " " + processor
+				+ ": wall " + wallTime / 1000 + " us"
+				+ ", cpu " + (cpuTime < 0 ? "n/a" : cpuTime / 1000 + " us")
+				+ ", allocated " + (allocatedBytes < 0 ? "n/a" : allocatedBytes + " bytes");
+	}
+
+}
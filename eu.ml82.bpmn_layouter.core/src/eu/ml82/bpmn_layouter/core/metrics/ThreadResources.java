@@ -0,0 +1,98 @@
+/*
+ * BPMN Auto-Layouter
+ *
+ * Copyright 2015 by Marvin Ludwig - http://www.marvin-ludwig.de
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+
+package eu.ml82.bpmn_layouter.core.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+
+/**
+ * CPU time and allocated bytes of the current thread.
+ *
+ * Allocation counting needs the HotSpot specific com.sun.management.ThreadMXBean.
+ * It isn't part of the execution environment, so its methods are looked up
+ * by reflection. If the JVM doesn't provide it (or the OSGi framework hides it),
+ * -1 is returned.
+ */
+public final class ThreadResources {
+
+	private static final ThreadMXBean THREAD_BEAN = ManagementFactory.getThreadMXBean();
+	private static final String ALLOCATION_BEAN = "com.sun.management.ThreadMXBean";
+	private static final boolean CPU_TIME_SUPPORTED = initCpuTime();
+	// getThreadAllocatedBytes(long) of the HotSpot bean, null if not supported
+	private static final Method ALLOCATED_BYTES = initAllocation();
+
+	private ThreadResources() {
+	}
+
+	/**
+	 * @return the current thread's CPU time in nanoseconds or -1
+	 */
+	public static long cpuTime() {
+		return CPU_TIME_SUPPORTED ? THREAD_BEAN.getCurrentThreadCpuTime() : -1;
+	}
+
+	/**
+	 * @return the bytes allocated by the current thread so far or -1
+	 */
+	public static long allocatedBytes() {
+		if (ALLOCATED_BYTES == null) return -1;
+		try {
+			return (Long) ALLOCATED_BYTES.invoke(THREAD_BEAN, Thread.currentThread().getId());
+		} catch (Exception e) {
+			return -1;
+		}
+	}
+
+	private static boolean initCpuTime() {
+		try {
+			if (!THREAD_BEAN.isCurrentThreadCpuTimeSupported()) return false;
+			if (!THREAD_BEAN.isThreadCpuTimeEnabled()) THREAD_BEAN.setThreadCpuTimeEnabled(true);
+			return true;
+		} catch (UnsupportedOperationException e) {
+			return false;
+		} catch (SecurityException e) {
+			return false;
+		}
+	}
+
+	private static Method initAllocation() {
+		try {
+			// The methods must be taken from the public interface, 
+			// the implementation class of the bean isn't accessible
+			Class<?> beanInterface = findInterface(THREAD_BEAN.getClass(), ALLOCATION_BEAN);
+			if (beanInterface == null) return null;
+			if (!(Boolean) beanInterface.getMethod("isThreadAllocatedMemorySupported").invoke(THREAD_BEAN)) return null;
+			if (!(Boolean) beanInterface.getMethod("isThreadAllocatedMemoryEnabled").invoke(THREAD_BEAN)) 
+				beanInterface.getMethod("setThreadAllocatedMemoryEnabled", boolean.class).invoke(THREAD_BEAN, true);
+			return beanInterface.getMethod("getThreadAllocatedBytes", long.class);
+		} catch (LinkageError e) {
+			return null;
+		} catch (Exception e) {
+			// Not found, not accessible or not supported
+			return null;
+		}
+	}
+
+	/**
+	 * @return the interface with the given name implemented by type, or null
+	 */
+	private static Class<?> findInterface(Class<?> type, String name) {
+		for (Class<?> current = type; current != null; current = current.getSuperclass()){
+			for (Class<?> implemented : current.getInterfaces()){
+				if (implemented.getName().equals(name)) return implemented;
+				Class<?> inherited = findInterface(implemented, name);
+				if (inherited != null) return inherited;
+			}
+		}
+		return null;
+	}
+
+}
@@ -9,7 +9,6 @@
 
 package eu.ml82.bpmn_layouter.core.processors;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 
@@ -62,11 +61,9 @@ public class BpmnContainerPostProcessor implements ILayoutProcessor {
 			// Move nodes, bendpoints and labels to the right in order to have
 	        // enough space on the left for the container labels.
 	        for (LNode bpmnContainer : bpmnContainers){ 
-	            List<KVector> bendpoints = new ArrayList<KVector>();     
-	        	double offsetX = 0;
 	        	LGraph localGraph = bpmnContainer.getProperty(InternalProperties.NESTED_LGRAPH);
 	        	List<LNode> localNodes = localGraph.getLayerlessNodes();        	
-	        	offsetX = CONTAINER_PADDING_LEFT_RIGHT * 2;
+	        	double offsetX = CONTAINER_PADDING_LEFT_RIGHT * 2;
 	        	for (LNode node : localNodes){
 	        		node.getPosition().x = node.getPosition().x + offsetX;
 	        		for (LEdge edge : node.getOutgoingEdges()){
@@ -76,13 +73,10 @@ public class BpmnContainerPostProcessor implements ILayoutProcessor {
 	        			}        			
 	        			// Move bendpoints
 	        			for (KVector bendpoint : edge.getBendPoints()){
-	        				bendpoints.add(bendpoint);
+	        				bendpoint.x = bendpoint.x + offsetX;
 	        			}
 	        		}
 	        	}
-				for (KVector bendpoint : bendpoints){
-		        	bendpoint.add(new KVector(offsetX, 0));
-		        }  
 	        }
 		}
 
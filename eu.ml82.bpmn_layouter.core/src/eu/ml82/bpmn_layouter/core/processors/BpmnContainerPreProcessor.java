@@ -10,6 +10,7 @@ import de.cau.cs.kieler.klay.layered.graph.LGraph;
 import de.cau.cs.kieler.klay.layered.graph.LNode;
 import de.cau.cs.kieler.klay.layered.properties.InternalProperties;
 import eu.ml82.bpmn_layouter.core.properties.BpmnProperties;
+import eu.ml82.bpmn_layouter.core.utils.ContainerOffsets;
 
 /**
  * 
@@ -38,6 +39,7 @@ public class BpmnContainerPreProcessor implements ILayoutProcessor {
 				LGraph nestedGraph = container.getProperty(InternalProperties.NESTED_LGRAPH);
 				makeAbsolute(nestedGraph, container.getPosition());
 			}
+			ContainerOffsets.get(lGraph).setAbsolute();
 		}
 	}
 	
@@ -49,7 +51,7 @@ public class BpmnContainerPreProcessor implements ILayoutProcessor {
 		for (LNode node : nestedGraph.getLayerlessNodes()){
 			nestedGraph = node.getProperty(InternalProperties.NESTED_LGRAPH);
 			if (nestedGraph != null) {
-				KVector newOffset = new KVector(KVector.sum(offset, node.getPosition()));
+				KVector newOffset = KVector.sum(offset, node.getPosition());
 				makeAbsolute(nestedGraph, newOffset);
 			}
 			node.getPosition().add(offset);
@@ -48,6 +48,9 @@ public class BpmnGatewayProcessor implements ILayoutProcessor {
 	public void process(LGraph layeredGraph,
 			IKielerProgressMonitor progressMonitor) {
 		
+		// The processor instance may be reused
+		newEdgeSources.clear();
+		
 		for (Layer layer : layeredGraph.getLayers()){
         	for (LNode node : layer.getNodes()){
         		southPort = null;
@@ -28,8 +28,8 @@ import de.cau.cs.kieler.klay.layered.graph.LGraph;
 import de.cau.cs.kieler.klay.layered.properties.InternalProperties;
 import eu.ml82.bpmn_layouter.core.properties.BpmnElementType;
 import eu.ml82.bpmn_layouter.core.properties.BpmnProperties;
+import eu.ml82.bpmn_layouter.core.utils.ContainerOffsets;
 import eu.ml82.bpmn_layouter.core.utils.Maps;
-import eu.ml82.bpmn_layouter.core.utils.Utils;
 
 /**
  * 
@@ -60,10 +60,15 @@ public class BpmnPortPostProcessor implements ILayoutProcessor {
 	public void process(LGraph layeredGraph,
 			IKielerProgressMonitor progressMonitor) {
 		
+		// The processor instance may be reused
+		singleInEdges.clear();
+		singleOutEdges.clear();
+		
 		Map<LPort,Double> incomingPorts = new HashMap<LPort,Double>();
 		Map<LPort,Double> outgoingPorts = new HashMap<LPort,Double>();
 		Map<LEdge,LPort> sources = new HashMap<LEdge,LPort>();
 		Map<LEdge,LPort> targets = new HashMap<LEdge,LPort>();
+		ContainerOffsets containerOffsets = ContainerOffsets.get(layeredGraph);
 		
 		for (Layer layer : layeredGraph.getLayers()){
 		for (LNode node : layer.getNodes()){
@@ -95,7 +100,7 @@ public class BpmnPortPostProcessor implements ILayoutProcessor {
 			        	incomingCount++;
 			        	port = getPort(PortSide.WEST,node,portsIterator);
 			        	targets.put(edge,port);
-			        	incomingPorts.put(port, Utils.calcAbsolutePos(edge.getSource().getNode()).y);
+			        	incomingPorts.put(port, containerOffsets.getAbsoluteY(edge.getSource().getNode()));
 		        	}
 		        }
 		        
@@ -110,7 +115,7 @@ public class BpmnPortPostProcessor implements ILayoutProcessor {
 			        	outgoingCount++;
 			        	port = getPort(PortSide.EAST,node, portsIterator);
 			        	sources.put(edge,port);
-			        	outgoingPorts.put(port, Utils.calcAbsolutePos(edge.getTarget().getNode()).y);
+			        	outgoingPorts.put(port, containerOffsets.getAbsoluteY(edge.getTarget().getNode()));
 			        }	 
 		        }
 		  	  
@@ -9,14 +9,15 @@
 
 package eu.ml82.bpmn_layouter.core.processors.artifacts;
 
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.TreeMap;
+import java.util.concurrent.Executor;
 
 import de.cau.cs.kieler.core.alg.IKielerProgressMonitor;
 import de.cau.cs.kieler.core.math.KVector;
@@ -29,13 +30,14 @@ import de.cau.cs.kieler.klay.layered.graph.LEdge;
 import de.cau.cs.kieler.klay.layered.graph.LGraph;
 import de.cau.cs.kieler.klay.layered.graph.LNode;
 import de.cau.cs.kieler.klay.layered.graph.LPort;
-import de.cau.cs.kieler.klay.layered.graph.Layer;
 import de.cau.cs.kieler.klay.layered.properties.InternalProperties;
 import de.cau.cs.kieler.klay.layered.properties.PortType;
 import eu.ml82.bpmn_layouter.core.processors.artifacts.BpmnArtifact.OriginalEdge;
 import eu.ml82.bpmn_layouter.core.properties.BpmnProperties;
+import eu.ml82.bpmn_layouter.core.utils.ContainerOffsets;
 import eu.ml82.bpmn_layouter.core.utils.Maps;
 import eu.ml82.bpmn_layouter.core.utils.MinMax;
+import eu.ml82.bpmn_layouter.core.utils.Parallel;
 import eu.ml82.bpmn_layouter.core.utils.PointMinMax;
 import eu.ml82.bpmn_layouter.core.utils.Utils;
 
@@ -45,6 +47,18 @@ import eu.ml82.bpmn_layouter.core.utils.Utils;
  * 1. Place artifacts in different positions and route edges (incl. crossing removal)<br>
  * 2. Assign a score to each position (mainly based on edge length)<br>
  * 3. Choose artifact position with least score<br>
+ * 4. Resize containers for all artifacts at once<br>
+ * <br>
+ * The space an artifact needs in its container is inserted into an offset table right away.
+ * Following artifacts are placed in the graph as moved by the table, but the graph itself
+ * is only moved after all artifacts are placed.
+ * <br><br>
+ * Scoring a position doesn't change the graph. It reads a snapshot of the artifact's edges
+ * and containers and the layer node index, and routes the edges into buffers of its own.
+ * Only the route of the chosen position is applied to the graph.
+ * With PARALLEL_LAYOUT, the positions of an artifact are scored concurrently.
+ * The scores are collected in the order of the positions, so ties are broken 
+ * the same way and the result is the same as without PARALLEL_LAYOUT.
  * 
  * <dl>
  *   <dt>Precondition:</dt><dd>none</dd>
@@ -56,11 +70,14 @@ import eu.ml82.bpmn_layouter.core.utils.Utils;
 
 public final class BpmnArtifactPostProcessor implements ILayoutProcessor {
 
+	// Positions scored by one task when the positions are scored concurrently
+	private static final int POSITIONS_PER_TASK = 32;
+	
 	float spacing;
-    Map<KVector, Integer> positions;
-    Map<Integer, Double> layersX = new TreeMap<Integer, Double>();
+    LayerNodeIndex index;
+    OffsetTable offsets; // space inserted for the artifacts placed so far
     List<PortChange> portChanges = new LinkedList<PortChange>();
-    int penalty; // non optimal edge routing lowers routing score
+    Map<LNode, ContainerGrowth> containerGrowths = new HashMap<LNode, ContainerGrowth>();
     Set<LNode> containers;
     LGraph lGraph;
     
@@ -72,19 +89,13 @@ public final class BpmnArtifactPostProcessor implements ILayoutProcessor {
         List<BpmnArtifact> artifacts = lGraph.getProperty(BpmnProperties.ARTIFACTS);
         spacing = lGraph.getProperty(LayoutOptions.SPACING);
         this.lGraph = lGraph;
+        // The processor instance may be reused
+        portChanges.clear();
+        containerGrowths.clear();
         
-        // get layers' x values
-        List<Layer> layers = lGraph.getLayers();
-        for (Layer layer : layers){
-        	if (layer.getNodes().size() > 0){
-	        	Double x = null;
-	        	for (LNode node : layer.getNodes()){
-	        		double nodeRight = node.getPosition().x + node.getSize().x;
-	        		if (x == null || nodeRight > x) x = nodeRight;
-	        	}
-	        	layersX.put(layer.getIndex(), x);
-        	}
-        }
+        // index layers' x values and nodes
+        index = new LayerNodeIndex(lGraph);
+        offsets = new OffsetTable();
                
         // Process artifacts
         if (artifacts != null){
@@ -132,129 +143,203 @@ public final class BpmnArtifactPostProcessor implements ILayoutProcessor {
 	        	artifacts = new LinkedList<BpmnArtifact>(Maps.getKeysSortedByValue(artifactMap));
 	        }
     	
-	        // Process artifacts
+			// Place the artifacts one after the other, so each one sees the artifacts placed before
+			Executor executor = null;
+			if (lGraph.getProperty(BpmnProperties.PARALLEL_LAYOUT)) executor = lGraph.getProperty(BpmnProperties.EXECUTOR);
 			for (BpmnArtifact artifact : artifacts){
-				LNode artifactNode = artifact.node;
-	        	positions = new HashMap<KVector, Integer>();
+				ArtifactSnapshot snapshot = new ArtifactSnapshot(artifact, offsets);
+				Map<KVector, Integer> positions = score(artifact, snapshot, executor);
 				
-	    		if (artifact.originalEdges.size() == 1){ // Artifact has only one incoming or one outgoing edge
-	    			SingleEdgeArtifactProcessor.place(artifact,lGraph,positions);
-	    		}
-	    		else { // Artifacts with more than one edge
-	    			
-		        	// Get min and max layer
-		        	PointMinMax<Double> minMaxY = new PointMinMax<Double>();
-		        	MinMax<Integer> layerMinMax = calcMinMax(artifact,minMaxY);
-		    		
-		    		// Final layer min / max adjustments
-	        		layerMinMax.addValue(Math.max(layerMinMax.getMin()-1, 0));
-	        		layerMinMax.addValue(Math.min(layerMinMax.getMax()+1, lGraph.getLayers().size()-1));
-		    		
-	        		// Place artifacts
-		        	placeArtifact(artifact,layerMinMax,minMaxY);
-		        	
-	    		}
-	    		
 				// Get final position based on score
-	    		KVector newPos;
-	    		if (debugPos != null) newPos = debugPos;
-	    		else newPos = Maps.getKeysSortedByValue(positions).iterator().next();
-	        	artifactNode.getPosition().x = newPos.x;
-	        	artifactNode.getPosition().y = newPos.y;
-		        routeEdges(artifact);
-		        
-		        // Resize container if necessary
-		    	handleContainers(artifact);   
-
-		    	// Attach artifact to its container
-		    	LNode artifactContainer = artifactNode.getProperty(InternalProperties.PARENT_LNODE);
-				if (artifactContainer != null) artifactContainer.getProperty(InternalProperties.NESTED_LGRAPH).getLayerlessNodes().add(artifact.node);
-		    
-				// Attach artifact to layer, so it does not collide with following artifacts
-				Layer artifactLayer = null;
-				for (Entry<Integer, Double> entry : layersX.entrySet()){
-					if (newPos.x < entry.getValue()){
-						artifactLayer = lGraph.getLayers().get(entry.getKey());
-						break;
-					}
-				}
-				int i = 0;
-				for (LNode node : artifactLayer.getNodes()){
-					if (newPos.y < node.getPosition().y){
-						artifactNode.setLayer(i,artifactLayer);
-						break;
-					}
-					i++;
-				}
+				KVector newPos;
+				if (debugPos != null) newPos = debugPos;
+				else newPos = Maps.getKeysSortedByValue(positions).iterator().next();
+				applyPosition(artifact, snapshot, newPos);
 			}
+			
+			// Resize containers if necessary
+			resizeContainers(artifacts);
         }
     }
+	
+	/**
+	 * Try different positions for the artifact.
+	 * 
+	 * @return candidate positions and their scores
+	 */
+	private Map<KVector, Integer> score(BpmnArtifact artifact, ArtifactSnapshot snapshot, Executor executor){
+		Map<KVector, Integer> positions = new HashMap<KVector, Integer>();
 		
+		if (artifact.originalEdges.size() == 1){ // Artifact has only one incoming or one outgoing edge
+			SingleEdgeArtifactProcessor.place(artifact,lGraph,index,offsets,positions);
+		}
+		else { // Artifacts with more than one edge
+			
+        	// Get min and max layer
+        	PointMinMax<Double> minMaxY = new PointMinMax<Double>();
+        	MinMax<Integer> layerMinMax = calcMinMax(artifact,minMaxY);
+    		
+    		// Final layer min / max adjustments
+    		layerMinMax.addValue(Math.max(layerMinMax.getMin()-1, 0));
+    		layerMinMax.addValue(Math.min(layerMinMax.getMax()+1, lGraph.getLayers().size()-1));
+    		
+    		// Place artifacts
+    		List<Candidate> candidates = new ArrayList<Candidate>();
+        	placeArtifact(artifact,layerMinMax,minMaxY,candidates);
+        	int[] scores = scoreCandidates(snapshot, candidates, executor);
+        	
+        	// Same order as scoring the positions one after the other,
+        	// a position found twice keeps the score of the later one
+        	for (int i = 0; i < candidates.size(); i++){
+        		positions.put(candidates.get(i).position, scores[i]);
+        	}
+		}
+		return positions;
+	}
+	
+	/**
+	 * Route the edges for each candidate position, concurrently if there is an executor
+	 * and enough positions.
+	 * 
+	 * @return score of each candidate
+	 */
+	private int[] scoreCandidates(final ArtifactSnapshot snapshot, final List<Candidate> candidates, Executor executor){
+		final int[] scores = new int[candidates.size()];
+		if (executor == null || candidates.size() <= POSITIONS_PER_TASK){
+			scoreCandidates(snapshot, candidates, scores, 0, candidates.size());
+			return scores;
+		}
+		// The index builds its lookup structures lazily, so build them before the tasks query it
+		index.prepare();
+		List<Runnable> tasks = new ArrayList<Runnable>();
+		for (int start = 0; start < candidates.size(); start += POSITIONS_PER_TASK){
+			final int from = start;
+			final int to = Math.min(start + POSITIONS_PER_TASK, candidates.size());
+			tasks.add(new Runnable() {
+				public void run() {
+					scoreCandidates(snapshot, candidates, scores, from, to);
+				}
+			});
+		}
+		Parallel.invokeAll(executor, tasks);
+		return scores;
+	}
+	
+	private void scoreCandidates(ArtifactSnapshot snapshot, List<Candidate> candidates, int[] scores, int from, int to){
+		for (int i = from; i < to; i++){
+			Candidate candidate = candidates.get(i);
+			scores[i] = routeEdges(snapshot, candidate.position, candidate.penalty).score;
+		}
+	}
+	
 	/**
-	 * Place artifact on different positions from layer 
+	 * Place the artifact on the chosen position: 
+	 * Apply its route and add it to its container and layer
+	 */
+	private void applyPosition(BpmnArtifact artifact, ArtifactSnapshot snapshot, KVector newPos){
+		LNode artifactNode = artifact.node;
+		Route route = routeEdges(snapshot, newPos, 0);
+		artifactNode.getPosition().x = newPos.x;
+		artifactNode.getPosition().y = newPos.y;
+		
+		// Bendpoints and ports, the sources first
+		portChanges.clear();
+		for (int i = 0; i < snapshot.edges.length; i++){
+			EdgeSnapshot edge = snapshot.edges[i];
+			EdgeRoute edgeRoute = route.edges[i];
+			edge.edge.getBendPoints().clear();
+			edge.edge.getBendPoints().addAll(edgeRoute.bendpoints);
+			PortSide sourceSide = edge.outgoing ? edgeRoute.artifactSide : edgeRoute.oppSide;
+			PortSide targetSide = edge.outgoing ? edgeRoute.oppSide : edgeRoute.artifactSide;
+			if (sourceSide != null) setPortPos(edge.edge, sourceSide, PortType.OUTPUT);
+			if (targetSide != null) setPortPos(edge.edge, targetSide, PortType.INPUT);
+		}
+    	// Apply port changes. Needs to be done outside the edge loop.
+    	// Otherwise unconnected ports found for the first edges would be taken.
+    	for (PortChange portChange : portChanges){
+	    	if (portChange.portType == PortType.OUTPUT)
+	    		portChange.edge.setSource(portChange.port);
+	    	else
+	    		portChange.edge.setTarget(portChange.port);
+    	}
+		if (route.container != null) artifactNode.setProperty(InternalProperties.PARENT_LNODE, route.container);
+		
+		// Record the space needed in the container
+		handleContainers(artifact);   
+		
+		// Attach artifact to its container
+		LNode artifactContainer = artifactNode.getProperty(InternalProperties.PARENT_LNODE);
+		if (artifactContainer != null) artifactContainer.getProperty(InternalProperties.NESTED_LGRAPH).getLayerlessNodes().add(artifact.node);
+		
+		// Attach artifact to layer, so it does not collide with following artifacts
+		int artifactLayer = index.getLayerAt(newPos.x);
+		int i = index.add(artifactLayer, artifactNode);
+		artifactNode.setLayer(i, lGraph.getLayers().get(artifactLayer));
+	}
+		
+	/**
+	 * Collect candidate positions of the artifact from layer 
 	 * with index layerMin to layer with index layerMax.
 	 */
-	private void placeArtifact(BpmnArtifact artifact, MinMax<Integer> layerMinMax, PointMinMax<Double> minMax){
+	private void placeArtifact(BpmnArtifact artifact, MinMax<Integer> layerMinMax, PointMinMax<Double> minMax, List<Candidate> candidates){
 		LNode artifactNode = artifact.node;
 		double artifactHeight = artifactNode.getSize().y;
 				
 		for (int i = layerMinMax.getMin(); i <= layerMinMax.getMax(); i++){
 						
-			Layer layer = lGraph.getLayers().get(i);
-			if (layer.getNodes().size() == 0) 
+			List<LNode> layerNodes = index.getNodes(i);
+			if (layerNodes.size() == 0) 
 				continue;
 
 			// Here we could add per-layer penalty logic
 			int penaltyStart = 0;
+			int penalty;
 			
-			LNode node1 = null, node2 = null;
+			// The nodes' y positions are taken from the index, which has moved them 
+			// for the artifacts placed so far
+			int node1 = -1, node2 = -1;
 			double centerX = 0;
 			double newY;
-				for (LNode node : layer.getNodes()){
+			for (int j = 0; j < layerNodes.size(); j++){
+				LNode node = layerNodes.get(j);
 				LNode nodeContainer = node.getProperty(InternalProperties.PARENT_LNODE);
 				if (nodeContainer == null || artifact.containers.keySet().contains(nodeContainer)){
 					node1 = node2;
-					node2 = node;					
-					KVector node2Pos = node2.getPosition();
+					node2 = j;
+					double node2Top = index.getTop(i, node2);
 					
-					centerX = node2Pos.x 
-							+ node2.getSize().x / 2
+					centerX = node.getPosition().x 
+							+ node.getSize().x / 2
 							- artifact.node.getSize().x / 2;
 		    		// above top node
-					if ( node1 == null && node2 != null){
+					if ( node1 < 0){
 			        	penalty = penaltyStart;
-						if (minMax.getMaxY() == null || node2Pos.y < minMax.getMinY()){ 
-		        			newY = node2Pos.y - artifactNode.getSize().y - spacing / 2;
+						if (minMax.getMaxY() == null || node2Top < minMax.getMinY()){ 
+		        			newY = node2Top - artifactNode.getSize().y - spacing / 2;
 		        			penalty++;
 						}
 		        		else{ 
 		        			newY = minMax.getMinY() - artifactNode.getSize().y / 2;
 		        		}
 						
-						artifactNode.getPosition().x = centerX;
-						artifactNode.getPosition().y = newY;
-		        		routeEdges(artifact);
+		        		candidates.add(new Candidate(centerX, newY, penalty));
 					}
 					// Is there space between node1 and node2?
-					if ( node1 != null && node2 != null){
-						KVector node1Pos = node1.getPosition();
+					else {
 			        	penalty = penaltyStart;
-						double bottomNode1 = node1Pos.y + node1.getSize().y;
-						double space = node2Pos.y - (bottomNode1 + artifactHeight);
-						if (space > 0){ // Yes, there is. Route edges.
-							artifactNode.getPosition().x = centerX;
-							artifactNode.getPosition().y = bottomNode1 + spacing / 2;
+						double bottomNode1 = index.getBottom(i, node1);
+						double space = node2Top - (bottomNode1 + artifactHeight);
+						if (space > 0){ // Yes, there is.
 							if (space < spacing*2) penalty++; 
-		            		routeEdges(artifact);
+		            		candidates.add(new Candidate(centerX, bottomNode1 + spacing / 2, penalty));
 						}
 					}
 				}
 			}
-			if (node2 != null){
+			if (node2 >= 0){
 				// below bottom node
-				KVector node2Pos = node2.getPosition();
 		    	penalty = penaltyStart;
-				double bottomNode2 = node2Pos.y + node2.getSize().y;
+				double bottomNode2 = index.getBottom(i, node2);
 				if (minMax.getMaxY() == null || bottomNode2 > minMax.getMaxY()){ 
 					newY = bottomNode2 + spacing / 2;
 					penalty++;
@@ -262,87 +347,71 @@ public final class BpmnArtifactPostProcessor implements ILayoutProcessor {
 				else {
 					newY = minMax.getMaxY() - artifact.node.getSize().y / 2; 
 				}
-				artifactNode.getPosition().x = centerX;
-				artifactNode.getPosition().y = newY;
-				routeEdges(artifact);
+				candidates.add(new Candidate(centerX, newY, penalty));
 			}
 		}
 	}
     
 	/**
-	 * 1. Route edges
-	 * 2. Adjust ports
-	 * 3. Calculate edge length. 
+	 * Route the edges of the artifact for a position into buffers and score the position.
+	 * Only reads the snapshot and the index, so positions can be scored concurrently.
+	 * <br><br>
+	 * 1. Route edges<br>
+	 * 2. Adjust ports<br>
+	 * 3. Calculate edge length
+	 * 
+	 * @param penalty penalty of the position before routing
 	 */
-    private int routeEdges(BpmnArtifact artifact){    	
+    private Route routeEdges(ArtifactSnapshot artifact, KVector artifactPos, int penalty){    	
     	double edgeLength = 0;
     	boolean lengthPenalty = false;
-    	portChanges.clear();
-    	LNode artifactNode = artifact.node;
-    	KVector artifactPos = artifactNode.getPosition();
-    	for (LEdge edge : artifactNode.getConnectedEdges()){
-    		// Get opposite node
-    		LNode oppNode;
-			if (edge.getSource().getNode() == artifactNode)
-    			oppNode = edge.getTarget().getNode();
-			else {
-				oppNode = edge.getSource().getNode();
-			}
+    	Route route = new Route(artifact.edges.length);
+    	KVector artifactSize = artifact.size;
+		double artifactCenterX = artifactPos.x + artifactSize.x / 2;
+		double artifactCenterY = artifactPos.y + artifactSize.y / 2;
+    	for (int i = 0; i < artifact.edges.length; i++){
+    		EdgeSnapshot edge = artifact.edges[i];
+    		EdgeRoute edgeRoute = new EdgeRoute(edge);
+    		route.edges[i] = edgeRoute;
 						
-			// Clear bendpoints
-			KVectorChain bendpoints = edge.getBendPoints(); 
-			bendpoints.clear();
-
-			KVector oppNodePos = oppNode.getPosition();
-			double artifactCenterX = artifactPos.x + artifactNode.getSize().x / 2;
-			double artifactCenterY = artifactPos.y + artifactNode.getSize().y / 2;
+			KVector oppNodePos = edge.oppNodePos;
 			double nodeTop = oppNodePos.y;
-			double nodeBottom = oppNodePos.y + oppNode.getSize().y;
+			double nodeBottom = oppNodePos.y + edge.oppNodeSize.y;
 			double nodeLeft = oppNodePos.x;
-			double nodeRight = oppNodePos.x + oppNode.getSize().x;
-			double nodeCenterX = oppNodePos.x + oppNode.getSize().x / 2;
-			double nodeCenterY = oppNodePos.y + oppNode.getSize().y / 2;
+			double nodeRight = oppNodePos.x + edge.oppNodeSize.x;
+			double nodeCenterX = oppNodePos.x + edge.oppNodeSize.x / 2;
+			double nodeCenterY = oppNodePos.y + edge.oppNodeSize.y / 2;
 			
 			// Create new bendpoints
 			if (artifactCenterY != nodeCenterY && artifactCenterX != nodeCenterX){
 				if  ((artifactCenterX > nodeRight || artifactCenterX < nodeLeft) 
 						&& (artifactCenterY < nodeTop || artifactCenterY > nodeBottom)){
-						bendpoints.add(nodeCenterX,artifactCenterY);
+						edgeRoute.bendpoints.add(new KVector(nodeCenterX,artifactCenterY));
 				}
 				else penalty++;
 			}
 			
-			// Set new port positions
-			if (edge.getSource().getNode() == artifactNode){
-				setPort(edge,edge.getSource(), true);
-				setPort(edge,edge.getTarget(), false);
+			// Set new port positions, the source first
+			if (edge.outgoing){
+				setPort(edge, edgeRoute, true, artifactPos, artifactSize);
+				setPort(edge, edgeRoute, false, artifactPos, artifactSize);
 			}
 			else {
-				setPort(edge,edge.getSource(), false);
-				setPort(edge,edge.getTarget(), true);
+				setPort(edge, edgeRoute, false, artifactPos, artifactSize);
+				setPort(edge, edgeRoute, true, artifactPos, artifactSize);
 			}
     	}
     	
-    	// Apply port changes. Needs to be done outside the edge loop.
-    	// Otherwise we'd get a concurrent modification error.
-    	for (PortChange portChange : portChanges){
-	    	if (portChange.portType == PortType.OUTPUT)
-	    		portChange.edge.setSource(portChange.port);
-	    	else
-	    		portChange.edge.setTarget(portChange.port);
-    	}
-    	
-    	for (LEdge edge : artifactNode.getConnectedEdges()){
-    		removeCrossings(edge,artifact);
+    	for (int i = 0; i < artifact.edges.length; i++){
+    		removeCrossings(artifact, artifact.edges[i], route.edges[i], artifactPos);
     	}
     	
 		// Calculate edge length
-		for (LEdge edge : artifactNode.getConnectedEdges()){
-			double lastX = edge.getSource().getPosition().x + edge.getSource().getNode().getPosition().x;
-			double lastY = edge.getSource().getPosition().y + edge.getSource().getNode().getPosition().y;
-			KVector lastPoint = new KVector(lastX, lastY);
-			KVectorChain bendpoints = edge.getBendPoints();
-			for (KVector bendpoint : bendpoints){
+    	for (int i = 0; i < artifact.edges.length; i++){
+    		EdgeSnapshot edge = artifact.edges[i];
+    		EdgeRoute edgeRoute = route.edges[i];
+			KVector lastPoint = edgeRoute.getSourcePoint(edge, artifactPos);
+			for (KVector bendpoint : edgeRoute.bendpoints){
 				double segmentLength = + Math.sqrt(Math.pow(lastPoint.x-bendpoint.x,2)
 								+ Math.pow(lastPoint.y-bendpoint.y,2));
 				edgeLength = edgeLength + segmentLength;
@@ -353,88 +422,80 @@ public final class BpmnArtifactPostProcessor implements ILayoutProcessor {
 				lastPoint = bendpoint;
 			}
 
-			double targetX = edge.getTarget().getPosition().x + edge.getTarget().getNode().getPosition().x;
-			double targetY = edge.getTarget().getPosition().y + edge.getTarget().getNode().getPosition().y;
-			double segmentLength = + Math.sqrt(Math.pow(lastPoint.x-targetX,2)
-							+ Math.pow(lastPoint.y-targetY,2));
+			KVector target = edgeRoute.getTargetPoint(edge, artifactPos);
+			double segmentLength = + Math.sqrt(Math.pow(lastPoint.x-target.x,2)
+							+ Math.pow(lastPoint.y-target.y,2));
 			if (segmentLength < spacing / 2) lengthPenalty = true;
 			edgeLength = edgeLength + segmentLength; 			
     	}
 		
-		// Update artifact container
-		findArtifactContainer(artifact);
+		// Find artifact container
+		ContainerSnapshot container = artifact.getContainer(artifactPos.y);
+		if (container != null) route.container = container.node;
 		// Increase penalty if artifact is outside its container
-		if (inContainer(artifact) == false) penalty++;
+		if (container != null && !container.contains(artifactPos.y, artifactSize.y)) penalty++;
 		
 		// Increase penalty if artifact edge overlays opposite node edge
-		for (LPort port : artifactNode.getPorts(PortSide.EAST)){
-			for (LEdge artifactEdge : port.getOutgoingEdges()){
-				for (LEdge edge : artifactEdge.getSource().getNode().getIncomingEdges()){
-					if (edge != artifactEdge && edge.getBendPoints().size() == 0
-						&& artifactEdge.getBendPoints().size() == 0)
-						penalty += 2;
+		for (int i = 0; i < artifact.edges.length; i++){
+			EdgeSnapshot edge = artifact.edges[i];
+			EdgeRoute edgeRoute = route.edges[i];
+			if (edgeRoute.bendpoints.size() > 0) continue;
+			if (edge.outgoing && edgeRoute.getArtifactSide(edge) == PortSide.EAST){
+				// Straight incoming edges of the artifact
+				for (int j = 0; j < artifact.edges.length; j++){
+					if (!artifact.edges[j].outgoing && route.edges[j].bendpoints.size() == 0) penalty += 2;
 				}
 			}
-		}
-		for (LPort port : artifactNode.getPorts(PortSide.WEST)){
-			for (LEdge artifactEdge : port.getIncomingEdges()){
-				for (LEdge edge : artifactEdge.getSource().getNode().getOutgoingEdges()){
-					if (edge != artifactEdge && edge.getBendPoints().size() == 0
-						&& artifactEdge.getBendPoints().size() == 0)
-						penalty += 2;
+			else if (!edge.outgoing && edgeRoute.getArtifactSide(edge) == PortSide.WEST){
+				// Straight outgoing edges of the opposite node
+				penalty += 2 * edge.straightOppEdges;
+				for (int j : edge.oppArtifactEdges){
+					if (route.edges[j].bendpoints.size() == 0) penalty += 2;
 				}
 			}
 		}
     	
 		if (lengthPenalty) penalty++; // Penalty for very short edge segment
-		int score = (int) (edgeLength * (penalty + 1));
-		
-		positions.put(new KVector(artifactPos.x,artifactPos.y), score);
+		route.score = (int) (edgeLength * (penalty + 1));
 		
         // debug output       	
         //System.out.println("x:"+artifactPos.x+" "+" y:"+artifactPos.y
-        //					+" score:"+score+" length:"+edgeLength+" penalty:"+penalty);
+        //					+" score:"+route.score+" length:"+edgeLength+" penalty:"+penalty);
         
-        return penalty;
+        return route;
     }   
 
     /**
      * Move edges around nodes that are crossed by artifact edges 
      * 
      */
-    private void removeCrossings(LEdge edge,BpmnArtifact artifact){
-		KVector lastPoint = KVector.sum(edge.getSource().getPosition(),edge.getSource().getNode().getPosition());
-    	LNode oppNode;
-    	LNode artifactNode = artifact.node;
-		if (artifactNode == edge.getSource().getNode()) oppNode = edge.getTarget().getNode();
-		else oppNode = edge.getSource().getNode();
+    private void removeCrossings(ArtifactSnapshot artifact, EdgeSnapshot edge, EdgeRoute edgeRoute, KVector artifactPos){
+		KVector lastPoint = edgeRoute.getSourcePoint(edge, artifactPos);
+		LNode sourceNode = edge.outgoing ? artifact.node : edge.oppNode;
+		LNode targetNode = edge.outgoing ? edge.oppNode : artifact.node;
 		
-    	KVectorChain points = new KVectorChain(edge.getBendPoints());
-    	points.add(KVector.sum(edge.getTarget().getPosition(),edge.getTarget().getNode().getPosition()));
-    	Iterator<KVector> pointsIter= points.iterator();
-		LNode targetNode = edge.getTarget().getNode();
-    	while (pointsIter.hasNext()){
-    		KVector point = pointsIter.next();
-    		KVector newPoint = null;
+    	KVectorChain points = new KVectorChain(edgeRoute.bendpoints);
+    	points.add(edgeRoute.getTargetPoint(edge, artifactPos));
+    	for (KVector point : points){
 			if (lastPoint.x != point.x) { // horizontal segment
-    			KVector changedPoint = checkCrossingHorizontal(edge, lastPoint, point, artifactNode);
+    			KVector changedPoint = checkCrossingHorizontal(sourceNode, targetNode, edge.oppNodePos.y, lastPoint, point);
 				if (changedPoint != null){ // Crossing detected
 					lastPoint.y = changedPoint.y;
 					// calculate new bendpoint's x position
 					double newX = 0;
-					if (oppNode.getPosition().x < artifactNode.getPosition().x)
-						newX = artifactNode.getPosition().x - spacing / 2;
+					if (edge.oppNodePos.x < artifactPos.x)
+						newX = artifactPos.x - spacing / 2;
 					else
-						newX = artifactNode.getPosition().x + artifactNode.getSize().x + spacing / 2;
+						newX = artifactPos.x + artifact.size.x + spacing / 2;
 					// create new bendpoint
-					newPoint = new KVector(newX, changedPoint.y);
-					if (targetNode == artifactNode) edge.getBendPoints().add(newPoint);
-					else edge.getBendPoints().add(0, newPoint);
+					KVector newPoint = new KVector(newX, changedPoint.y);
+					if (!edge.outgoing) edgeRoute.bendpoints.add(newPoint);
+					else edgeRoute.bendpoints.add(0, newPoint);
 				}
 			} 
     		else {
     			// TODO
-    			// checkCrossingVertical(artifactNode, lastPoint, point);
+    			// checkCrossingVertical(layerIndex, lastPoint, point);
     		}
 			lastPoint = point;
     	}
@@ -442,26 +503,21 @@ public final class BpmnArtifactPostProcessor implements ILayoutProcessor {
     }
     
     // Check crossing of artifact's vertical edge segments
-    private KVector checkCrossingVertical(LNode node, KVector point1, KVector point2){
+    private KVector checkCrossingVertical(int layerIndex, KVector point1, KVector point2){
     	if (point2.y > point1.y){ // downwards
-			for (LNode node2 : node.getLayer().getNodes()){
-        		double nodeTop = node2.getPosition().y;
-				if (point1.y < nodeTop && point2.y > nodeTop){ // crossing detected
-					point2.y = nodeTop - (nodeTop - point1.y) / 2;;
-					return new KVector(point2);
-				}
+    		int node2 = index.getFirstTopBetween(layerIndex, point1.y, point2.y);
+			if (node2 >= 0){ // crossing detected
+        		double nodeTop = index.getTop(layerIndex, node2);
+				point2.y = nodeTop - (nodeTop - point1.y) / 2;
+				return new KVector(point2);
 			}
 		}
 		else { // upwards
-			int i = node.getLayer().getNodes().size()-1;
-			while (i >= 0){
-				LNode node2 = node.getLayer().getNodes().get(i);
-	    		double nodeBottom = node2.getPosition().y + node.getSize().y;
-				if (point1.y > nodeBottom && point2.y < nodeBottom){ // crossing detected
-					point2.y = nodeBottom + (point1.y - nodeBottom) / 2;
-					return new KVector(point2);
-				}
-				i--;
+			int node2 = index.getLastBottomBetween(layerIndex, point2.y, point1.y);
+			if (node2 >= 0){ // crossing detected
+	    		double nodeBottom = index.getBottom(layerIndex, node2);
+				point2.y = nodeBottom + (point1.y - nodeBottom) / 2;
+				return new KVector(point2);
 			}
 		}
 		return null;
@@ -469,52 +525,28 @@ public final class BpmnArtifactPostProcessor implements ILayoutProcessor {
     
     /**
      * Check crossing of artifact's horizontal edge segments
+     * 
+     * @param oppNodeY y position of the artifact's opposite node
      */
-    private KVector checkCrossingHorizontal(LEdge edge, KVector point1, KVector point2, LNode artifactNode){
-    	LNode oppNode;
-		if (artifactNode == edge.getSource().getNode()) oppNode = edge.getTarget().getNode();
-		else oppNode = edge.getSource().getNode();
+    private KVector checkCrossingHorizontal(LNode sourceNode, LNode targetNode, double oppNodeY, KVector point1, KVector point2){
     	// get start and end layer of edge segment
-    	Integer startLayerIndex = null;
-    	Integer endLayerIndex = null;
-    	Iterator<Entry<Integer, Double>> layersXIter = layersX.entrySet().iterator();
-    	while (layersXIter.hasNext()){
-    		Entry<Integer, Double> layerX = layersXIter.next();
-    		if (startLayerIndex == null && layerX.getValue() > point1.x) 
-    			startLayerIndex = layerX.getKey();
-    		if (endLayerIndex == null && layerX.getValue() > point2.x) 
-    			endLayerIndex = layerX.getKey();
-    		if (startLayerIndex != null && endLayerIndex != null) 
-    			break;
-    	}
-    	int layerCount = layersX.size();
-    	if (startLayerIndex == null || endLayerIndex == null){
-    		Object layerMaxIndex = layersX.keySet().toArray()[layerCount-1];
-    		if (startLayerIndex == null) startLayerIndex = (Integer) layerMaxIndex;
-    		if (endLayerIndex == null) endLayerIndex = (Integer) layerMaxIndex;
-    	}
+    	int startLayerIndex = index.getLayerAt(point1.x);
+    	int endLayerIndex = index.getLayerAt(point2.x);
     	if (startLayerIndex > endLayerIndex){
-    		Integer tmpIndex = endLayerIndex;
+    		int tmpIndex = endLayerIndex;
     		endLayerIndex = startLayerIndex;
     		startLayerIndex = tmpIndex;
     	}
     	
     	// crossing detection
-    	LNode sourceNode = edge.getSource().getNode();
-    	LNode targetNode = edge.getTarget().getNode();
-		List<Layer> layers = lGraph.getLayers();
-		for (int index = startLayerIndex; index <= endLayerIndex; index++){
-			Layer layer = layers.get(index);
-			for (LNode node2 : layer.getNodes()){
-				if (node2 != sourceNode && node2 != targetNode){
-	        		double nodeTop = node2.getPosition().y;
-	        		double nodeBottom = node2.getPosition().y + node2.getSize().y;
-					if (point2.y > nodeTop && point2.y < nodeBottom){ // crossing detected
-						if (oppNode.getPosition().y > nodeTop)  point2.y = nodeBottom + spacing / 2; 
-						else point2.y = nodeTop - spacing / 2; 
-						return new KVector(point2);
-					}
-				}
+		for (int layerIndex = startLayerIndex; layerIndex <= endLayerIndex; layerIndex++){
+			int node2 = index.getNodeAt(layerIndex, point2.y, sourceNode, targetNode);
+			if (node2 >= 0){ // crossing detected
+        		double nodeTop = index.getTop(layerIndex, node2);
+        		double nodeBottom = index.getBottom(layerIndex, node2);
+				if (oppNodeY > nodeTop)  point2.y = nodeBottom + spacing / 2; 
+				else point2.y = nodeTop - spacing / 2; 
+				return new KVector(point2);
 			}
 		}
 	    		
@@ -527,60 +559,252 @@ public final class BpmnArtifactPostProcessor implements ILayoutProcessor {
     	LEdge edge;
     }
     
+    
+    /**
+     * A position to score and its penalty before routing
+     */
+    static final class Candidate{
+    	final KVector position;
+    	final int penalty;
+    	
+    	Candidate(double x, double y, int penalty){
+    		this.position = new KVector(x, y);
+    		this.penalty = penalty;
+    	}
+    }
+    
+    /**
+     * What scoring the positions of an artifact reads besides the layer node index:
+     * The artifact's edges with their opposite nodes and ports, and its possible containers.
+     * The snapshot is taken before the positions are scored, the scoring doesn't read the graph.
+     * Its y positions are moved by the space inserted for the artifacts placed before.
+     */
+    static final class ArtifactSnapshot{
+    	final LNode node;
+    	final KVector size;
+    	final EdgeSnapshot[] edges;
+    	final ContainerSnapshot[] containers; // possible containers, ordered by y position
+    	final ContainerSnapshot container; // current container, used if there are no possible containers
+    	
+    	ArtifactSnapshot(BpmnArtifact artifact, OffsetTable offsets){
+    		node = artifact.node;
+    		size = new KVector(node.getSize());
+    		List<EdgeSnapshot> edgeList = new ArrayList<EdgeSnapshot>();
+    		for (LEdge edge : node.getConnectedEdges()){
+    			edgeList.add(new EdgeSnapshot(edge, node, offsets));
+    		}
+    		edges = edgeList.toArray(new EdgeSnapshot[edgeList.size()]);
+    		
+    		// Opposite nodes' straight outgoing edges, for the overlay penalty of incoming edges
+    		for (EdgeSnapshot edge : edges){
+    			if (edge.outgoing) continue;
+    			for (LEdge oppEdge : edge.oppNode.getOutgoingEdges()){
+    				if (oppEdge == edge.edge) continue;
+    				int artifactEdge = edgeList.size() - 1;
+    				while (artifactEdge >= 0 && edges[artifactEdge].edge != oppEdge) artifactEdge--;
+    				if (artifactEdge >= 0) edge.oppArtifactEdges.add(artifactEdge);
+    				else if (oppEdge.getBendPoints().size() == 0) edge.straightOppEdges++;
+    			}
+    		}
+    		
+    		List<ContainerSnapshot> containerList = new ArrayList<ContainerSnapshot>();
+    		for (LNode possibleContainer : Maps.getKeysSortedByValue(artifact.containers)){
+    			containerList.add(new ContainerSnapshot(possibleContainer, offsets));
+    		}
+    		containers = containerList.toArray(new ContainerSnapshot[containerList.size()]);
+    		LNode currentContainer = node.getProperty(InternalProperties.PARENT_LNODE);
+    		container = currentContainer != null ? new ContainerSnapshot(currentContainer, offsets) : null;
+    	}
+    	
+    	/**
+    	 * @return container for an artifact at a y position or null
+    	 */
+    	ContainerSnapshot getContainer(double y){
+            if (containers.length == 0) return container;
+            for (int i = 1; i < containers.length; i++){
+        		if (y < containers[i].top) return containers[i-1];
+        	}
+            return containers[containers.length-1];
+    	}
+    }
+    
+    /**
+     * An edge of the artifact with its opposite node and its ports
+     */
+    static final class EdgeSnapshot{
+    	final LEdge edge;
+    	final boolean outgoing; // the artifact is the source
+    	final LNode oppNode;
+    	final KVector oppNodePos;
+    	final KVector oppNodeSize;
+    	final PortSide artifactSide;
+    	final KVector artifactPortPos;
+    	final PortSide oppSide;
+    	final KVector oppPortPos;
+    	// other outgoing edges of the opposite node: straight edges and edges to the artifact
+    	int straightOppEdges;
+    	final List<Integer> oppArtifactEdges = new ArrayList<Integer>(0);
+    	
+    	EdgeSnapshot(LEdge edge, LNode artifactNode, OffsetTable offsets){
+    		this.edge = edge;
+    		outgoing = edge.getSource().getNode() == artifactNode;
+    		LPort artifactPort = outgoing ? edge.getSource() : edge.getTarget();
+    		LPort oppPort = outgoing ? edge.getTarget() : edge.getSource();
+    		oppNode = oppPort.getNode();
+    		oppNodePos = new KVector(oppNode.getPosition().x, offsets.move(oppNode.getPosition().y));
+    		oppNodeSize = new KVector(oppNode.getSize());
+    		artifactSide = artifactPort.getSide();
+    		artifactPortPos = new KVector(artifactPort.getPosition());
+    		oppSide = oppPort.getSide();
+    		oppPortPos = new KVector(oppPort.getPosition());
+    	}
+    }
+    
+    /**
+     * Position and size of a container, moved by the space inserted so far
+     */
+    static final class ContainerSnapshot{
+    	final LNode node;
+    	final double top;
+    	final double bottom;
+    	
+    	ContainerSnapshot(LNode node, OffsetTable offsets){
+    		this.node = node;
+    		double y = node.getPosition().y;
+    		top = offsets.move(y);
+    		// includes the space inserted at the bottom of the container
+    		bottom = offsets.move(y + node.getSize().y);
+    	}
+    	
+    	/**
+    	 * @return whether an artifact at a y position is placed within the container's boundaries
+    	 */
+    	boolean contains(double y, double height){
+    		return y >= top && y + height <= bottom;
+    	}
+    }
+    
+    /**
+     * Edges of the artifact routed for a position, with the score of the position
+     */
+    static final class Route{
+    	final EdgeRoute[] edges;
+    	LNode container; // container of the artifact, null if it is kept
+    	int score;
+    	
+    	Route(int edgeCount){
+    		edges = new EdgeRoute[edgeCount];
+    	}
+    }
+    
+    /**
+     * Bendpoints and new port sides of an artifact edge
+     */
+    static final class EdgeRoute{
+    	final KVectorChain bendpoints = new KVectorChain();
+    	PortSide artifactSide; // null if the port is kept
+    	KVector artifactPortPos;
+    	PortSide oppSide; // null if the port is kept
+    	KVector oppPortPos;
+    	
+    	EdgeRoute(EdgeSnapshot edge){
+    		artifactPortPos = edge.artifactPortPos;
+    		oppPortPos = edge.oppPortPos;
+    	}
+    	
+    	PortSide getArtifactSide(EdgeSnapshot edge){
+    		return artifactSide != null ? artifactSide : edge.artifactSide;
+    	}
+    	
+    	KVector getSourcePoint(EdgeSnapshot edge, KVector artifactPos){
+    		if (edge.outgoing) return KVector.sum(artifactPortPos, artifactPos);
+    		return KVector.sum(oppPortPos, edge.oppNodePos);
+    	}
+    	
+    	KVector getTargetPoint(EdgeSnapshot edge, KVector artifactPos){
+    		if (edge.outgoing) return KVector.sum(oppPortPos, edge.oppNodePos);
+    		return KVector.sum(artifactPortPos, artifactPos);
+    	}
+    }
+    
     /**
-	 * Determine new port side
+	 * Determine new port side of the artifact's or the opposite node's end of an edge
 	 * 
+	 * @param artifactEnd whether it is the artifact's end
 	 */
-    private void setPort(LEdge edge, LPort port, Boolean posAbs){
-		LNode node = port.getNode();
-		int bendpointCount = edge.getBendPoints().size();
-		LPort oppPort;
-		PortType portType;
-    	KVector point2 = null;
-		if (port == edge.getSource()){
-			oppPort = edge.getTarget();
-			portType = PortType.OUTPUT;
-			if (bendpointCount > 0) point2 = edge.getBendPoints().get(0);
-		}
-		else{
-			oppPort = edge.getSource();
-			portType = PortType.INPUT;
-			if (bendpointCount > 0) point2 = edge.getBendPoints().get(bendpointCount-1);
+    private static void setPort(EdgeSnapshot edge, EdgeRoute edgeRoute, boolean artifactEnd, KVector artifactPos, KVector artifactSize){
+    	boolean source = artifactEnd == edge.outgoing;
+		int bendpointCount = edgeRoute.bendpoints.size();
+		KVector nodePos, nodeSize, oppNodePos, oppNodeSize;
+		if (artifactEnd){
+			nodePos = artifactPos;
+			nodeSize = artifactSize;
+			oppNodePos = edge.oppNodePos;
+			oppNodeSize = edge.oppNodeSize;
 		}
-
-		KVector nodePos;
-		LNode oppNode = oppPort.getNode();
-		KVector oppNodePos;
-		if (posAbs) {
-			nodePos = node.getPosition();
-			oppNodePos = oppNode.getPosition();
-		}
-		else  {
-			nodePos = node.getPosition();
-			oppNodePos = oppNode.getPosition();
+		else {
+			nodePos = edge.oppNodePos;
+			nodeSize = edge.oppNodeSize;
+			oppNodePos = artifactPos;
+			oppNodeSize = artifactSize;
 		}
+    	KVector point2 = null;
+		if (bendpointCount > 0) point2 = edgeRoute.bendpoints.get(source ? 0 : bendpointCount-1);
 		if (point2 == null) point2 = oppNodePos;
+		
+		PortSide portSide = null;
 		// south
-		if (nodePos.y + node.getSize().y < point2.y){
-			setPortPos(edge,PortSide.SOUTH,portType);
+		if (nodePos.y + nodeSize.y < point2.y){
+			portSide = PortSide.SOUTH;
 		}
 		// north
 		else if ((bendpointCount > 0 && nodePos.y > point2.y)
-				|| (bendpointCount == 0 && nodePos.y > oppNodePos.y + oppNode.getSize().y)){
-			setPortPos(edge,PortSide.NORTH,portType);
+				|| (bendpointCount == 0 && nodePos.y > oppNodePos.y + oppNodeSize.y)){
+			portSide = PortSide.NORTH;
 		}
 		else {
 			// west
 			if (nodePos.x > point2.x){
-				setPortPos(edge,PortSide.WEST,portType);
+				portSide = PortSide.WEST;
 			}
 			// east
 			else if (nodePos.x < point2.x){
-				setPortPos(edge,PortSide.EAST,portType);
+				portSide = PortSide.EAST;
 			}
 		}
+		if (portSide == null) return;
+		
+		// The port is centered on its side, see Utils.centerPort()
+		KVector portPos;
+		if (portSide == PortSide.WEST || portSide == PortSide.EAST) 
+			portPos = new KVector(portSide == PortSide.WEST ? 0 : nodeSize.x, nodeSize.y / 2);
+		else
+			portPos = new KVector(nodeSize.x / 2, portSide == PortSide.NORTH ? 0 : nodeSize.y);
+		if (artifactEnd){
+			edgeRoute.artifactSide = portSide;
+			edgeRoute.artifactPortPos = portPos;
+		}
+		else {
+			edgeRoute.oppSide = portSide;
+			edgeRoute.oppPortPos = portPos;
+		}
     }
     
+	/**
+	 * Checks whether an artifact at a y position is placed within its container's current boundaries.
+	 * Returns true if there is no container.
+	 * 
+	 * @param offsets space inserted for the artifacts placed before
+	 */
+	static boolean inContainer(LNode container, double y, double height, OffsetTable offsets){
+		return container == null || new ContainerSnapshot(container, offsets).contains(y, height);
+	}
+	
+    class ContainerGrowth{
+    	double below; // space needed below the container
+    	double above; // space needed on top of the container's content
+    	double width; // width needed
+    }
     /**
      * Set a new port with a specific side for an edge source or target.
      * If the port does not exist, it is created.
@@ -620,165 +844,116 @@ public final class BpmnArtifactPostProcessor implements ILayoutProcessor {
 		portChange.portType = portType;
 		portChanges.add(portChange);
 	}
-	
-	/** 
-	 * After one container has been resized, we need to move all other containers 
-	 */
-	private void moveContainers(double startPointY, double moveY){
-        for (LNode container : containers){
-        	if (container.getPosition().y > startPointY)
-        		container.getPosition().y += moveY;
-        }
-	}
-	
 	/**
-	 * Find container for artifact and set artifact.node
-	 * PARENT_LNODE property.
-	 */
-	private LNode findArtifactContainer(BpmnArtifact artifact){
-		Object[] containerArray = Maps.getKeysSortedByValue(artifact.containers).toArray();
-        if (containerArray.length == 0) return null;
-		
-		LNode artifactContainer = null;
-		// Find container for artifact
-    	for (int i = 1; i < containerArray.length; i++){
-    		LNode tmpContainer = (LNode) containerArray[i];
-    		if (artifact.node.getPosition().y < tmpContainer.getPosition().y){
-    			artifactContainer = (LNode) containerArray[i-1];
-    			break;
-    		}
-    	}
-    	if (artifactContainer == null) artifactContainer = (LNode) containerArray[containerArray.length-1];
-		artifact.node.setProperty(InternalProperties.PARENT_LNODE, artifactContainer);
-		
-		return artifactContainer;
-	}
-	
-	/**
-	 * Checks whether the artifact is placed within its containers current boundaries
-	 * Returns null if no artifact container is set.
-	 */
-	static boolean inContainer(BpmnArtifact artifact){
-		LNode artifactContainer = artifact.node.getProperty(InternalProperties.PARENT_LNODE);
-		if (artifactContainer != null) {
-			KVector artifactPos = artifact.node.getPosition();
-			if (artifactContainer != null){
-				if (artifactPos.y < artifactContainer.getPosition().y
-					|| artifactPos.y + artifact.node.getSize().y > artifactContainer.getPosition().y + artifactContainer.getSize().y)
-					return false;
-			}
-		}
-		return true;
-	}
-	
-	/**
-	 * Adjustment that are needed when containers (lanes, pools) are involved.
-	 * 
-	 * 1. If artifact is placed outside the container borders, resize container 
-	 * 2. Adjust port positions
-	 * 
+	 * Record the space the artifact needs in its container (lane, pool):
+	 * If the artifact is placed outside the container borders, the container must be resized.
+	 * The space is inserted into the offset table and the layer node index right away,
+	 * the containers are resized for all artifacts at once, see resizeContainers().
 	 */
 	private void handleContainers(BpmnArtifact artifact){
-		Set<LNode> bpmnContainers = this.lGraph.getProperty(BpmnProperties.CONTAINERS);
-		if (bpmnContainers == null) return;
+		if (containers == null) return;
 		
         final int containerPaddingLeftRight = lGraph.getProperty(BpmnProperties.CONTAINER_PADDING_LEFT_RIGHT);
-        final int containerPaddingTopBottom = lGraph.getProperty(BpmnProperties.CONTAINER_PADDING_LEFT_RIGHT);
+        final int containerPaddingTopBottom = lGraph.getProperty(BpmnProperties.CONTAINER_PADDING_TOP_BOTTOM);
         
 		LNode artifactNode = artifact.node;
 		LNode artifactContainer = artifactNode.getProperty(InternalProperties.PARENT_LNODE);
+		ContainerGrowth growth = containerGrowths.get(artifactContainer);
+		if (growth == null){
+			growth = new ContainerGrowth();
+			containerGrowths.put(artifactContainer, growth);
+		}
 		
-		// Resize container
 		KVector artifactPos = artifactNode.getPosition();
 		KVector artifactSize = artifactNode.getSize();
 		KVector artifactContainerSize = artifactContainer.getSize();
-		KVector artifactContainerPos = artifactContainer.getPosition();
-		KVector newSize = new KVector(artifactContainerSize);
-		// If artifact is placed below the current container, resize the container
-		if (artifactPos.y + artifactSize.y > artifactContainerSize.y + artifactContainerPos.y){
-			double startPointY = artifactContainer.getPosition().y;
-			double newHeight = artifactPos.y - artifactContainer.getPosition().y + artifactSize.y + containerPaddingTopBottom;
-			double moveY = newHeight - artifactContainerSize.y; 
-			newSize.y = newHeight;
-			moveContainers(startPointY, moveY);
-			
-			// Move nodes, bendpoints and ports
-			LGraph nestedGraph;
-			for (LNode container : bpmnContainers){
-				if (container.getPosition().y > startPointY){
-					nestedGraph = container.getProperty(InternalProperties.NESTED_LGRAPH);
-		    		for (LNode node : nestedGraph.getLayerlessNodes()){
-						node.getPosition().y += moveY;
-		    			for (LEdge edge : node.getOutgoingEdges()){
-		    				for (KVector bendpoint : edge.getBendPoints()){
-								if (bendpoint.y > newSize.y) bendpoint.y += moveY;
-							}
-						}
-		    		}
-				}
-			}
-			nestedGraph = artifactContainer.getProperty(InternalProperties.NESTED_LGRAPH);
-    		for (LNode node : nestedGraph.getLayerlessNodes()){
-    			for (LEdge edge : node.getOutgoingEdges()){
-    				for (KVector bendpoint : edge.getBendPoints()){
-						if (bendpoint.y > artifactContainerSize.y + artifactContainerPos.y) bendpoint.y += moveY;
-					}
-				}    			
-    			for (LEdge edge : node.getIncomingEdges()){
-    				for (KVector bendpoint : edge.getBendPoints()){
-						if (bendpoint.y > artifactContainerPos.y + artifactContainerSize.y
-						&& bendpoint.y < artifactContainerPos.y + newSize.y) bendpoint.y -= moveY;
-					}
-				}
-    		}
+		// The artifact is placed in the moved graph, so compare it with the moved container
+		double containerTop = artifactContainer.getPosition().y;
+		double containerBottom = containerTop + artifactContainerSize.y;
+		double movedTop = offsets.move(containerTop);
+		double movedBottom = offsets.move(containerBottom);
+		// If artifact is placed below the current container, the container needs more space at the bottom
+		if (artifactPos.y + artifactSize.y > movedBottom){
+			double moveY = artifactPos.y + artifactSize.y + containerPaddingTopBottom - movedBottom;
+			growth.below += moveY;
+			// Containers starting at the bottom of the container are moved as well
+			offsets.insert(containerBottom, moveY, true);
+			index.shift(movedBottom, moveY, true);
 		}
-		else if (artifactPos.y < artifactContainerPos.y){ // More space on the top needed -> move down all elements
+		else if (artifactPos.y < movedTop){ // More space on the top needed -> move down all elements
 			double moveY = artifactSize.y + containerPaddingTopBottom;
-			double startPointY = artifactContainer.getPosition().y;
-			newSize.y = artifactContainerSize.y + moveY;
-			moveContainers(startPointY, moveY);
-			
-			// Move nodes, bendpoints and ports
-			LGraph nestedGraph;
-			for (LNode container : bpmnContainers){
-				if (container.getPosition().y >= startPointY){
-					nestedGraph = container.getProperty(InternalProperties.NESTED_LGRAPH);
-		    		for (LNode node : nestedGraph.getLayerlessNodes()){
-						node.getPosition().y += moveY;
-		    			for (LEdge edge : node.getOutgoingEdges()){
-		    				for (KVector bendpoint : edge.getBendPoints()){
-								if (bendpoint.y > newSize.y) bendpoint.y += moveY;
-							}
-						}
-		    		}
-				}
-			}    
-			nestedGraph = artifactContainer.getProperty(InternalProperties.NESTED_LGRAPH);
-    		for (LNode node : nestedGraph.getLayerlessNodes()){
-    			for (LEdge edge : node.getIncomingEdges()){
-    				for (KVector bendpoint : edge.getBendPoints()){
-						if (bendpoint.y > startPointY && bendpoint.y < startPointY + moveY) 
-							bendpoint.y += moveY;
-					}
-				}
-    		}
+			growth.above += moveY;
+			// The container itself is not moved, only its content
+			offsets.insert(containerTop, moveY, false);
+			index.shift(movedTop, moveY, false);
 		}
 		else if (artifactPos.x + artifactSize.x > artifactContainerSize.x)
-			newSize.x = artifactPos.x + artifactSize.x + containerPaddingLeftRight;
+			growth.width = Math.max(growth.width, artifactPos.x + artifactSize.x + containerPaddingLeftRight);
+	}
+	
+	/**
+	 * Resize the containers for the space needed by the artifacts.
+	 * 
+	 * The space needed below and on top of the containers has been inserted into the offset table.
+	 * Now all containers, nodes and bendpoints are moved in one sweep,
+	 * instead of moving the rest of the graph for each artifact.
+	 * The artifacts were placed in the moved graph. Space inserted above them later on 
+	 * has moved them within the layer node index, so they are moved as far as the index says.
+	 */
+	private void resizeContainers(List<BpmnArtifact> artifacts){
+		if (containers == null || containerGrowths.isEmpty()) return;
 		
-		// Resize parent containers
-		resizeParentContainer(artifactNode,new KVector(newSize.x - artifactContainerSize.x, newSize.y - artifactContainerSize.y)); 
+		if (!offsets.isEmpty()){
+			Set<LNode> artifactNodes = new HashSet<LNode>();
+			for (BpmnArtifact artifact : artifacts){
+				artifactNodes.add(artifact.node);
+			}
+			Map<LNode, Double> artifactOffsets = new HashMap<LNode, Double>();
+			for (int i = 0; i < lGraph.getLayers().size(); i++){
+				List<LNode> layerNodes = index.getNodes(i);
+				for (int j = 0; j < layerNodes.size(); j++){
+					LNode node = layerNodes.get(j);
+					if (artifactNodes.contains(node)) 
+						artifactOffsets.put(node, index.getTop(i, j) - node.getPosition().y);
+				}
+			}
+			
+			// Move nodes and bendpoints
+			for (LNode container : containers){
+				LGraph nestedGraph = container.getProperty(InternalProperties.NESTED_LGRAPH);
+	    		for (LNode node : nestedGraph.getLayerlessNodes()){
+	    			Double artifactOffset = artifactOffsets.get(node);
+	    			for (LEdge edge : node.getOutgoingEdges()){
+	    				// Bendpoints of artifact edges are moved with the artifact
+	    				Double edgeOffset = artifactOffset != null ? artifactOffset : artifactOffsets.get(edge.getTarget().getNode());
+	    				for (KVector bendpoint : edge.getBendPoints()){
+	    					bendpoint.y += edgeOffset != null ? edgeOffset : offsets.get(bendpoint.y);
+	    				}
+	    			}
+	    			node.getPosition().y += artifactOffset != null ? artifactOffset : offsets.get(node.getPosition().y);
+	    		}
+			}
+			
+			// Move containers
+			for (LNode container : containers){
+				container.getPosition().y += offsets.get(container.getPosition().y);
+			}
+			ContainerOffsets.get(lGraph).invalidate();
+		}
 		
-		// Set new container size
-		artifactContainerSize = newSize;
+		// Resize containers and their parent containers
+		for (Entry<LNode, ContainerGrowth> entry : containerGrowths.entrySet()){
+			LNode container = entry.getKey();
+			ContainerGrowth growth = entry.getValue();
+			double width = Math.max(growth.width - container.getSize().x, 0);
+			resizeContainer(container, new KVector(width, growth.below + growth.above));
+		}
 	}
 	
-	private void resizeParentContainer(LNode node,KVector vector){
-		LNode parentNode = node.getProperty(InternalProperties.PARENT_LNODE);
-		if (parentNode!= null){
-			parentNode.getSize().add(vector);
-			resizeParentContainer(parentNode, vector);
-		}
+	private void resizeContainer(LNode container, KVector vector){
+		container.getSize().add(vector);
+		LNode parentNode = container.getProperty(InternalProperties.PARENT_LNODE);
+		if (parentNode != null) resizeContainer(parentNode, vector);
 	}
 	
 	/**
@@ -811,7 +986,7 @@ public final class BpmnArtifactPostProcessor implements ILayoutProcessor {
 			}
 			
 			// min / max y-coordinate
-			posMinMax.addY(oppNode.getPosition().y + oppNode.getSize().y / 2);
+			posMinMax.addY(offsets.move(oppNode.getPosition().y) + oppNode.getSize().y / 2);
 			
 		}
 
@@ -830,4 +1005,4 @@ public final class BpmnArtifactPostProcessor implements ILayoutProcessor {
 		return layerMinMax;
 	}
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,456 @@
+/*
+ * BPMN Auto-Layouter
+ *
+ * Copyright 2015 by Marvin Ludwig - http://www.marvin-ludwig.de
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+
+package eu.ml82.bpmn_layouter.core.processors.artifacts;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import de.cau.cs.kieler.klay.layered.graph.LGraph;
+import de.cau.cs.kieler.klay.layered.graph.LNode;
+import de.cau.cs.kieler.klay.layered.graph.Layer;
+
+/**
+ * Index of the nodes of each layer for the collision and crossing checks of the artifact placement
+ * and to find free slots for artifacts within a layer.
+ *
+ * The nodes of a layer are sorted by their top y position. A segment tree over the tops and
+ * bottoms of a layer's nodes gives the first node whose top or bottom is beyond a y position
+ * and the maximum bottom of a range of nodes, so all queries take logarithmic time,
+ * no matter how high the nodes are.
+ * The layers are found by their right border, i.e. the maximum x position of their nodes.
+ * A wide node may reach beyond the right border of the next layer, so the borders are
+ * searched as running maximum in layer order.
+ *
+ * The index keeps its own copy of the node intervals, taken when it is created.
+ * Placed artifacts are added, so following artifacts don't collide with them.
+ * Space inserted into the graph for an artifact moves the nodes below it within the index,
+ * while the graph itself is only moved after all artifacts are placed.
+ */
+final class LayerNodeIndex {
+
+	private static final Comparator<LNode> BY_TOP = new Comparator<LNode>() {
+		public int compare(LNode node1, LNode node2) {
+			return Double.compare(node1.getPosition().y, node2.getPosition().y);
+		}
+	};
+
+	private final LayerIntervals[] layerIntervals;
+
+	// Non-empty layers in layer order and the maximum right border up to each of them.
+	// The maxima never decrease, so the binary search finds the same layer as a scan
+	// over the layers in order.
+	private final int[] layerIndices;
+	private final double[] layerRights;
+
+	LayerNodeIndex(LGraph lGraph) {
+		List<Layer> layers = lGraph.getLayers();
+		layerIntervals = new LayerIntervals[layers.size()];
+		int[] indices = new int[layers.size()];
+		double[] rights = new double[layers.size()];
+		int count = 0;
+		for (int l = 0; l < layers.size(); l++){
+			Layer layer = layers.get(l);
+			List<LNode> nodes = new ArrayList<LNode>(layer.getNodes());
+			Collections.sort(nodes, BY_TOP);
+			Double right = null;
+			for (LNode node : nodes){
+				double nodeRight = node.getPosition().x + node.getSize().x;
+				if (right == null || nodeRight > right) right = nodeRight;
+			}
+			layerIntervals[l] = new LayerIntervals(nodes);
+			if (right != null){
+				indices[count] = l;
+				rights[count] = count > 0 ? Math.max(rights[count - 1], right) : right;
+				count++;
+			}
+		}
+		layerIndices = new int[count];
+		layerRights = new double[count];
+		System.arraycopy(indices, 0, layerIndices, 0, count);
+		System.arraycopy(rights, 0, layerRights, 0, count);
+	}
+
+	/**
+	 * Must only be called if at least one layer has nodes.
+	 *
+	 * @return index of the first non-empty layer whose right border is right of x
+	 *         or the last non-empty layer if there is none
+	 */
+	int getLayerAt(double x) {
+		int low = 0, high = layerRights.length;
+		while (low < high){
+			int mid = (low + high) >>> 1;
+			if (layerRights[mid] > x) high = mid;
+			else low = mid + 1;
+		}
+		return layerIndices[Math.min(low, layerRights.length - 1)];
+	}
+
+	/**
+	 * @return nodes of a layer, ordered by their y position. Must not be changed.
+	 */
+	List<LNode> getNodes(int layerIndex) {
+		return layerIntervals[layerIndex].nodes;
+	}
+
+	/**
+	 * @return top y position of a node of the layer, as stored in the index
+	 */
+	double getTop(int layerIndex, int i) {
+		return layerIntervals[layerIndex].getTop(i);
+	}
+
+	/**
+	 * @return bottom y position of a node of the layer, as stored in the index
+	 */
+	double getBottom(int layerIndex, int i) {
+		return layerIntervals[layerIndex].getBottom(i);
+	}
+
+	/**
+	 * @return position of a node of the layer with top < y < bottom or -1,
+	 *         the upmost one if there are several
+	 */
+	int getNodeAt(int layerIndex, double y, LNode ignore1, LNode ignore2) {
+		LayerIntervals intervals = layerIntervals[layerIndex];
+		int end = intervals.firstTop(y, true);
+		for (int i = intervals.firstBottomAbove(0, end, y); i >= 0; i = intervals.firstBottomAbove(i + 1, end, y)){
+			LNode node = intervals.nodes.get(i);
+			if (node != ignore1 && node != ignore2) return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return position of the upmost node of the layer with y1 < top < y2 or -1
+	 */
+	int getFirstTopBetween(int layerIndex, double y1, double y2) {
+		LayerIntervals intervals = layerIntervals[layerIndex];
+		int i = intervals.firstTop(y1, false);
+		if (i < intervals.nodes.size() && intervals.getTop(i) < y2) return i;
+		return -1;
+	}
+
+	/**
+	 * @return position of the lowest node of the layer with y1 < bottom < y2 or -1,
+	 *         the upmost one if several nodes end at the same position
+	 */
+	int getLastBottomBetween(int layerIndex, double y1, double y2) {
+		LayerIntervals intervals = layerIntervals[layerIndex];
+		Integer[] byBottom = intervals.getByBottom();
+		// last node with bottom < y2
+		int low = 0, high = byBottom.length;
+		while (low < high){
+			int mid = (low + high) >>> 1;
+			if (intervals.getBottom(byBottom[mid]) < y2) low = mid + 1;
+			else high = mid;
+		}
+		if (low == 0 || intervals.getBottom(byBottom[low - 1]) <= y1) return -1;
+		return byBottom[low - 1];
+	}
+
+	/**
+	 * @return whether a node of the layer overlaps the open interval (top, bottom)
+	 */
+	boolean overlaps(int layerIndex, double top, double bottom) {
+		LayerIntervals intervals = layerIntervals[layerIndex];
+		int end = intervals.firstTop(bottom, true);
+		return end > 0 && intervals.maxBottom(0, end) > top;
+	}
+
+	/**
+	 * Find the nearest free slot of the layer that ends at or above a y position.
+	 *
+	 * @param gap space between the slot and the nodes above and below it
+	 * @return top y position of the slot
+	 */
+	double getFreeSlotAbove(int layerIndex, double bottom, double height, double gap) {
+		LayerIntervals intervals = layerIntervals[layerIndex];
+		while (true){
+			double top = bottom - height;
+			// Move the slot above the upmost node that overlaps it
+			int block = intervals.firstBottomAbove(0, intervals.firstTop(bottom + gap, true), top - gap);
+			if (block < 0) return top;
+			bottom = intervals.getTop(block) - gap;
+		}
+	}
+
+	/**
+	 * Find the nearest free slot of the layer that starts at or below a y position.
+	 *
+	 * @param gap space between the slot and the nodes above and below it
+	 * @return top y position of the slot
+	 */
+	double getFreeSlotBelow(int layerIndex, double top, double height, double gap) {
+		LayerIntervals intervals = layerIntervals[layerIndex];
+		while (true){
+			double bottom = top + height;
+			// Move the slot below the lowest node that overlaps it
+			int end = intervals.firstTop(bottom + gap, true);
+			if (end == 0) return top;
+			double blockBottom = intervals.maxBottom(0, end);
+			if (blockBottom <= top - gap) return top;
+			top = blockBottom + gap;
+		}
+	}
+
+	/**
+	 * Build the lookup structures of all layers, which are otherwise built on the first query.
+	 * Afterwards the index may be queried concurrently, as long as no node is added.
+	 */
+	void prepare() {
+		for (LayerIntervals intervals : layerIntervals){
+			intervals.build();
+			intervals.getByBottom();
+		}
+	}
+
+	/**
+	 * Move the nodes of all layers that start below y (or at y if inclusive) down
+	 */
+	void shift(double y, double amount, boolean inclusive) {
+		for (LayerIntervals intervals : layerIntervals){
+			intervals.shift(y, amount, inclusive);
+		}
+	}
+
+	/**
+	 * Add a placed node to a layer
+	 *
+	 * @return position of the node within the layer
+	 */
+	int add(int layerIndex, LNode node) {
+		return layerIntervals[layerIndex].add(node);
+	}
+
+	/**
+	 * The nodes of a layer with their intervals, ordered by top.
+	 *
+	 * The segment tree holds the maximum top and bottom of each range of nodes.
+	 * The tops are sorted, so the maximum top of a range is the top of its last node.
+	 * The tree is rebuilt on the first query after a node was added, or by prepare().
+	 * Shifting the nodes below a y position adds the amount to the covering subtrees only.
+	 * The amounts are pushed down to the leaves on the next query.
+	 */
+	private static final class LayerIntervals {
+
+		final List<LNode> nodes;
+		private double[] tops;
+		private double[] bottoms;
+
+		// Segment tree, node i has the children 2i and 2i+1, the leaves start at leafCount.
+		// Leaves without node have the top +infinity and the bottom -infinity.
+		private int leafCount;
+		private double[] maxTops;
+		private double[] maxBottoms;
+		// Amount shifted per inner tree node, not yet added to the tree nodes below it
+		private double[] shifts;
+		private boolean shifted;
+
+		// Indices of the nodes ordered by bottom, only built for getLastBottomBetween()
+		private Integer[] byBottom;
+
+		LayerIntervals(List<LNode> nodes) {
+			this.nodes = nodes;
+			tops = new double[nodes.size()];
+			bottoms = new double[nodes.size()];
+			for (int i = 0; i < nodes.size(); i++){
+				LNode node = nodes.get(i);
+				tops[i] = node.getPosition().y;
+				bottoms[i] = node.getPosition().y + node.getSize().y;
+			}
+		}
+
+		double getTop(int i) {
+			build();
+			return tops[i];
+		}
+
+		double getBottom(int i) {
+			build();
+			return bottoms[i];
+		}
+
+		/**
+		 * @param atY whether a node with top == y counts
+		 * @return index of the first node with top > y (or >= y), the number of nodes if there is none
+		 */
+		int firstTop(double y, boolean atY) {
+			buildTree();
+			int treeNode = 1;
+			if (!beyond(maxTops[treeNode], y, atY)) return nodes.size();
+			// the amount shifted by the tree nodes above the current one
+			double shift = 0;
+			while (treeNode < leafCount){
+				shift += shifts[treeNode];
+				treeNode = 2 * treeNode;
+				if (!beyond(maxTops[treeNode] + shift, y, atY)) treeNode++;
+			}
+			return Math.min(treeNode - leafCount, nodes.size());
+		}
+
+		/**
+		 * @return index of the first node in [from, to) with bottom > y or -1
+		 */
+		int firstBottomAbove(int from, int to, double y) {
+			if (from >= to) return -1;
+			build();
+			return firstBottomAbove(1, 0, leafCount, from, to, y);
+		}
+
+		private int firstBottomAbove(int treeNode, int nodeFrom, int nodeTo, int from, int to, double y) {
+			if (nodeTo <= from || to <= nodeFrom || maxBottoms[treeNode] <= y) return -1;
+			if (treeNode >= leafCount) return treeNode - leafCount;
+			int mid = (nodeFrom + nodeTo) >>> 1;
+			int i = firstBottomAbove(2 * treeNode, nodeFrom, mid, from, to, y);
+			if (i >= 0) return i;
+			return firstBottomAbove(2 * treeNode + 1, mid, nodeTo, from, to, y);
+		}
+
+		/**
+		 * @return the maximum bottom of the nodes in [from, to), to > from
+		 */
+		double maxBottom(int from, int to) {
+			build();
+			double max = Double.NEGATIVE_INFINITY;
+			for (int low = from + leafCount, high = to + leafCount; low < high; low >>>= 1, high >>>= 1){
+				if ((low & 1) == 1) max = Math.max(max, maxBottoms[low++]);
+				if ((high & 1) == 1) max = Math.max(max, maxBottoms[--high]);
+			}
+			return max;
+		}
+
+		/**
+		 * @return the node indices ordered by bottom, nodes with the same bottom in reverse top order
+		 */
+		Integer[] getByBottom() {
+			build();
+			if (byBottom == null){
+				byBottom = new Integer[nodes.size()];
+				for (int i = 0; i < byBottom.length; i++) byBottom[i] = i;
+				Arrays.sort(byBottom, new Comparator<Integer>() {
+					public int compare(Integer i1, Integer i2) {
+						int result = Double.compare(bottoms[i1], bottoms[i2]);
+						return result != 0 ? result : i2.compareTo(i1);
+					}
+				});
+			}
+			return byBottom;
+		}
+
+		/**
+		 * Insert a node behind the nodes with the same or a lower top
+		 *
+		 * @return index of the node
+		 */
+		int add(LNode node) {
+			build();
+			double top = node.getPosition().y;
+			int low = 0, high = tops.length;
+			while (low < high){
+				int mid = (low + high) >>> 1;
+				if (tops[mid] > top) high = mid;
+				else low = mid + 1;
+			}
+			int i = low;
+			nodes.add(i, node);
+			tops = insert(tops, i, top);
+			bottoms = insert(bottoms, i, top + node.getSize().y);
+			maxTops = null;
+			byBottom = null;
+			return i;
+		}
+
+		private static double[] insert(double[] values, int i, double value) {
+			double[] result = new double[values.length + 1];
+			System.arraycopy(values, 0, result, 0, i);
+			result[i] = value;
+			System.arraycopy(values, i, result, i + 1, values.length - i);
+			return result;
+		}
+
+		/**
+		 * Move the nodes with top > y (or >= y if atY) down
+		 */
+		void shift(double y, double amount, boolean atY) {
+			int from = firstTop(y, atY);
+			if (from >= nodes.size()) return;
+			int low = from + leafCount, high = 2 * leafCount;
+			int first = low, last = high - 1;
+			for (; low < high; low >>>= 1, high >>>= 1){
+				if ((low & 1) == 1) shift(low++, amount);
+				if ((high & 1) == 1) shift(--high, amount);
+			}
+			update(first);
+			update(last);
+			shifted = true;
+			byBottom = null;
+		}
+
+		private void shift(int treeNode, double amount) {
+			maxTops[treeNode] += amount;
+			maxBottoms[treeNode] += amount;
+			if (treeNode < leafCount) shifts[treeNode] += amount;
+		}
+
+		// Recalculate the maxima above a tree node
+		private void update(int treeNode) {
+			for (int i = treeNode >>> 1; i > 0; i >>>= 1){
+				maxTops[i] = Math.max(maxTops[2 * i], maxTops[2 * i + 1]) + shifts[i];
+				maxBottoms[i] = Math.max(maxBottoms[2 * i], maxBottoms[2 * i + 1]) + shifts[i];
+			}
+		}
+
+		/**
+		 * Build the tree and push the shifted amounts down to the leaves and the node intervals
+		 */
+		void build() {
+			buildTree();
+			if (!shifted) return;
+			for (int i = 1; i < leafCount; i++){
+				if (shifts[i] == 0) continue;
+				shift(2 * i, shifts[i]);
+				shift(2 * i + 1, shifts[i]);
+				shifts[i] = 0;
+			}
+			for (int i = 0; i < nodes.size(); i++){
+				tops[i] = maxTops[leafCount + i];
+				bottoms[i] = maxBottoms[leafCount + i];
+			}
+			shifted = false;
+		}
+
+		private void buildTree() {
+			if (maxTops != null) return;
+			leafCount = 1;
+			while (leafCount < nodes.size()) leafCount *= 2;
+			maxTops = new double[2 * leafCount];
+			maxBottoms = new double[2 * leafCount];
+			shifts = new double[leafCount];
+			for (int i = 0; i < leafCount; i++){
+				maxTops[leafCount + i] = i < nodes.size() ? tops[i] : Double.POSITIVE_INFINITY;
+				maxBottoms[leafCount + i] = i < nodes.size() ? bottoms[i] : Double.NEGATIVE_INFINITY;
+			}
+			for (int i = leafCount - 1; i > 0; i--){
+				maxTops[i] = Math.max(maxTops[2 * i], maxTops[2 * i + 1]);
+				maxBottoms[i] = Math.max(maxBottoms[2 * i], maxBottoms[2 * i + 1]);
+			}
+		}
+
+		private static boolean beyond(double value, double y, boolean atY) {
+			return atY ? value >= y : value > y;
+		}
+
+	}
+
+}
@@ -0,0 +1,103 @@
+/*
+ * BPMN Auto-Layouter
+ *
+ * Copyright 2015 by Marvin Ludwig - http://www.marvin-ludwig.de
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+
+package eu.ml82.bpmn_layouter.core.processors.artifacts;
+
+import java.util.Arrays;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+/**
+ * Vertical space inserted into a graph at certain y positions.
+ *
+ * The offset of any y position is the sum of the insertions above it, found by binary search.
+ * An inclusive insertion also moves what starts exactly at its y position.
+ * The y positions are those of the graph before any insertion. Insertions and queries
+ * may alternate, the sums are rebuilt on the first query after an insertion.
+ */
+final class OffsetTable {
+
+	private final TreeMap<Double,Double> exclusive = new TreeMap<Double,Double>();
+	private final TreeMap<Double,Double> inclusive = new TreeMap<Double,Double>();
+
+	// Sorted positions and prefix sums of the amounts, built on the first query
+	private double[] exclusiveYs, exclusiveSums, inclusiveYs, inclusiveSums;
+
+	/**
+	 * Insert space below y
+	 *
+	 * @param inclusive whether elements starting at y are moved as well
+	 */
+	void insert(double y, double amount, boolean inclusive) {
+		TreeMap<Double,Double> insertions = inclusive ? this.inclusive : exclusive;
+		Double previous = insertions.get(y);
+		insertions.put(y, previous != null ? previous + amount : amount);
+		exclusiveYs = null;
+	}
+
+	boolean isEmpty() {
+		return exclusive.isEmpty() && inclusive.isEmpty();
+	}
+
+	/**
+	 * @return offset of an element starting at y
+	 */
+	double get(double y) {
+		build();
+		return sum(exclusiveYs, exclusiveSums, y, false) + sum(inclusiveYs, inclusiveSums, y, true);
+	}
+
+	/**
+	 * @return y position of an element starting at y, moved by the insertions
+	 */
+	double move(double y) {
+		return y + get(y);
+	}
+
+	/**
+	 * @return offset of an element ending at y, i.e. without the insertions at y
+	 */
+	double getBefore(double y) {
+		build();
+		return sum(exclusiveYs, exclusiveSums, y, false) + sum(inclusiveYs, inclusiveSums, y, false);
+	}
+
+	private void build() {
+		if (exclusiveYs != null) return;
+		exclusiveYs = new double[exclusive.size()];
+		exclusiveSums = new double[exclusive.size()];
+		fill(exclusive, exclusiveYs, exclusiveSums);
+		inclusiveYs = new double[inclusive.size()];
+		inclusiveSums = new double[inclusive.size()];
+		fill(inclusive, inclusiveYs, inclusiveSums);
+	}
+
+	private static void fill(TreeMap<Double,Double> insertions, double[] ys, double[] sums) {
+		int i = 0;
+		double sum = 0;
+		for (Entry<Double,Double> insertion : insertions.entrySet()){
+			sum += insertion.getValue();
+			ys[i] = insertion.getKey();
+			sums[i] = sum;
+			i++;
+		}
+	}
+
+	/**
+	 * @return sum of the amounts of the insertions above y (or at y if atY)
+	 */
+	private static double sum(double[] ys, double[] sums, double y, boolean atY) {
+		int i = Arrays.binarySearch(ys, y);
+		int count;
+		if (i >= 0) count = atY ? i + 1 : i;
+		else count = -i - 1;
+		return count > 0 ? sums[count - 1] : 0;
+	}
+
+}
@@ -32,11 +32,13 @@ public class SingleEdgeArtifactProcessor {
 	
 	/**
 	 * Place artifact that have only one incoming or one outgoing edge.
+	 * Only scores the positions, the graph is not changed.
+	 * @param index nodes of the layers
+	 * @param offsets space inserted for the artifacts placed before
 	 * @param positions 
 	 */
-	public static void place(BpmnArtifact artifact, LGraph graph, Map<KVector, Integer> positions){
+	public static void place(BpmnArtifact artifact, LGraph graph, LayerNodeIndex index, OffsetTable offsets, Map<KVector, Integer> positions){
 		int layerIndex;
-		Layer layer = null;
 		LNode artifactNode = artifact.node;
 		KVector artifactSize = artifactNode.getSize();
 		LNode oppNode;
@@ -57,37 +59,31 @@ public class SingleEdgeArtifactProcessor {
 			portSide = PortSide.EAST;
 		}
 		layerIndex = oppNode.getLayer().getIndex();
-		KVector oppNodePos = oppNode.getPosition();
+		KVector oppNodePos = new KVector(oppNode.getPosition().x, offsets.move(oppNode.getPosition().y));
 		KVector oppNodeSize = oppNode.getSize();
 		
-		// Set artifact container
+		// Artifact container
 		LNode artifactContainer = oppNode.getProperty(InternalProperties.PARENT_LNODE);
-		if (artifactContainer != null) artifactNode.setProperty(InternalProperties.PARENT_LNODE, artifactContainer);
+		if (artifactContainer == null) artifactContainer = artifactNode.getProperty(InternalProperties.PARENT_LNODE);
 		
 		KVector newPos = new KVector();
-		KVector artifactPos = artifactNode.getPosition();
 		boolean placed = false;
 		newPos.x = oppNodePos.x + oppNodeSize.x / 2 - artifactSize.x / 2;
-		layer = graph.getLayers().get(layerIndex);
 		int penalty = 0;
 		// North
 		newPos.y = oppNodePos.y - artifactSize.y - spacing / 2;
-		if (collision(newPos, artifact, layer) == false) {
+		if (collision(newPos, artifact, index, layerIndex) == false) {
 			penalty = 0;
-			artifactPos.x = newPos.x;
-			artifactPos.y = newPos.y;
-			if (BpmnArtifactPostProcessor.inContainer(artifact) == false) penalty++;
-			positions.put(newPos,penalty);
+			if (BpmnArtifactPostProcessor.inContainer(artifactContainer, newPos.y, artifactSize.y, offsets) == false) penalty++;
+			positions.put(new KVector(newPos),penalty);
 			placed = true;
 		}
 		// South
 		newPos.y = oppNodePos.y + oppNodeSize.y + spacing / 2;
-		if (collision(newPos, artifact, layer) == false) {
+		if (collision(newPos, artifact, index, layerIndex) == false) {
 			penalty = 0;
-			artifactPos.x = newPos.x;
-			artifactPos.y = newPos.y;
-			if (BpmnArtifactPostProcessor.inContainer(artifact) == false) penalty++;
-			positions.put(newPos,penalty);
+			if (BpmnArtifactPostProcessor.inContainer(artifactContainer, newPos.y, artifactSize.y, offsets) == false) penalty++;
+			positions.put(new KVector(newPos),penalty);
 			placed = true;
 		}
 		
@@ -97,42 +93,42 @@ public class SingleEdgeArtifactProcessor {
 			if (edgeType == EdgeType.UNDIRECTED || portSide == PortSide.EAST){
 				newPos.x = oppNodePos.x + oppNodeSize.x + spacing / 2;
 				if (layerIndex+1 < layers.size()) {
-					layer = layers.get(layerIndex+1);
-					placed = !collision(newPos, artifact, layer);
+					placed = !collision(newPos, artifact, index, layerIndex+1);
 				}
 				else placed = true;  // Eastern end of the graph
-				if (placed == true) positions.put(newPos,0);
+				if (placed == true) positions.put(new KVector(newPos),0);
 			}
 			
 			// West
 			if (edgeType == EdgeType.UNDIRECTED || portSide == PortSide.WEST){
 				newPos.x = oppNodePos.x - artifactSize.x - spacing / 2;
 				if (layerIndex > 0) {
-					layer = layers.get(layerIndex-1);
-					placed = !collision(newPos, artifact, layer);
+					placed = !collision(newPos, artifact, index, layerIndex-1);
 				}
 				else placed = true;  // Eastern end of the graph
-				if (placed == true) positions.put(newPos,0);
+				if (placed == true) positions.put(new KVector(newPos),0);
 			}
-		}		
+		}
+		
+		// No free position next to the opposite node:
+		// Use the nearest free slot above or below it
+		if (positions.isEmpty()){
+			double gap = spacing / 2;
+			newPos.x = oppNodePos.x + oppNodeSize.x / 2 - artifactSize.x / 2;
+			double above = index.getFreeSlotAbove(layerIndex, oppNodePos.y - gap, artifactSize.y, gap);
+			double below = index.getFreeSlotBelow(layerIndex, oppNodePos.y + oppNodeSize.y + gap, artifactSize.y, gap);
+			if (oppNodePos.y - (above + artifactSize.y) <= below - (oppNodePos.y + oppNodeSize.y)) newPos.y = above;
+			else newPos.y = below;
+			penalty = 1;
+			if (BpmnArtifactPostProcessor.inContainer(artifactContainer, newPos.y, artifactSize.y, offsets) == false) penalty++;
+			positions.put(new KVector(newPos),penalty);
+		}
 	}
 	
 	/**
 	 *  Check collisions with nodes in certain layer
 	 */
-	private static boolean collision(KVector newPos, BpmnArtifact artifact, Layer layer){
-		boolean collision = false;
-		double artifactTop = newPos.y;
-		double artifactBottom = newPos.y + artifact.node.getSize().y;
-		for (LNode node : layer.getNodes()){
-			double nodeTop = node.getPosition().y;
-			double nodeBottom = node.getPosition().y + node.getSize().y;
-			if ((artifactTop > nodeTop && artifactTop < nodeBottom)
-				|| (artifactBottom > nodeTop && artifactBottom < nodeBottom)){
-				collision = true;
-				break;
-			}
-		}
-		return collision;
+	private static boolean collision(KVector newPos, BpmnArtifact artifact, LayerNodeIndex index, int layerIndex){
+		return index.overlaps(layerIndex, newPos.y, newPos.y + artifact.node.getSize().y);
 	}
 }
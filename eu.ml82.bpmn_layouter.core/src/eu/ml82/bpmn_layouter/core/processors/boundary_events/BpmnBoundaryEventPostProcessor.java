@@ -9,13 +9,13 @@
 
 package eu.ml82.bpmn_layouter.core.processors.boundary_events;
 
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
 
 import de.cau.cs.kieler.core.alg.IKielerProgressMonitor;
 import de.cau.cs.kieler.core.math.KVector;
@@ -24,9 +24,7 @@ import de.cau.cs.kieler.klay.layered.graph.LEdge;
 import de.cau.cs.kieler.klay.layered.graph.LNode;
 import de.cau.cs.kieler.klay.layered.graph.LGraph;
 import de.cau.cs.kieler.klay.layered.graph.LPort;
-import de.cau.cs.kieler.klay.layered.graph.LShape;
 import eu.ml82.bpmn_layouter.core.properties.BpmnProperties;
-import eu.ml82.bpmn_layouter.core.utils.Maps;
 
 /**
  * Position boundary event and layout boundary event edges.
@@ -41,6 +39,19 @@ import eu.ml82.bpmn_layouter.core.utils.Maps;
  */
 
 public final class BpmnBoundaryEventPostProcessor implements ILayoutProcessor {
+	
+	/** Boundary event with the port of its outgoing edge and the y-pos of its successor */
+	private static class BoundaryEvent {
+		LNode node;
+		LPort port;
+		double successorY;
+	}
+	
+	private static final Comparator<BoundaryEvent> BY_SUCCESSOR_Y = new Comparator<BoundaryEvent>() {
+		public int compare(BoundaryEvent event1, BoundaryEvent event2) {
+			return Double.compare(event1.successorY, event2.successorY);
+		}
+	};
 
     /**
      * {@inheritDoc}
@@ -48,46 +59,43 @@ public final class BpmnBoundaryEventPostProcessor implements ILayoutProcessor {
     public void process(final LGraph lGraph, final IKielerProgressMonitor monitor) {
         monitor.begin("Boundary event processor", 1); 
         
-        Map<LNode, LNode> boundaryEventsAttachedTo = new HashMap<LNode, LNode>();
-        Set<LNode> attachedTos = new HashSet<LNode>();
+        // Group the boundary events by the "attached to" activity
+        Map<LNode, List<BoundaryEvent>> boundaryEventsAttachedTo = new LinkedHashMap<LNode, List<BoundaryEvent>>();
         
         List<LNode> boundaryEvents = lGraph.getProperty(BpmnProperties.BOUNDARY_EVENTS);
         
     	for (LNode node : boundaryEvents){
     		LNode attachedTo = node.getProperty(BpmnProperties.ATTACHED_TO);
     		if (attachedTo != null){
-    			boundaryEventsAttachedTo.put(node, attachedTo);
-    			attachedTos.add(attachedTo);        				
+    			List<BoundaryEvent> attachedEvents = boundaryEventsAttachedTo.get(attachedTo);
+    			if (attachedEvents == null){
+    				attachedEvents = new ArrayList<BoundaryEvent>(1);
+    				boundaryEventsAttachedTo.put(attachedTo, attachedEvents);
+    			}
+    			BoundaryEvent boundaryEvent = new BoundaryEvent();
+    			boundaryEvent.node = node;
+    			Iterator<LEdge> edgeIterator = node.getOutgoingEdges().iterator();
+    			// If the boundary event has an outgoing edge, we keep its port
+    			// and the y-pos of its successor
+    			if (edgeIterator.hasNext()){
+    				LEdge edge = edgeIterator.next();
+    				boundaryEvent.port = edge.getSource();
+    				boundaryEvent.successorY = edge.getTarget().getNode().getPosition().y;
+    			}
+    			attachedEvents.add(boundaryEvent);
         	}
     	}
         		    
-    	Map<LShape, Double> be = new HashMap<LShape, Double>();
-        for (LNode attachedTo : attachedTos){    		
-        	// get boundary events for the "attached to" activity
-        	be.clear();
-        	for (Entry<LNode, LNode> entry : boundaryEventsAttachedTo.entrySet()){
-        		LNode boundaryEvent = entry.getKey();
-        		if (entry.getValue().equals(attachedTo)){
-        			Iterator<LEdge> edgeIterator = boundaryEvent.getOutgoingEdges().iterator();
-        			// If the boundary event has an outgoing edge, we put the port to the list.
-        			// If not, we put the boundary event 
-    				if (edgeIterator.hasNext()){
-    					LEdge edge = edgeIterator.next();
-    					be.put(edge.getSource(), edge.getTarget().getNode().getPosition().y);
-    				}
-    				else be.put(boundaryEvent,0.0);
-        		}
-        	}
+        for (Map.Entry<LNode, List<BoundaryEvent>> entry : boundaryEventsAttachedTo.entrySet()){
+        	LNode attachedTo = entry.getKey();
+        	List<BoundaryEvent> attachedEvents = entry.getValue();
             // If there is more than one boundary event attached to an activity,
     		// we place the boundary events sorted by the y-pos of their successors
             // in order to avoid edge crossings
+        	if (attachedEvents.size() > 1) Collections.sort(attachedEvents, BY_SUCCESSOR_Y);
         	int offsetX = 0;
-    		for (LShape shape : Maps.getKeysSortedByValue(be)){
-    			LNode boundaryEvent;
-    			if (shape instanceof LPort){
-    				boundaryEvent = ((LPort) shape).getNode();    				
-    			}
-    			else boundaryEvent = (LNode) shape;
+    		for (BoundaryEvent attachedEvent : attachedEvents){
+    			LNode boundaryEvent = attachedEvent.node;
     			
     			KVector originalSize = boundaryEvent.getProperty(BpmnProperties.ORIGINAL_SIZE);
     			if (originalSize != null) {
@@ -111,10 +119,11 @@ public final class BpmnBoundaryEventPostProcessor implements ILayoutProcessor {
     											+ offsetY
     											- boundaryEvent.getSize().y / 2; 
     			// if boundary event has outgoing edge -> position port
-    			if (shape instanceof LPort){
-    				shape.getPosition().x = boundaryEvent.getSize().x / 2;
-    				if (bottomEvent) shape.getPosition().y = boundaryEvent.getSize().y;
-    				else shape.getPosition().y = 0;
+    			LPort port = attachedEvent.port;
+    			if (port != null){
+    				port.getPosition().x = boundaryEvent.getSize().x / 2;
+    				if (bottomEvent) port.getPosition().y = boundaryEvent.getSize().y;
+    				else port.getPosition().y = 0;
     			}
     			// edge routing
     			for (LEdge outEdge : boundaryEvent.getOutgoingEdges()){
@@ -2,6 +2,7 @@ package eu.ml82.bpmn_layouter.core.properties;
 
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 import de.cau.cs.kieler.core.math.KVector;
 import de.cau.cs.kieler.core.properties.IProperty;
@@ -10,6 +11,7 @@ import de.cau.cs.kieler.klay.layered.graph.LEdge;
 import de.cau.cs.kieler.klay.layered.graph.LLabel;
 import de.cau.cs.kieler.klay.layered.graph.LNode;
 import eu.ml82.bpmn_layouter.core.processors.artifacts.BpmnArtifact;
+import eu.ml82.bpmn_layouter.core.utils.ContainerOffsets;
 
 public class BpmnProperties {
 	
@@ -85,4 +87,31 @@ public class BpmnProperties {
     = new Property<Integer>(
         "eu.ml82.bpmn_layouter.core.properties.container_spacing");
 
+    // Layout the pools and lanes concurrently in part 2
+    // of the BPMN layout (crossing minimization and node placement)
+    // and score artifact positions concurrently
+    public static final IProperty<Boolean> PARALLEL_LAYOUT
+    = new Property<Boolean>(
+        "eu.ml82.bpmn_layouter.core.properties.parallel_layout", false);
+    
+    // Executor for the concurrent work of layout processors,
+    // set by KlayLayeredForBpmn during a layout with PARALLEL_LAYOUT
+    public static final IProperty<Executor> EXECUTOR
+    = new Property<Executor>(
+        "eu.ml82.bpmn_layouter.core.properties.executor");
+    
+    // Complete layout of a graph that was layouted before: keep the node order of
+    // the pools and lanes whose content and connections didn't change since the
+    // last layout. Their crossing minimization follows the previous positions
+    // instead of minimizing crossings again, so the result depends on the
+    // previous layout. Node placement and edge routing are done as usual.
+    public static final IProperty<Boolean> KEEP_UNCHANGED_ORDER
+    = new Property<Boolean>(
+        "eu.ml82.bpmn_layouter.core.properties.keep_unchanged_order", false);
+    
+    // Absolute offsets of the containers of a layout, see ContainerOffsets.get()
+    public static final IProperty<ContainerOffsets> CONTAINER_OFFSETS
+    = new Property<ContainerOffsets>(
+        "eu.ml82.bpmn_layouter.core.properties.container_offsets");
+
 }
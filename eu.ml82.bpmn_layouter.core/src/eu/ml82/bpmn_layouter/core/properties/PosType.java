@@ -4,6 +4,9 @@ package eu.ml82.bpmn_layouter.core.properties;
  * 
  * Whether the layouter returns relative or absolute node positions.
  * (Relative means relative to a container like a pool or lane.)
+ * 
+ * RELATIVE transforms the whole graph after the layout. To read only some 
+ * relative positions, layout with ABSOLUTE and use LayoutResult.
  *
  */
 
@@ -0,0 +1,95 @@
+package eu.ml82.bpmn_layouter.core.utils;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import de.cau.cs.kieler.core.math.KVector;
+import de.cau.cs.kieler.klay.layered.graph.LGraph;
+import de.cau.cs.kieler.klay.layered.graph.LNode;
+import de.cau.cs.kieler.klay.layered.properties.InternalProperties;
+import eu.ml82.bpmn_layouter.core.properties.BpmnProperties;
+
+/**
+ * Absolute offsets of the containers (pools, lanes, sub-processes) of a layout.
+ * The absolute position of a node is its position plus the offset of its container,
+ * so there is no need to walk up the PARENT_LNODE chain for every node (see Utils.calcAbsolutePos).
+ *
+ * The offset of a container is computed once from the offset of its parent.
+ * Processors that move containers must invalidate the table.
+ * Once the node positions are absolute (see BpmnContainerPreProcessor), all offsets are zero.
+ * The table of a graph layouted with PosType.ABSOLUTE stays absolute, see LayoutResult.
+ */
+public final class ContainerOffsets {
+
+	private static final KVector ZERO = new KVector();
+
+	private final Map<LNode,KVector> offsets = new HashMap<LNode,KVector>();
+	private boolean absolute = false;
+
+	/**
+	 * Get the offset table of a layout, it's created on first use
+	 */
+	public static ContainerOffsets get(LGraph graph){
+		ContainerOffsets containerOffsets = graph.getProperty(BpmnProperties.CONTAINER_OFFSETS);
+		if (containerOffsets == null){
+			containerOffsets = new ContainerOffsets();
+			graph.setProperty(BpmnProperties.CONTAINER_OFFSETS, containerOffsets);
+		}
+		return containerOffsets;
+	}
+
+	/**
+	 * @return absolute position of the origin of the positions within the container.
+	 *         Must not be changed.
+	 */
+	public KVector getOffset(LNode container){
+		if (container == null || absolute) return ZERO;
+		KVector offset = offsets.get(container);
+		if (offset == null){
+			offset = new KVector(container.getPosition());
+			offset.add(getOffset(container.getProperty(InternalProperties.PARENT_LNODE)));
+			offsets.put(container, offset);
+		}
+		return offset;
+	}
+
+	/**
+	 * @return absolute position of a container. Must not be changed.
+	 */
+	public KVector getOrigin(LNode container){
+		if (absolute) return container.getPosition();
+		return getOffset(container);
+	}
+
+	/**
+	 * Transform to absolute coordinates
+	 */
+	public KVector getAbsolutePos(LNode node){
+		KVector pos = new KVector(node.getPosition());
+		return pos.add(getOffset(node.getProperty(InternalProperties.PARENT_LNODE)));
+	}
+
+	public double getAbsoluteY(LNode node){
+		return node.getPosition().y + getOffset(node.getProperty(InternalProperties.PARENT_LNODE)).y;
+	}
+
+	/**
+	 * Containers were moved
+	 */
+	public void invalidate(){
+		offsets.clear();
+	}
+
+	public boolean isAbsolute(){
+		return absolute;
+	}
+
+	/**
+	 * The node positions were made absolute
+	 */
+	public void setAbsolute(){
+		offsets.clear();
+		absolute = true;
+	}
+
+}
@@ -0,0 +1,68 @@
+package eu.ml82.bpmn_layouter.core.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class Parallel {
+
+	/**
+	 * Create a fixed size thread pool with one thread per available processor.
+	 * The threads are daemon threads, so an unused pool won't keep the JVM alive.
+	 */
+	public static ExecutorService newExecutor(final String name){
+		final AtomicInteger threadCount = new AtomicInteger();
+		return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, name + "-" + threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Run all tasks and wait until they are finished.
+	 *
+	 * The calling thread doesn't just wait, it runs all tasks
+	 * that haven't been picked up by the executor yet. So calling this
+	 * from within a task of the same executor can't dead lock.
+	 *
+	 * The first exception thrown by a task is rethrown.
+	 */
+	public static void invokeAll(Executor executor, List<? extends Runnable> tasks){
+		List<FutureTask<Object>> futures = new ArrayList<FutureTask<Object>>(tasks.size());
+		for (Runnable task : tasks){
+			futures.add(new FutureTask<Object>(task, null));
+		}
+		// Leave the first task to the calling thread
+		for (int i = 1; i < futures.size(); i++){
+			executor.execute(futures.get(i));
+		}
+		// Run tasks that are not started yet,
+		// FutureTask.run() does nothing if a task is already running or done
+		for (FutureTask<Object> future : futures){
+			future.run();
+		}
+		for (FutureTask<Object> future : futures){
+			try {
+				future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+				if (cause instanceof Error) throw (Error) cause;
+				throw new RuntimeException(cause);
+			}
+		}
+	}
+
+}
@@ -130,7 +130,8 @@ public class Utils {
     }
     
     /** 
-     * Transform to absolute coordinates
+     * Transform to absolute coordinates.
+     * For many nodes of a layout use ContainerOffsets.
      */
     public static KVector calcAbsolutePos(LNode node){
     	if (node == null) return null;
@@ -164,4 +165,4 @@ public class Utils {
 			newPos.y = nodeHeight;
 	}
 
-}
\ No newline at end of file
+}
\ No newline at end of file
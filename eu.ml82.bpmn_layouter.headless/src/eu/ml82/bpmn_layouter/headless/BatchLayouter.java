@@ -0,0 +1,268 @@
+/*
+ * BPMN Auto-Layouter
+ *
+ * Copyright 2015 by Marvin Ludwig - http://www.marvin-ludwig.de
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+
+package eu.ml82.bpmn_layouter.headless;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import javax.xml.stream.XMLStreamException;
+
+import de.cau.cs.kieler.klay.layered.graph.LGraph;
+import eu.ml82.bpmn_layouter.core.KlayLayeredForBpmn;
+import eu.ml82.bpmn_layouter.core.properties.PosType;
+
+/**
+ * Command line tool that layouts BPMN files in batches.
+ *
+ * Usage: BatchLayouter [options] (file | directory | glob)...
+ * <pre>
+ *   -o dir        write the results to dir, keeping the paths relative to the input directory
+ *   --in-place    overwrite the input files
+ *   -t threads    number of worker threads (default: number of processors)
+ *   -q size       number of files waiting for a worker (default: 2 * threads)
+ * </pre>
+ * Directories are searched recursively for *.bpmn files. Globs may contain
+ * *, ? and ** (any number of directories), e.g. "models/&#42;&#42;/&#42;_v2.bpmn".
+ *
+ * The files are layouted by a fixed number of workers. When all workers are busy
+ * and the queue is full, the thread that searches the files layouts the next file itself,
+ * so at most threads + queue size + 1 diagrams are in memory.
+ * Each result is written to a temporary file that replaces the target when it is complete.
+ *
+ * One line per file is printed to stdout with the time of the layout itself, without
+ * reading and writing the file. Failures include the exception or error.
+ * The exit code is 1 if a file failed.
+ */
+public final class BatchLayouter {
+
+	private final File outputDir;
+	private final int threads;
+	private final int queueSize;
+	private final PrintStream report;
+
+	private final BpmnXmlImporter importer = new BpmnXmlImporter();
+	private final BpmnDiWriter writer = new BpmnDiWriter();
+	private final KlayLayeredForBpmn layouter = new KlayLayeredForBpmn();
+
+	private final AtomicInteger files = new AtomicInteger();
+	private final AtomicInteger failed = new AtomicInteger();
+	// Time spent in doLayout, without reading and writing the files
+	private final AtomicLong layoutTime = new AtomicLong();
+
+	/**
+	 * @param outputDir the directory for the results, null to overwrite the input files
+	 */
+	public BatchLayouter(File outputDir, int threads, int queueSize, PrintStream report) {
+		this.outputDir = outputDir;
+		this.threads = threads;
+		this.queueSize = queueSize;
+		this.report = report;
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		File outputDir = null;
+		boolean inPlace = false;
+		int threads = Runtime.getRuntime().availableProcessors();
+		int queueSize = -1;
+		List<String> inputs = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++){
+			if (args[i].equals("-o") && i + 1 < args.length) outputDir = new File(args[++i]);
+			else if (args[i].equals("--in-place")) inPlace = true;
+			else if (args[i].equals("-t") && i + 1 < args.length) threads = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-q") && i + 1 < args.length) queueSize = Integer.parseInt(args[++i]);
+			else inputs.add(args[i]);
+		}
+		if (inputs.isEmpty() || (outputDir == null) == !inPlace){
+			System.err.println("Usage: BatchLayouter (-o dir | --in-place) [-t threads] [-q queue size] (file | directory | glob)...");
+			System.exit(2);
+		}
+		if (queueSize < 0) queueSize = 2 * threads;
+
+		BatchLayouter batchLayouter = new BatchLayouter(outputDir, threads, queueSize, System.out);
+		boolean success = batchLayouter.run(inputs);
+		System.exit(success ? 0 : 1);
+	}
+
+	/**
+	 * Layout all files, return when all are done.
+	 *
+	 * @return false if a file failed
+	 */
+	public boolean run(List<String> inputs) throws InterruptedException {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(Math.max(1, queueSize)), new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+					public Thread newThread(Runnable runnable) {
+						return new Thread(runnable, "bpmn-batch-layout-" + count.incrementAndGet());
+					}
+				},
+				// Back-pressure: the file search layouts a file itself instead of queuing more
+				new ThreadPoolExecutor.CallerRunsPolicy());
+		long start = System.nanoTime();
+		try {
+			for (String input : inputs){
+				submit(executor, input);
+			}
+		} finally {
+			executor.shutdown();
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		}
+		long elapsed = (System.nanoTime() - start) / 1000000;
+		report.println(files.get() + " files, " + failed.get() + " failed, "
+				+ elapsed + " ms elapsed, " + layoutTime.get() / 1000000 + " ms layout time");
+		return failed.get() == 0;
+	}
+
+	private void submit(ThreadPoolExecutor executor, String input) {
+		File file = new File(input);
+		if (file.isFile()){
+			submit(executor, file, file.getAbsoluteFile().getParentFile(), file.getName());
+			return;
+		}
+		// Directories and globs: Split into a base directory and a pattern for the relative paths
+		String path = input.replace(File.separatorChar, '/');
+		String base = path;
+		String glob = "**/*.bpmn";
+		int wildcard = indexOfWildcard(path);
+		if (wildcard >= 0){
+			int separator = path.lastIndexOf('/', wildcard);
+			base = separator >= 0 ? path.substring(0, separator) : ".";
+			glob = path.substring(separator + 1);
+		}
+		File baseDir = new File(base.length() == 0 ? "/" : base);
+		if (!baseDir.isDirectory()){
+			failed.incrementAndGet();
+			report.println("FAILED " + input + ": no such file or directory");
+			return;
+		}
+		walk(executor, baseDir, baseDir, "", toPattern(glob));
+	}
+
+	private void walk(ThreadPoolExecutor executor, File baseDir, File dir, String relativeDir, Pattern pattern) {
+		File[] children = dir.listFiles();
+		if (children == null) return;
+		Arrays.sort(children);
+		for (File child : children){
+			String relativePath = relativeDir + child.getName();
+			if (child.isDirectory()) walk(executor, baseDir, child, relativePath + "/", pattern);
+			else if (pattern.matcher(relativePath).matches()) submit(executor, child, baseDir, relativePath);
+		}
+	}
+
+	private void submit(ThreadPoolExecutor executor, final File file, File baseDir, String relativePath) {
+		final File target = outputDir != null ? new File(outputDir, relativePath) : file;
+		files.incrementAndGet();
+		executor.execute(new Runnable() {
+			public void run() {
+				layout(file, target);
+			}
+		});
+	}
+
+	/**
+	 * Layout a single file and report the result
+	 */
+	void layout(File file, File target) {
+		try {
+			LGraph graph = importer.read(file);
+			long start = System.nanoTime();
+			layouter.doLayout(graph, PosType.ABSOLUTE);
+			long time = System.nanoTime() - start;
+			layoutTime.addAndGet(time);
+			write(graph, file, target);
+			report.println(String.format("%6d ms  %s", time / 1000000, file.getPath()));
+		} catch (Throwable e) {
+			// Errors too (e.g. StackOverflowError on deeply nested diagrams),
+			// otherwise the file would be counted neither as done nor as failed
+			failed.incrementAndGet();
+			StringBuilder message = new StringBuilder("FAILED ").append(file.getPath()).append(": ").append(e);
+			StackTraceElement[] stackTrace = e.getStackTrace();
+			for (int i = 0; i < Math.min(5, stackTrace.length); i++){
+				message.append("\n\tat ").append(stackTrace[i]);
+			}
+			report.println(message);
+		}
+	}
+
+	private void write(LGraph graph, File file, File target) throws IOException, XMLStreamException {
+		File dir = target.getAbsoluteFile().getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()){
+			throw new IOException("Can't create directory " + dir);
+		}
+		File temp = File.createTempFile(target.getName(), ".tmp", dir);
+		try {
+			InputStream in = new BufferedInputStream(new FileInputStream(file));
+			try {
+				OutputStream out = new BufferedOutputStream(new FileOutputStream(temp));
+				try {
+					writer.write(graph, in, out);
+				} finally {
+					out.close();
+				}
+			} finally {
+				in.close();
+			}
+			// renameTo doesn't replace existing files on all platforms
+			if (!temp.renameTo(target) && !(target.delete() && temp.renameTo(target))){
+				throw new IOException("Can't replace " + target);
+			}
+		} finally {
+			if (temp.exists()) temp.delete();
+		}
+	}
+
+	private static int indexOfWildcard(String path) {
+		for (int i = 0; i < path.length(); i++){
+			char c = path.charAt(i);
+			if (c == '*' || c == '?') return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Convert a glob to a regular expression for '/' separated relative paths
+	 */
+	static Pattern toPattern(String glob) {
+		StringBuilder regex = new StringBuilder();
+		for (int i = 0; i < glob.length(); i++){
+			char c = glob.charAt(i);
+			if (c == '*' && glob.startsWith("**/", i)){
+				regex.append("(.*/)?");
+				i += 2;
+			}
+			else if (c == '*' && glob.startsWith("**", i)){
+				regex.append(".*");
+				i++;
+			}
+			else if (c == '*') regex.append("[^/]*");
+			else if (c == '?') regex.append("[^/]");
+			else regex.append(Pattern.quote(String.valueOf(c)));
+		}
+		return Pattern.compile(regex.toString());
+	}
+
+}
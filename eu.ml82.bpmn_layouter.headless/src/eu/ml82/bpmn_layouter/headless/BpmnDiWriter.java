@@ -0,0 +1,336 @@
+/*
+ * BPMN Auto-Layouter
+ *
+ * Copyright 2015 by Marvin Ludwig - http://www.marvin-ludwig.de
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+
+package eu.ml82.bpmn_layouter.headless;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.StartDocument;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+import de.cau.cs.kieler.core.math.KVector;
+import de.cau.cs.kieler.klay.layered.graph.LEdge;
+import de.cau.cs.kieler.klay.layered.graph.LGraph;
+import de.cau.cs.kieler.klay.layered.graph.LNode;
+import de.cau.cs.kieler.klay.layered.properties.InternalProperties;
+import eu.ml82.bpmn_layouter.core.properties.BpmnElementType;
+import eu.ml82.bpmn_layouter.core.properties.BpmnProperties;
+
+/**
+ * Writes the layout of an LGraph into the DI section of a BPMN 2.0 XML file,
+ * without EMF or Eclipse.
+ *
+ * The original file is copied event by event through a StAX pipeline. Only
+ * the DI of elements in the graph is changed, everything else is written as it is:
+ * <ul>
+ * <li>The bounds of BPMNShapes and the waypoints of BPMNEdges are replaced.
+ *     Label bounds of these elements are removed, so modelers place the labels
+ *     next to their element.</li>
+ * <li>Elements without DI get a new BPMNShape or BPMNEdge at the end of the first
+ *     BPMNPlane. A file without DI gets a new BPMNDiagram.</li>
+ * </ul>
+ * Elements are correlated by BpmnProperties.ID, as set by BpmnXmlImporter.
+ * The graph must be layouted with PosType.ABSOLUTE.
+ *
+ * Apart from the graph, memory use doesn't depend on the file size.
+ * A writer can be used by several threads at the same time.
+ */
+public final class BpmnDiWriter {
+
+	public static final String DI_NS = "http://www.omg.org/spec/DD/20100524/DI";
+
+	/** Indentation of new shapes and edges in the BPMNPlane */
+	private static final String INDENT = "\n      ";
+
+	private final XMLInputFactory inputFactory;
+	private final XMLOutputFactory outputFactory;
+	private final XMLEventFactory eventFactory;
+
+	public BpmnDiWriter() {
+		inputFactory = XMLInputFactory.newInstance();
+		inputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+		inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		outputFactory = XMLOutputFactory.newInstance();
+		eventFactory = XMLEventFactory.newInstance();
+	}
+
+	/**
+	 * Copy the BPMN file from in to out with the graph's layout.
+	 * The streams are not closed.
+	 *
+	 * @param graph the layouted graph of the file
+	 */
+	public void write(LGraph graph, InputStream in, OutputStream out) throws XMLStreamException {
+		XMLEventReader reader;
+		synchronized (inputFactory) {
+			reader = inputFactory.createXMLEventReader(in);
+		}
+		XMLEventWriter writer = null;
+		try {
+			Layout layout = new Layout();
+			collect(graph, layout);
+			while (reader.hasNext()){
+				XMLEvent event = reader.nextEvent();
+				if (writer == null){
+					String encoding = "UTF-8";
+					if (event.isStartDocument() && ((StartDocument) event).encodingSet()){
+						encoding = ((StartDocument) event).getCharacterEncodingScheme();
+					}
+					synchronized (outputFactory) {
+						writer = outputFactory.createXMLEventWriter(out, encoding);
+					}
+				}
+				copy(reader, writer, event, layout);
+			}
+			writer.flush();
+		} finally {
+			reader.close();
+			if (writer != null) writer.close();
+		}
+	}
+
+	/**
+	 * Collect the shapes and edges to write
+	 */
+	private void collect(LGraph graph, Layout layout) {
+		for (LNode node : graph.getLayerlessNodes()){
+			String id = node.getProperty(BpmnProperties.ID);
+			// ID is empty for nodes that aren't BPMN elements
+			if (id != null && id.length() > 0 && !layout.shapes.containsKey(id)) layout.shapes.put(id, node);
+			for (LEdge edge : node.getOutgoingEdges()){
+				if (edge.getProperty(BpmnProperties.BOUNDARY_EVENT_DUMMY_EDGE)) continue;
+				String edgeId = edge.getProperty(BpmnProperties.ID);
+				if (edgeId != null && edgeId.length() > 0 && !layout.edges.containsKey(edgeId)) layout.edges.put(edgeId, edge);
+			}
+			LGraph nestedGraph = node.getProperty(InternalProperties.NESTED_LGRAPH);
+			if (nestedGraph != null) collect(nestedGraph, layout);
+		}
+	}
+
+	private void copy(XMLEventReader reader, XMLEventWriter writer, XMLEvent event, Layout layout) throws XMLStreamException {
+		if (event.isStartElement()){
+			StartElement element = event.asStartElement();
+			layout.namespaces = element.getNamespaceContext();
+			QName name = element.getName();
+			if (BpmnXmlImporter.BPMN_NS.equals(name.getNamespaceURI()) && layout.rootElement == null){
+				layout.rootElement = name;
+			}
+			else if (BpmnXmlImporter.BPMN_NS.equals(name.getNamespaceURI()) && layout.planeElement == null
+					&& (name.getLocalPart().equals("collaboration") || name.getLocalPart().equals("process"))){
+				layout.planeElement = getAttribute(element, "id");
+			}
+			else if (BpmnXmlImporter.BPMNDI_NS.equals(name.getNamespaceURI())){
+				String localName = name.getLocalPart();
+				if (localName.equals("BPMNDiagram")) layout.diagramFound = true;
+				String id = getAttribute(element, "bpmnElement");
+				if (localName.equals("BPMNShape") && id != null && layout.shapes.containsKey(id) && layout.written.add(id)){
+					writer.add(event);
+					writeBounds(writer, layout, layout.shapes.get(id));
+					copyWithoutGeometry(reader, writer, layout, "Bounds");
+					return;
+				}
+				if (localName.equals("BPMNEdge") && id != null && layout.edges.containsKey(id) && layout.written.add(id)){
+					writer.add(event);
+					writeWaypoints(writer, layout, layout.edges.get(id));
+					copyWithoutGeometry(reader, writer, layout, "waypoint");
+					return;
+				}
+			}
+		}
+		else if (event.isEndElement()){
+			QName name = event.asEndElement().getName();
+			if (BpmnXmlImporter.BPMNDI_NS.equals(name.getNamespaceURI()) && name.getLocalPart().equals("BPMNPlane")
+					&& !layout.planeClosed){
+				writeMissing(writer, layout);
+				layout.planeClosed = true;
+			}
+			else if (name.equals(layout.rootElement) && !layout.diagramFound){
+				writeDiagram(writer, layout);
+			}
+		}
+		writer.add(event);
+	}
+
+	/**
+	 * Copy the rest of a BPMNShape or BPMNEdge, without its own geometry
+	 * (Bounds or waypoints) and without the bounds of its label.
+	 */
+	private void copyWithoutGeometry(XMLEventReader reader, XMLEventWriter writer, Layout layout, String geometry) throws XMLStreamException {
+		int depth = 1;
+		while (depth > 0 && reader.hasNext()){
+			XMLEvent event = reader.nextEvent();
+			if (event.isStartElement()){
+				QName name = event.asStartElement().getName();
+				boolean isGeometry = depth == 1 && name.getLocalPart().equals(geometry)
+						|| depth == 2 && name.getLocalPart().equals("Bounds");
+				if (isGeometry){
+					skip(reader);
+					continue;
+				}
+				depth++;
+			}
+			else if (event.isEndElement()) depth--;
+			writer.add(event);
+		}
+	}
+
+	private static void skip(XMLEventReader reader) throws XMLStreamException {
+		int depth = 1;
+		while (depth > 0){
+			XMLEvent event = reader.nextEvent();
+			if (event.isStartElement()) depth++;
+			else if (event.isEndElement()) depth--;
+		}
+	}
+
+	/**
+	 * New BPMNShapes and BPMNEdges for the elements without DI
+	 */
+	private void writeMissing(XMLEventWriter writer, Layout layout) throws XMLStreamException {
+		for (Map.Entry<String,LNode> entry : layout.shapes.entrySet()){
+			if (!layout.written.add(entry.getKey())) continue;
+			writer.add(eventFactory.createCharacters(INDENT));
+			Map<String,String> attributes = new LinkedHashMap<String,String>();
+			attributes.put("id", entry.getKey() + "_di");
+			attributes.put("bpmnElement", entry.getKey());
+			LNode node = entry.getValue();
+			if (node.getProperty(BpmnProperties.ELEMENT_TYPE) == BpmnElementType.SUBPROCESS){
+				if (node.getProperty(InternalProperties.NESTED_LGRAPH) != null) attributes.put("isExpanded", "true");
+			}
+			else if (node.getProperty(InternalProperties.NESTED_LGRAPH) != null) attributes.put("isHorizontal", "true");
+			writeStart(writer, layout, BpmnXmlImporter.BPMNDI_NS, "BPMNShape", "bpmndi", attributes);
+			writeBounds(writer, layout, node);
+			writeEnd(writer, layout, BpmnXmlImporter.BPMNDI_NS, "BPMNShape", "bpmndi");
+		}
+		for (Map.Entry<String,LEdge> entry : layout.edges.entrySet()){
+			if (!layout.written.add(entry.getKey())) continue;
+			writer.add(eventFactory.createCharacters(INDENT));
+			Map<String,String> attributes = new LinkedHashMap<String,String>();
+			attributes.put("id", entry.getKey() + "_di");
+			attributes.put("bpmnElement", entry.getKey());
+			writeStart(writer, layout, BpmnXmlImporter.BPMNDI_NS, "BPMNEdge", "bpmndi", attributes);
+			writeWaypoints(writer, layout, entry.getValue());
+			writeEnd(writer, layout, BpmnXmlImporter.BPMNDI_NS, "BPMNEdge", "bpmndi");
+		}
+	}
+
+	/**
+	 * New BPMNDiagram for a file without DI
+	 */
+	private void writeDiagram(XMLEventWriter writer, Layout layout) throws XMLStreamException {
+		Map<String,String> attributes = new LinkedHashMap<String,String>();
+		attributes.put("id", "BPMNDiagram_1");
+		writeStart(writer, layout, BpmnXmlImporter.BPMNDI_NS, "BPMNDiagram", "bpmndi", attributes);
+		attributes.clear();
+		attributes.put("id", "BPMNPlane_1");
+		if (layout.planeElement != null) attributes.put("bpmnElement", layout.planeElement);
+		writeStart(writer, layout, BpmnXmlImporter.BPMNDI_NS, "BPMNPlane", "bpmndi", attributes);
+		writeMissing(writer, layout);
+		writeEnd(writer, layout, BpmnXmlImporter.BPMNDI_NS, "BPMNPlane", "bpmndi");
+		writeEnd(writer, layout, BpmnXmlImporter.BPMNDI_NS, "BPMNDiagram", "bpmndi");
+		layout.diagramFound = true;
+	}
+
+	private void writeBounds(XMLEventWriter writer, Layout layout, LNode node) throws XMLStreamException {
+		Map<String,String> attributes = new LinkedHashMap<String,String>();
+		attributes.put("x", format(node.getPosition().x));
+		attributes.put("y", format(node.getPosition().y));
+		attributes.put("width", format(node.getSize().x));
+		attributes.put("height", format(node.getSize().y));
+		writeStart(writer, layout, BpmnXmlImporter.DC_NS, "Bounds", "dc", attributes);
+		writeEnd(writer, layout, BpmnXmlImporter.DC_NS, "Bounds", "dc");
+	}
+
+	private void writeWaypoints(XMLEventWriter writer, Layout layout, LEdge edge) throws XMLStreamException {
+		List<KVector> waypoints = new ArrayList<KVector>();
+		waypoints.add(KVector.sum(edge.getSource().getPosition(), edge.getSource().getNode().getPosition()));
+		for (KVector bendpoint : edge.getBendPoints()){
+			waypoints.add(bendpoint);
+		}
+		waypoints.add(KVector.sum(edge.getTarget().getPosition(), edge.getTarget().getNode().getPosition()));
+		Map<String,String> attributes = new LinkedHashMap<String,String>();
+		for (KVector waypoint : waypoints){
+			attributes.put("x", format(waypoint.x));
+			attributes.put("y", format(waypoint.y));
+			writeStart(writer, layout, DI_NS, "waypoint", "di", attributes);
+			writeEnd(writer, layout, DI_NS, "waypoint", "di");
+		}
+	}
+
+	/**
+	 * Write a start element with the prefix the document uses for the namespace.
+	 * If the namespace isn't declared, it is declared with the default prefix.
+	 */
+	private void writeStart(XMLEventWriter writer, Layout layout, String ns, String localName,
+			String defaultPrefix, Map<String,String> attributes) throws XMLStreamException {
+		String prefix = layout.namespaces != null ? layout.namespaces.getPrefix(ns) : null;
+		Iterator<Namespace> namespaces = Collections.<Namespace>emptyList().iterator();
+		if (prefix == null){
+			prefix = defaultPrefix;
+			namespaces = Collections.singletonList(eventFactory.createNamespace(prefix, ns)).iterator();
+		}
+		List<Attribute> attributeEvents = new ArrayList<Attribute>();
+		for (Map.Entry<String,String> attribute : attributes.entrySet()){
+			attributeEvents.add(eventFactory.createAttribute(attribute.getKey(), attribute.getValue()));
+		}
+		writer.add(eventFactory.createStartElement(prefix, ns, localName, attributeEvents.iterator(), namespaces));
+	}
+
+	private void writeEnd(XMLEventWriter writer, Layout layout, String ns, String localName,
+			String defaultPrefix) throws XMLStreamException {
+		String prefix = layout.namespaces != null ? layout.namespaces.getPrefix(ns) : null;
+		if (prefix == null) prefix = defaultPrefix;
+		writer.add(eventFactory.createEndElement(prefix, ns, localName));
+	}
+
+	private static String getAttribute(StartElement element, String name) {
+		Attribute attribute = element.getAttributeByName(new QName(name));
+		return attribute != null ? attribute.getValue() : null;
+	}
+
+	private static String format(double value) {
+		return String.valueOf(Math.round(value));
+	}
+
+	/**
+	 * The layout to write and the state of the copy
+	 */
+	private static final class Layout {
+		final Map<String,LNode> shapes = new LinkedHashMap<String,LNode>();
+		final Map<String,LEdge> edges = new LinkedHashMap<String,LEdge>();
+		final Set<String> written = new HashSet<String>();
+		NamespaceContext namespaces;
+		QName rootElement;
+		String planeElement;
+		boolean diagramFound;
+		boolean planeClosed;
+	}
+
+}
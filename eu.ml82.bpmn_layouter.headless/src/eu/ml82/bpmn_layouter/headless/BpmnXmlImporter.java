@@ -0,0 +1,584 @@
+/*
+ * BPMN Auto-Layouter
+ *
+ * Copyright 2015 by Marvin Ludwig - http://www.marvin-ludwig.de
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+
+package eu.ml82.bpmn_layouter.headless;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import de.cau.cs.kieler.kiml.options.EdgeLabelPlacement;
+import de.cau.cs.kieler.kiml.options.EdgeType;
+import de.cau.cs.kieler.kiml.options.LayoutOptions;
+import de.cau.cs.kieler.kiml.options.NodeLabelPlacement;
+import de.cau.cs.kieler.kiml.options.PortSide;
+import de.cau.cs.kieler.klay.layered.graph.LEdge;
+import de.cau.cs.kieler.klay.layered.graph.LGraph;
+import de.cau.cs.kieler.klay.layered.graph.LLabel;
+import de.cau.cs.kieler.klay.layered.graph.LNode;
+import de.cau.cs.kieler.klay.layered.graph.LPort;
+import de.cau.cs.kieler.klay.layered.properties.InternalProperties;
+import eu.ml82.bpmn_layouter.core.properties.BpmnElementType;
+import eu.ml82.bpmn_layouter.core.properties.BpmnProperties;
+
+/**
+ * Reads a BPMN 2.0 XML file into an LGraph for KlayLayeredForBpmn,
+ * without EMF or Eclipse.
+ *
+ * The file is read with a streaming StAX parser. Only the elements relevant
+ * for the layout are kept until the graph is built, so memory is proportional
+ * to the number of model elements and not to the size of the document.
+ *
+ * The graph is built like DiagramLayoutManager builds it in the Camunda Modeler:
+ * <ul>
+ * <li>Pools and lanes become nodes with a NESTED_LGRAPH, flow nodes are put into
+ *     the innermost lane that references them.</li>
+ * <li>Expanded sub-processes get a NESTED_LGRAPH with their children.</li>
+ * <li>BpmnProperties.ELEMENT_TYPE is set for gateways, events, sub-processes,
+ *     artifacts (data objects, data stores, text annotations) and message flows.</li>
+ * <li>Boundary events are connected to their host with a BOUNDARY_EVENT_DUMMY_EDGE.</li>
+ * <li>BpmnProperties.ID holds the BPMN id of every node and edge.</li>
+ * </ul>
+ * Node sizes and the order of pools and lanes are taken from the BPMN DI section.
+ * Elements without DI get default sizes.
+ *
+ * Not imported: groups, black box pools (pools without a process),
+ * conversations and choreographies.
+ *
+ * An importer can be used by several threads at the same time.
+ */
+public final class BpmnXmlImporter {
+
+	public static final String BPMN_NS = "http://www.omg.org/spec/BPMN/20100524/MODEL";
+	public static final String BPMNDI_NS = "http://www.omg.org/spec/BPMN/20100524/DI";
+	public static final String DC_NS = "http://www.omg.org/spec/DD/20100524/DC";
+
+	/** The spacing the Camunda Modeler plugin uses */
+	private static final float SPACING = 40.0f;
+
+	private static final Set<String> TASKS = new HashSet<String>(Arrays.asList(
+			"task", "userTask", "serviceTask", "sendTask", "receiveTask", "manualTask",
+			"businessRuleTask", "scriptTask", "callActivity"));
+	private static final Set<String> SUB_PROCESSES = new HashSet<String>(Arrays.asList(
+			"subProcess", "transaction", "adHocSubProcess"));
+	private static final Set<String> EVENTS = new HashSet<String>(Arrays.asList(
+			"startEvent", "endEvent", "intermediateCatchEvent", "intermediateThrowEvent",
+			"boundaryEvent", "implicitThrowEvent"));
+	private static final Set<String> GATEWAYS = new HashSet<String>(Arrays.asList(
+			"exclusiveGateway", "inclusiveGateway", "parallelGateway", "complexGateway",
+			"eventBasedGateway"));
+	private static final Set<String> ARTIFACTS = new HashSet<String>(Arrays.asList(
+			"dataObjectReference", "dataStoreReference", "textAnnotation"));
+
+	private final XMLInputFactory factory;
+
+	public BpmnXmlImporter() {
+		factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+		// BPMN files don't need DTDs, don't resolve external entities
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+	}
+
+	public LGraph read(File file) throws IOException, XMLStreamException {
+		InputStream in = new BufferedInputStream(new FileInputStream(file));
+		try {
+			return read(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Read a BPMN file. The stream is not closed.
+	 */
+	public LGraph read(InputStream in) throws XMLStreamException {
+		XMLStreamReader xml;
+		synchronized (factory) {
+			xml = factory.createXMLStreamReader(in);
+		}
+		try {
+			Model model = new Model();
+			parse(xml, model);
+			return build(model);
+		} finally {
+			xml.close();
+		}
+	}
+
+	////////////////////////////////////////////////////////////////////////////////
+	// Parsing
+
+	private void parse(XMLStreamReader xml, Model model) throws XMLStreamException {
+		int depth = 0;
+		List<Frame> frames = new ArrayList<Frame>();
+		String shape = null; // bpmnElement of the current BPMNShape
+		int labelDepth = -1; // depth of the current BPMNLabel
+
+		while (xml.hasNext()){
+			int event = xml.next();
+			if (event == XMLStreamConstants.END_ELEMENT){
+				while (!frames.isEmpty() && frames.get(frames.size() - 1).depth == depth){
+					Frame frame = frames.remove(frames.size() - 1);
+					if (frame.kind == Frame.DATA_ASSOCIATION) addDataAssociation(model, frame);
+				}
+				if (depth == labelDepth) labelDepth = -1;
+				depth--;
+				continue;
+			}
+			if (event != XMLStreamConstants.START_ELEMENT) continue;
+			depth++;
+			String ns = xml.getNamespaceURI();
+			String name = xml.getLocalName();
+
+			if (BPMN_NS.equals(ns)){
+				if (name.equals("extensionElements")){
+					skipElement(xml);
+					depth--;
+				}
+				else if (name.equals("flowNodeRef") || name.equals("sourceRef") || name.equals("targetRef")){
+					String ref = xml.getElementText().trim();
+					depth--;
+					Frame frame = frames.isEmpty() ? null : frames.get(frames.size() - 1);
+					if (frame == null) continue;
+					if (frame.kind == Frame.LANE && name.equals("flowNodeRef")){
+						// Child lanes come after the parent lane's references, the innermost lane wins
+						model.laneOfNode.put(ref, frame.id);
+					}
+					else if (frame.kind == Frame.DATA_ASSOCIATION){
+						if (name.equals("sourceRef")) frame.sourceRefs.add(ref);
+						else frame.targetRefs.add(ref);
+					}
+				}
+				else parseBpmnElement(xml, model, frames, depth, name);
+			}
+			else if (BPMNDI_NS.equals(ns)){
+				if (name.equals("BPMNShape")){
+					shape = xml.getAttributeValue(null, "bpmnElement");
+					// Only relevant for sub-processes, the DI default is collapsed
+					if (shape != null && !"true".equals(xml.getAttributeValue(null, "isExpanded"))){
+						model.collapsed.add(shape);
+					}
+				}
+				else if (name.equals("BPMNLabel")) labelDepth = depth;
+				else if (name.equals("BPMNEdge")) shape = null;
+			}
+			else if (DC_NS.equals(ns)){
+				if (name.equals("Bounds") && shape != null && labelDepth < 0){
+					model.bounds.put(shape, new double[] {
+							parseDouble(xml.getAttributeValue(null, "x")),
+							parseDouble(xml.getAttributeValue(null, "y")),
+							parseDouble(xml.getAttributeValue(null, "width")),
+							parseDouble(xml.getAttributeValue(null, "height"))});
+				}
+			}
+			else if (depth > 1){
+				// Extensions of other vendors
+				skipElement(xml);
+				depth--;
+			}
+		}
+	}
+
+	private void parseBpmnElement(XMLStreamReader xml, Model model, List<Frame> frames, int depth, String name) {
+		String id = xml.getAttributeValue(null, "id");
+		if (name.equals("process")){
+			model.processes.add(id);
+			frames.add(new Frame(Frame.SCOPE, id, depth));
+		}
+		else if (name.equals("participant")){
+			Participant participant = new Participant();
+			participant.id = id;
+			participant.name = xml.getAttributeValue(null, "name");
+			participant.processRef = xml.getAttributeValue(null, "processRef");
+			model.participants.add(participant);
+		}
+		else if (name.equals("lane")){
+			Lane lane = new Lane();
+			lane.id = id;
+			lane.name = xml.getAttributeValue(null, "name");
+			Frame parent = findFrame(frames, Frame.LANE);
+			if (parent != null) lane.parent = model.lanes.get(parent.id);
+			Frame process = findFrame(frames, Frame.SCOPE);
+			if (process == null) return;
+			lane.process = process.id;
+			model.lanes.put(id, lane);
+			frames.add(new Frame(Frame.LANE, id, depth));
+		}
+		else if (name.equals("sequenceFlow") || name.equals("messageFlow") || name.equals("association")){
+			Flow flow = new Flow();
+			flow.id = id;
+			flow.name = xml.getAttributeValue(null, "name");
+			flow.source = xml.getAttributeValue(null, "sourceRef");
+			flow.target = xml.getAttributeValue(null, "targetRef");
+			if (name.equals("messageFlow")) flow.type = BpmnElementType.MESSAGE_FLOW;
+			flow.undirected = name.equals("association");
+			model.flows.add(flow);
+		}
+		else if (name.equals("dataInputAssociation") || name.equals("dataOutputAssociation")){
+			Frame activity = findFrame(frames, Frame.ACTIVITY);
+			if (activity == null) return;
+			Frame frame = new Frame(Frame.DATA_ASSOCIATION, id, depth);
+			frame.activity = activity.id;
+			frame.output = name.equals("dataOutputAssociation");
+			frames.add(frame);
+		}
+		else {
+			BpmnElementType type;
+			if (TASKS.contains(name)) type = null;
+			else if (SUB_PROCESSES.contains(name)) type = BpmnElementType.SUBPROCESS;
+			else if (EVENTS.contains(name)) type = BpmnElementType.EVENT;
+			else if (GATEWAYS.contains(name)) type = BpmnElementType.GATEWAY;
+			else if (ARTIFACTS.contains(name)) type = BpmnElementType.ARTIFACT;
+			else return;
+
+			Element element = new Element();
+			element.id = id;
+			element.name = name.equals("textAnnotation") ? null : xml.getAttributeValue(null, "name");
+			element.tag = name;
+			element.type = type;
+			element.attachedTo = xml.getAttributeValue(null, "attachedToRef");
+			Frame scope = findFrame(frames, Frame.SCOPE);
+			if (scope != null) element.scope = scope.id;
+			model.elements.put(id, element);
+			if (type == BpmnElementType.SUBPROCESS) frames.add(new Frame(Frame.SCOPE, id, depth));
+			if (type == null || type == BpmnElementType.SUBPROCESS) frames.add(new Frame(Frame.ACTIVITY, id, depth));
+		}
+	}
+
+	private void addDataAssociation(Model model, Frame frame) {
+		List<String> refs = frame.output ? frame.targetRefs : frame.sourceRefs;
+		for (String ref : refs){
+			Flow flow = new Flow();
+			flow.id = frame.id;
+			flow.source = frame.output ? frame.activity : ref;
+			flow.target = frame.output ? ref : frame.activity;
+			model.flows.add(flow);
+		}
+	}
+
+	private static Frame findFrame(List<Frame> frames, int kind) {
+		for (int i = frames.size() - 1; i >= 0; i--){
+			if (frames.get(i).kind == kind) return frames.get(i);
+		}
+		return null;
+	}
+
+	private static void skipElement(XMLStreamReader xml) throws XMLStreamException {
+		int level = 1;
+		while (level > 0){
+			int event = xml.next();
+			if (event == XMLStreamConstants.START_ELEMENT) level++;
+			else if (event == XMLStreamConstants.END_ELEMENT) level--;
+		}
+	}
+
+	private static double parseDouble(String value) {
+		if (value == null) return 0;
+		try {
+			return Double.parseDouble(value);
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	////////////////////////////////////////////////////////////////////////////////
+	// Graph building
+
+	private LGraph build(Model model) {
+		LGraph graph = new LGraph();
+		graph.setProperty(LayoutOptions.SPACING, SPACING);
+		Map<LGraph,double[]> origins = new HashMap<LGraph,double[]>();
+		origins.put(graph, new double[] {0, 0});
+
+		// Pools
+		Map<String,LGraph> processGraphs = new HashMap<String,LGraph>();
+		for (Participant participant : model.participants){
+			if (participant.processRef == null || !model.processes.contains(participant.processRef)) continue;
+			if (processGraphs.containsKey(participant.processRef)) continue;
+			LGraph poolGraph = createContainer(model, graph, participant.id, participant.name, origins);
+			processGraphs.put(participant.processRef, poolGraph);
+		}
+		for (String process : model.processes){
+			if (!processGraphs.containsKey(process)) processGraphs.put(process, graph);
+		}
+
+		// Lanes, only those with flow nodes
+		Map<String,Integer> laneNodeCount = new HashMap<String,Integer>();
+		for (Map.Entry<String,String> entry : model.laneOfNode.entrySet()){
+			if (!model.elements.containsKey(entry.getKey())) continue;
+			for (Lane lane = model.lanes.get(entry.getValue()); lane != null; lane = lane.parent){
+				Integer count = laneNodeCount.get(lane.id);
+				laneNodeCount.put(lane.id, count == null ? 1 : count + 1);
+			}
+		}
+		Map<String,LGraph> laneGraphs = new HashMap<String,LGraph>();
+		Map<String,LGraph> defaultLaneGraphs = new HashMap<String,LGraph>(); // per process
+		Set<String> parentLanes = new HashSet<String>();
+		for (Lane lane : model.lanes.values()){
+			if (lane.parent != null) parentLanes.add(lane.parent.id);
+		}
+		for (Lane lane : model.lanes.values()){
+			if (!laneNodeCount.containsKey(lane.id)) continue;
+			LGraph parentGraph = lane.parent != null ? laneGraphs.get(lane.parent.id) : processGraphs.get(lane.process);
+			if (parentGraph == null) continue;
+			LGraph laneGraph = createContainer(model, parentGraph, lane.id, lane.name, origins);
+			laneGraphs.put(lane.id, laneGraph);
+			if (!parentLanes.contains(lane.id) && !defaultLaneGraphs.containsKey(lane.process)){
+				defaultLaneGraphs.put(lane.process, laneGraph);
+			}
+		}
+
+		// Flow nodes, boundary events and artifacts are placed after their hosts and partners
+		Map<String,LNode> nodes = new HashMap<String,LNode>();
+		Map<String,LGraph> subProcessGraphs = new HashMap<String,LGraph>();
+		List<Element> boundaryEvents = new ArrayList<Element>();
+		List<Element> artifacts = new ArrayList<Element>();
+		for (Element element : model.elements.values()){
+			if (element.type == BpmnElementType.ARTIFACT) artifacts.add(element);
+			else if (element.attachedTo != null) boundaryEvents.add(element);
+			else placeElement(model, element, findGraph(model, element, processGraphs, laneGraphs, defaultLaneGraphs, subProcessGraphs),
+					nodes, subProcessGraphs, origins);
+		}
+		for (Element element : boundaryEvents){
+			LGraph parentGraph = findGraph(model, element, processGraphs, laneGraphs, defaultLaneGraphs, subProcessGraphs);
+			LNode host = nodes.get(element.attachedTo);
+			if (!model.laneOfNode.containsKey(element.id) && host != null) parentGraph = host.getGraph();
+			LNode node = placeElement(model, element, parentGraph, nodes, subProcessGraphs, origins);
+			if (node != null && host != null){
+				createEdge(host, node).setProperty(BpmnProperties.BOUNDARY_EVENT_DUMMY_EDGE, true);
+			}
+		}
+		for (Element element : artifacts){
+			// Artifacts are put into the graph of the first element they are connected to
+			LGraph parentGraph = null;
+			for (Flow flow : model.flows){
+				String partner = element.id.equals(flow.source) ? flow.target : (element.id.equals(flow.target) ? flow.source : null);
+				if (partner != null && nodes.containsKey(partner)){
+					parentGraph = nodes.get(partner).getGraph();
+					break;
+				}
+			}
+			if (parentGraph == null && element.scope != null && !defaultLaneGraphs.containsKey(element.scope)){
+				parentGraph = findGraph(model, element, processGraphs, laneGraphs, defaultLaneGraphs, subProcessGraphs);
+			}
+			placeElement(model, element, parentGraph, nodes, subProcessGraphs, origins);
+		}
+
+		// Sub-processes with children
+		Set<LGraph> nestedGraphs = new HashSet<LGraph>();
+		for (Map.Entry<String,LGraph> entry : subProcessGraphs.entrySet()){
+			if (entry.getValue().getLayerlessNodes().isEmpty()) continue;
+			nodes.get(entry.getKey()).setProperty(InternalProperties.NESTED_LGRAPH, entry.getValue());
+			nestedGraphs.add(entry.getValue());
+		}
+
+		// Edges
+		for (Flow flow : model.flows){
+			LNode source = nodes.get(flow.source);
+			LNode target = nodes.get(flow.target);
+			if (source == null || target == null || source == target) continue;
+			// Sub-processes are layouted separately, edges must not leave them
+			if ((nestedGraphs.contains(source.getGraph()) || nestedGraphs.contains(target.getGraph()))
+					&& source.getGraph() != target.getGraph()) continue;
+			LEdge edge = createEdge(source, target);
+			edge.setProperty(BpmnProperties.ID, flow.id);
+			if (flow.type != null) edge.setProperty(BpmnProperties.ELEMENT_TYPE, flow.type);
+			if (flow.undirected) edge.setProperty(LayoutOptions.EDGE_TYPE, EdgeType.UNDIRECTED);
+			if (flow.name != null && flow.name.length() > 0){
+				LLabel label = new LLabel(flow.name);
+				edge.getLabels().add(label);
+				edge.setProperty(LayoutOptions.EDGE_LABEL_PLACEMENT, EdgeLabelPlacement.CENTER);
+			}
+		}
+		return graph;
+	}
+
+	private LGraph findGraph(Model model, Element element, Map<String,LGraph> processGraphs,
+			Map<String,LGraph> laneGraphs, Map<String,LGraph> defaultLaneGraphs, Map<String,LGraph> subProcessGraphs) {
+		if (element.scope == null) return null;
+		if (!processGraphs.containsKey(element.scope)){
+			// Child of a sub-process, null if the sub-process is collapsed or missing
+			return subProcessGraphs.get(element.scope);
+		}
+		String lane = model.laneOfNode.get(element.id);
+		if (lane != null && laneGraphs.containsKey(lane)) return laneGraphs.get(lane);
+		if (defaultLaneGraphs.containsKey(element.scope)) return defaultLaneGraphs.get(element.scope);
+		return processGraphs.get(element.scope);
+	}
+
+	private LNode placeElement(Model model, Element element, LGraph parentGraph, Map<String,LNode> nodes,
+			Map<String,LGraph> subProcessGraphs, Map<LGraph,double[]> origins) {
+		if (parentGraph == null) return null;
+		LNode node = createNode(parentGraph, element.id, element.name);
+		if (element.type != null) node.setProperty(BpmnProperties.ELEMENT_TYPE, element.type);
+		double[] bounds = model.bounds.get(element.id);
+		double[] size = bounds != null ? new double[] {bounds[2], bounds[3]} : defaultSize(element);
+		node.getSize().x = size[0];
+		node.getSize().y = size[1];
+		double[] origin = origins.get(parentGraph);
+		if (bounds != null){
+			node.getPosition().x = bounds[0] - origin[0];
+			node.getPosition().y = bounds[1] - origin[1];
+		}
+		nodes.put(element.id, node);
+
+		if (element.type == BpmnElementType.SUBPROCESS && !model.collapsed.contains(element.id)){
+			LGraph nestedGraph = new LGraph();
+			subProcessGraphs.put(element.id, nestedGraph);
+			origins.put(nestedGraph, bounds != null ? new double[] {bounds[0], bounds[1]} : origin);
+		}
+		return node;
+	}
+
+	/**
+	 * Create a pool or lane node with a nested graph.
+	 * Without DI the containers are ordered as in the document.
+	 */
+	private LGraph createContainer(Model model, LGraph parentGraph, String id, String name, Map<LGraph,double[]> origins) {
+		double[] parentOrigin = origins.get(parentGraph);
+		double[] bounds = model.bounds.get(id);
+		if (bounds == null) bounds = new double[] {parentOrigin[0], parentOrigin[1] + parentGraph.getLayerlessNodes().size() * 100};
+		LNode container = createNode(parentGraph, id, name);
+		container.getPosition().x = bounds[0] - parentOrigin[0];
+		container.getPosition().y = bounds[1] - parentOrigin[1];
+		LGraph nestedGraph = new LGraph();
+		container.setProperty(InternalProperties.NESTED_LGRAPH, nestedGraph);
+		origins.put(nestedGraph, new double[] {bounds[0], bounds[1]});
+		return nestedGraph;
+	}
+
+	static LNode createNode(LGraph parentGraph, String id, String name) {
+		LNode node = new LNode(parentGraph);
+		parentGraph.getLayerlessNodes().add(node);
+		node.setProperty(BpmnProperties.ID, id);
+		LLabel label = new LLabel(name != null && name.length() > 0 ? name : id);
+		node.getLabels().add(label);
+		node.setProperty(LayoutOptions.NODE_LABEL_PLACEMENT, NodeLabelPlacement.insideCenter());
+		return node;
+	}
+
+	static LEdge createEdge(LNode source, LNode target) {
+		LEdge edge = new LEdge();
+		edge.setSource(getPort(source, PortSide.EAST));
+		edge.setTarget(getPort(target, PortSide.WEST));
+		return edge;
+	}
+
+	static LPort getPort(LNode node, PortSide side) {
+		for (LPort port : node.getPorts(side)){
+			return port;
+		}
+		LPort port = new LPort();
+		port.setSide(side);
+		port.setNode(node);
+		return port;
+	}
+
+	/**
+	 * The Camunda Modeler's default sizes
+	 */
+	private static double[] defaultSize(Element element) {
+		if (element.type == BpmnElementType.EVENT) return new double[] {36, 36};
+		if (element.type == BpmnElementType.GATEWAY) return new double[] {50, 50};
+		if (element.tag.equals("dataObjectReference")) return new double[] {36, 50};
+		if (element.tag.equals("dataStoreReference")) return new double[] {50, 50};
+		if (element.tag.equals("textAnnotation")) return new double[] {100, 30};
+		return new double[] {100, 80};
+	}
+
+	////////////////////////////////////////////////////////////////////////////////
+	// Model
+
+	/**
+	 * The parts of a BPMN file needed for the layout
+	 */
+	private static final class Model {
+		final Set<String> processes = new HashSet<String>();
+		final List<Participant> participants = new ArrayList<Participant>();
+		final Map<String,Lane> lanes = new LinkedHashMap<String,Lane>();
+		final Map<String,String> laneOfNode = new HashMap<String,String>();
+		final Map<String,Element> elements = new LinkedHashMap<String,Element>();
+		final List<Flow> flows = new ArrayList<Flow>();
+		final Map<String,double[]> bounds = new HashMap<String,double[]>(); // x, y, width, height
+		final Set<String> collapsed = new HashSet<String>();
+	}
+
+	private static final class Participant {
+		String id;
+		String name;
+		String processRef;
+	}
+
+	private static final class Lane {
+		String id;
+		String name;
+		Lane parent;
+		String process;
+	}
+
+	private static final class Element {
+		String id;
+		String name;
+		String tag;
+		BpmnElementType type;
+		String scope; // process or sub-process
+		String attachedTo;
+	}
+
+	private static final class Flow {
+		String id;
+		String name;
+		String source;
+		String target;
+		BpmnElementType type;
+		boolean undirected;
+	}
+
+	/**
+	 * An open XML element
+	 */
+	private static final class Frame {
+		static final int SCOPE = 0;
+		static final int LANE = 1;
+		static final int ACTIVITY = 2;
+		static final int DATA_ASSOCIATION = 3;
+
+		final int kind;
+		final String id;
+		final int depth;
+		String activity;
+		boolean output;
+		final List<String> sourceRefs = new ArrayList<String>(1);
+		final List<String> targetRefs = new ArrayList<String>(1);
+
+		Frame(int kind, String id, int depth) {
+			this.kind = kind;
+			this.id = id;
+			this.depth = depth;
+		}
+	}
+
+}
@@ -0,0 +1,432 @@
+/*
+ * BPMN Auto-Layouter
+ *
+ * Copyright 2015 by Marvin Ludwig - http://www.marvin-ludwig.de
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+
+package eu.ml82.bpmn_layouter.headless;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import de.cau.cs.kieler.core.math.KVector;
+import de.cau.cs.kieler.kiml.options.EdgeLabelPlacement;
+import de.cau.cs.kieler.kiml.options.EdgeType;
+import de.cau.cs.kieler.kiml.options.LayoutOptions;
+import de.cau.cs.kieler.klay.layered.graph.LEdge;
+import de.cau.cs.kieler.klay.layered.graph.LGraph;
+import de.cau.cs.kieler.klay.layered.graph.LLabel;
+import de.cau.cs.kieler.klay.layered.graph.LNode;
+import de.cau.cs.kieler.klay.layered.properties.InternalProperties;
+import eu.ml82.bpmn_layouter.core.properties.BpmnElementType;
+import eu.ml82.bpmn_layouter.core.properties.BpmnProperties;
+
+/**
+ * Reads a graph from JSON and writes its layout as JSON,
+ * for clients that don't have BPMN XML.
+ *
+ * Input:
+ * <pre>
+ * {"nodes": [
+ *    {"id": "pool", "name": "Pool", "children": [
+ *       {"id": "start", "type": "EVENT"},
+ *       {"id": "task", "name": "Check", "width": 100, "height": 80},
+ *       {"id": "timer", "type": "EVENT", "attachedTo": "task"},
+ *       {"id": "sub", "type": "SUBPROCESS", "children": [...]}]}],
+ *  "edges": [
+ *    {"id": "flow1", "source": "start", "target": "task", "name": "yes"},
+ *    {"id": "flow2", "source": "task", "target": "other", "type": "MESSAGE_FLOW"},
+ *    {"id": "association", "source": "note", "target": "task", "undirected": true}]}
+ * </pre>
+ * type is a BpmnElementType, tasks have no type. Nodes with children are pools or lanes,
+ * unless they are sub-processes. Boundary events are put next to their host.
+ * Artifacts must be in the same pool, lane or sub-process as their partners.
+ * Width and height default to the Camunda Modeler's sizes.
+ *
+ * Output, absolute coordinates:
+ * <pre>
+ * {"nodes": [{"id": "pool", "x": 0, "y": 0, "width": 600, "height": 250}, ...],
+ *  "edges": [{"id": "flow1", "points": [{"x": 36, "y": 58}, ...]}, ...]}
+ * </pre>
+ *
+ * Malformed input throws an IllegalArgumentException.
+ * The format has no state and can be used by several threads at the same time.
+ */
+public final class JsonGraphFormat {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/** The spacing the Camunda Modeler plugin uses */
+	private static final float SPACING = 40.0f;
+
+	////////////////////////////////////////////////////////////////////////////////
+	// Reading
+
+	/**
+	 * Read a graph. The stream is not closed.
+	 */
+	public LGraph read(InputStream in) throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		byte[] bytes = new byte[8192];
+		for (int read = in.read(bytes); read >= 0; read = in.read(bytes)){
+			buffer.write(bytes, 0, read);
+		}
+		return read(new String(buffer.toByteArray(), UTF_8));
+	}
+
+	public LGraph read(String json) {
+		Object root = new Parser(json).parse();
+		Map<String,Object> graphObject = asObject(root, "graph");
+
+		LGraph graph = new LGraph();
+		graph.setProperty(LayoutOptions.SPACING, SPACING);
+		Map<String,LNode> nodes = new HashMap<String,LNode>();
+		List<Map<String,Object>> boundaryEvents = new ArrayList<Map<String,Object>>();
+		Set<LGraph> nestedGraphs = new HashSet<LGraph>();
+		placeNodes(asList(graphObject.get("nodes"), "nodes"), graph, nodes, boundaryEvents, nestedGraphs);
+
+		for (int i = 0; i < boundaryEvents.size(); i++){
+			Map<String,Object> nodeObject = boundaryEvents.get(i);
+			LNode host = nodes.get(nodeObject.get("attachedTo"));
+			if (host == null) throw new IllegalArgumentException("Unknown host " + nodeObject.get("attachedTo"));
+			LNode node = placeNode(nodeObject, host.getGraph(), nodes, boundaryEvents, nestedGraphs);
+			BpmnXmlImporter.createEdge(host, node).setProperty(BpmnProperties.BOUNDARY_EVENT_DUMMY_EDGE, true);
+		}
+
+		if (graphObject.get("edges") == null) return graph;
+		for (Object edgeValue : asList(graphObject.get("edges"), "edges")){
+			Map<String,Object> edgeObject = asObject(edgeValue, "edge");
+			LNode source = nodes.get(edgeObject.get("source"));
+			LNode target = nodes.get(edgeObject.get("target"));
+			if (source == null) throw new IllegalArgumentException("Unknown source " + edgeObject.get("source"));
+			if (target == null) throw new IllegalArgumentException("Unknown target " + edgeObject.get("target"));
+			if (source == target) continue;
+			// Sub-processes are layouted separately, edges must not leave them
+			if ((nestedGraphs.contains(source.getGraph()) || nestedGraphs.contains(target.getGraph()))
+					&& source.getGraph() != target.getGraph()) continue;
+			LEdge edge = BpmnXmlImporter.createEdge(source, target);
+			String id = asString(edgeObject.get("id"), "edge id");
+			if (id != null) edge.setProperty(BpmnProperties.ID, id);
+			BpmnElementType type = asType(edgeObject.get("type"));
+			if (type != null) edge.setProperty(BpmnProperties.ELEMENT_TYPE, type);
+			if (Boolean.TRUE.equals(edgeObject.get("undirected"))) edge.setProperty(LayoutOptions.EDGE_TYPE, EdgeType.UNDIRECTED);
+			String name = asString(edgeObject.get("name"), "edge name");
+			if (name != null && name.length() > 0){
+				edge.getLabels().add(new LLabel(name));
+				edge.setProperty(LayoutOptions.EDGE_LABEL_PLACEMENT, EdgeLabelPlacement.CENTER);
+			}
+		}
+		return graph;
+	}
+
+	private void placeNodes(List<Object> nodeObjects, LGraph graph, Map<String,LNode> nodes,
+			List<Map<String,Object>> boundaryEvents, Set<LGraph> nestedGraphs) {
+		for (Object nodeValue : nodeObjects){
+			Map<String,Object> nodeObject = asObject(nodeValue, "node");
+			if (nodeObject.get("attachedTo") != null) boundaryEvents.add(nodeObject);
+			else placeNode(nodeObject, graph, nodes, boundaryEvents, nestedGraphs);
+		}
+	}
+
+	private LNode placeNode(Map<String,Object> nodeObject, LGraph graph, Map<String,LNode> nodes,
+			List<Map<String,Object>> boundaryEvents, Set<LGraph> nestedGraphs) {
+		String id = asString(nodeObject.get("id"), "node id");
+		if (id == null) throw new IllegalArgumentException("Node without id");
+		if (nodes.containsKey(id)) throw new IllegalArgumentException("Duplicate id " + id);
+		LNode node = BpmnXmlImporter.createNode(graph, id, asString(nodeObject.get("name"), "node name"));
+		nodes.put(id, node);
+		BpmnElementType type = asType(nodeObject.get("type"));
+		if (type != null) node.setProperty(BpmnProperties.ELEMENT_TYPE, type);
+
+		Object children = nodeObject.get("children");
+		if (children != null){
+			LGraph nestedGraph = new LGraph();
+			placeNodes(asList(children, "children"), nestedGraph, nodes, boundaryEvents, nestedGraphs);
+			if (!nestedGraph.getLayerlessNodes().isEmpty()){
+				node.setProperty(InternalProperties.NESTED_LGRAPH, nestedGraph);
+				if (type == BpmnElementType.SUBPROCESS) nestedGraphs.add(nestedGraph);
+			}
+			// Pools and lanes get their size from the layout
+			if (type != BpmnElementType.SUBPROCESS) return node;
+		}
+		node.getSize().x = asNumber(nodeObject.get("width"), type == BpmnElementType.EVENT ? 36 : (type == BpmnElementType.GATEWAY ? 50 : 100));
+		node.getSize().y = asNumber(nodeObject.get("height"), type == BpmnElementType.EVENT ? 36 : (type == BpmnElementType.GATEWAY ? 50 : 80));
+		return node;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String,Object> asObject(Object value, String what) {
+		if (!(value instanceof Map)) throw new IllegalArgumentException(what + " must be an object");
+		return (Map<String,Object>) value;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static List<Object> asList(Object value, String what) {
+		if (!(value instanceof List)) throw new IllegalArgumentException(what + " must be an array");
+		return (List<Object>) value;
+	}
+
+	private static String asString(Object value, String what) {
+		if (value != null && !(value instanceof String)) throw new IllegalArgumentException(what + " must be a string");
+		return (String) value;
+	}
+
+	private static double asNumber(Object value, double defaultValue) {
+		if (value == null) return defaultValue;
+		if (!(value instanceof Double)) throw new IllegalArgumentException("Width and height must be numbers");
+		return (Double) value;
+	}
+
+	private static BpmnElementType asType(Object value) {
+		String type = asString(value, "type");
+		if (type == null || type.equals("TASK")) return null;
+		try {
+			return BpmnElementType.valueOf(type);
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Unknown type " + type);
+		}
+	}
+
+	////////////////////////////////////////////////////////////////////////////////
+	// Writing
+
+	/**
+	 * Write the layout of a graph that was layouted with PosType.ABSOLUTE.
+	 * The stream is not closed.
+	 */
+	public void write(LGraph graph, OutputStream out) throws IOException {
+		Writer writer = new OutputStreamWriter(out, UTF_8);
+		Map<String,LEdge> edges = new LinkedHashMap<String,LEdge>();
+		writer.write("{\"nodes\":[");
+		writeNodes(graph, writer, edges, true);
+		writer.write("],\n\"edges\":[");
+		boolean first = true;
+		for (Map.Entry<String,LEdge> entry : edges.entrySet()){
+			LEdge edge = entry.getValue();
+			writer.write(first ? "\n" : ",\n");
+			first = false;
+			writer.write("{\"id\":");
+			writeString(writer, entry.getKey());
+			writer.write(",\"points\":[");
+			writePoint(writer, KVector.sum(edge.getSource().getPosition(), edge.getSource().getNode().getPosition()));
+			for (KVector bendPoint : edge.getBendPoints()){
+				writer.write(',');
+				writePoint(writer, bendPoint);
+			}
+			writer.write(',');
+			writePoint(writer, KVector.sum(edge.getTarget().getPosition(), edge.getTarget().getNode().getPosition()));
+			writer.write("]}");
+		}
+		writer.write("]}\n");
+		writer.flush();
+	}
+
+	private boolean writeNodes(LGraph graph, Writer writer, Map<String,LEdge> edges, boolean first) throws IOException {
+		for (LNode node : graph.getLayerlessNodes()){
+			String id = node.getProperty(BpmnProperties.ID);
+			// ID is empty for nodes that aren't graph nodes
+			if (id != null && id.length() > 0){
+				writer.write(first ? "\n" : ",\n");
+				first = false;
+				writer.write("{\"id\":");
+				writeString(writer, id);
+				writer.write(",\"x\":" + format(node.getPosition().x) + ",\"y\":" + format(node.getPosition().y)
+						+ ",\"width\":" + format(node.getSize().x) + ",\"height\":" + format(node.getSize().y) + "}");
+			}
+			for (LEdge edge : node.getOutgoingEdges()){
+				if (edge.getProperty(BpmnProperties.BOUNDARY_EVENT_DUMMY_EDGE)) continue;
+				String edgeId = edge.getProperty(BpmnProperties.ID);
+				if (edgeId != null && edgeId.length() > 0 && !edges.containsKey(edgeId)) edges.put(edgeId, edge);
+			}
+			LGraph nestedGraph = node.getProperty(InternalProperties.NESTED_LGRAPH);
+			if (nestedGraph != null) first = writeNodes(nestedGraph, writer, edges, first);
+		}
+		return first;
+	}
+
+	private static void writePoint(Writer writer, KVector point) throws IOException {
+		writer.write("{\"x\":" + format(point.x) + ",\"y\":" + format(point.y) + "}");
+	}
+
+	private static void writeString(Writer writer, String value) throws IOException {
+		writer.write('"');
+		for (int i = 0; i < value.length(); i++){
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') writer.write("\\" + c);
+			else if (c < 0x20) writer.write(String.format("\\u%04x", (int) c));
+			else writer.write(c);
+		}
+		writer.write('"');
+	}
+
+	private static String format(double value) {
+		return String.valueOf(Math.round(value));
+	}
+
+	////////////////////////////////////////////////////////////////////////////////
+	// JSON parser
+
+	/**
+	 * Minimal JSON parser: objects become LinkedHashMaps, arrays ArrayLists,
+	 * numbers Doubles.
+	 */
+	private static final class Parser {
+
+		private final String json;
+		private int pos = 0;
+
+		Parser(String json) {
+			this.json = json;
+		}
+
+		Object parse() {
+			Object value = parseValue();
+			skipWhitespace();
+			if (pos < json.length()) throw error("Unexpected content");
+			return value;
+		}
+
+		private Object parseValue() {
+			skipWhitespace();
+			if (pos >= json.length()) throw error("Unexpected end");
+			char c = json.charAt(pos);
+			if (c == '{') return parseObject();
+			if (c == '[') return parseArray();
+			if (c == '"') return parseString();
+			if (json.startsWith("true", pos)){
+				pos += 4;
+				return Boolean.TRUE;
+			}
+			if (json.startsWith("false", pos)){
+				pos += 5;
+				return Boolean.FALSE;
+			}
+			if (json.startsWith("null", pos)){
+				pos += 4;
+				return null;
+			}
+			return parseNumber();
+		}
+
+		private Map<String,Object> parseObject() {
+			Map<String,Object> object = new LinkedHashMap<String,Object>();
+			pos++;
+			skipWhitespace();
+			if (pos < json.length() && json.charAt(pos) == '}'){
+				pos++;
+				return object;
+			}
+			while (true){
+				skipWhitespace();
+				if (pos >= json.length() || json.charAt(pos) != '"') throw error("Expected a key");
+				String key = parseString();
+				skipWhitespace();
+				expect(':');
+				object.put(key, parseValue());
+				skipWhitespace();
+				if (pos < json.length() && json.charAt(pos) == ','){
+					pos++;
+					continue;
+				}
+				expect('}');
+				return object;
+			}
+		}
+
+		private List<Object> parseArray() {
+			List<Object> array = new ArrayList<Object>();
+			pos++;
+			skipWhitespace();
+			if (pos < json.length() && json.charAt(pos) == ']'){
+				pos++;
+				return array;
+			}
+			while (true){
+				array.add(parseValue());
+				skipWhitespace();
+				if (pos < json.length() && json.charAt(pos) == ','){
+					pos++;
+					continue;
+				}
+				expect(']');
+				return array;
+			}
+		}
+
+		private String parseString() {
+			StringBuilder builder = new StringBuilder();
+			pos++;
+			while (pos < json.length()){
+				char c = json.charAt(pos++);
+				if (c == '"') return builder.toString();
+				if (c != '\\'){
+					builder.append(c);
+					continue;
+				}
+				if (pos >= json.length()) break;
+				char escaped = json.charAt(pos++);
+				switch (escaped){
+				case 'b': builder.append('\b'); break;
+				case 'f': builder.append('\f'); break;
+				case 'n': builder.append('\n'); break;
+				case 'r': builder.append('\r'); break;
+				case 't': builder.append('\t'); break;
+				case 'u':
+					if (pos + 4 > json.length()) throw error("Invalid escape");
+					try {
+						builder.append((char) Integer.parseInt(json.substring(pos, pos + 4), 16));
+					} catch (NumberFormatException e) {
+						throw error("Invalid escape");
+					}
+					pos += 4;
+					break;
+				default: builder.append(escaped);
+				}
+			}
+			throw error("Unterminated string");
+		}
+
+		private Double parseNumber() {
+			int start = pos;
+			while (pos < json.length() && "+-0123456789.eE".indexOf(json.charAt(pos)) >= 0){
+				pos++;
+			}
+			try {
+				return Double.valueOf(json.substring(start, pos));
+			} catch (NumberFormatException e) {
+				throw error("Unexpected character");
+			}
+		}
+
+		private void expect(char c) {
+			if (pos >= json.length() || json.charAt(pos) != c) throw error("Expected '" + c + "'");
+			pos++;
+		}
+
+		private void skipWhitespace() {
+			while (pos < json.length() && Character.isWhitespace(json.charAt(pos))){
+				pos++;
+			}
+		}
+
+		private IllegalArgumentException error(String message) {
+			return new IllegalArgumentException(message + " at position " + pos);
+		}
+	}
+
+}
@@ -0,0 +1,340 @@
+/*
+ * BPMN Auto-Layouter
+ *
+ * Copyright 2015 by Marvin Ludwig - http://www.marvin-ludwig.de
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+
+package eu.ml82.bpmn_layouter.samples;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import de.cau.cs.kieler.klay.layered.graph.LGraph;
+import de.cau.cs.kieler.klay.layered.graph.LNode;
+import de.cau.cs.kieler.klay.layered.properties.InternalProperties;
+import eu.ml82.bpmn_layouter.core.properties.BpmnElementType;
+import eu.ml82.bpmn_layouter.core.properties.BpmnProperties;
+
+/*
+ *
+ * Creates random but reproducible BPMN graphs of arbitrary size,
+ * e.g. for benchmarks and soak tests.
+ *
+ * The same seed, settings and size always give the same graph.
+ *
+ * Usage:
+ *   LGraph graph = new BpmnGraphGenerator(42).setPools(3).setLanesPerPool(4).generate(10000);
+ *
+ */
+
+public class BpmnGraphGenerator {
+
+	private final long seed;
+
+	private int pools = 2;
+	private int lanesPerPool = 3;
+	private int subLanesPerLane = 0;
+	private double gatewayProbability = 0.1;
+	private int maxGatewayFanOut = 3;
+	private double loopProbability = 0.03;
+	private double boundaryEventProbability = 0.05;
+	private double artifactProbability = 0.1;
+	private int maxArtifactEdges = 3;
+	private double laneHandoverProbability = 0.05;
+	private double messageFlowProbability = 0.05;
+	private double subProcessProbability = 0.03;
+	private int subProcessSize = 6;
+	private int maxSubProcessDepth = 2;
+
+	// State of the current generate() call
+	private Random random;
+	private int nodeCount;
+	private Map<LNode,Integer> remainingArtifactEdges; // number of tasks that will still read an artifact
+
+	public BpmnGraphGenerator(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * Number of pools, 0 creates a process without pools and lanes
+	 */
+	public BpmnGraphGenerator setPools(int pools) {
+		this.pools = pools;
+		return this;
+	}
+
+	/**
+	 * Number of lanes in each pool, 0 puts the flow nodes directly into the pools
+	 */
+	public BpmnGraphGenerator setLanesPerPool(int lanesPerPool) {
+		this.lanesPerPool = lanesPerPool;
+		return this;
+	}
+
+	/**
+	 * Number of sub-lanes in each lane, 0 puts the flow nodes directly into the lanes
+	 */
+	public BpmnGraphGenerator setSubLanesPerLane(int subLanesPerLane) {
+		this.subLanesPerLane = subLanesPerLane;
+		return this;
+	}
+
+	/**
+	 * Probability that the next element is a split gateway with 2 to maxFanOut branches
+	 */
+	public BpmnGraphGenerator setGateways(double probability, int maxFanOut) {
+		this.gatewayProbability = probability;
+		this.maxGatewayFanOut = Math.max(2, maxFanOut);
+		return this;
+	}
+
+	/**
+	 * Probability that the next element is a gateway with an edge back to an earlier element
+	 */
+	public BpmnGraphGenerator setLoops(double probability) {
+		this.loopProbability = probability;
+		return this;
+	}
+
+	/**
+	 * Probability that a task gets a boundary event with an exception path
+	 */
+	public BpmnGraphGenerator setBoundaryEvents(double probability) {
+		this.boundaryEventProbability = probability;
+		return this;
+	}
+
+	/**
+	 * Probability that a task writes an artifact that is read by 1 to maxEdges - 1 later tasks
+	 */
+	public BpmnGraphGenerator setArtifacts(double probability, int maxEdges) {
+		this.artifactProbability = probability;
+		this.maxArtifactEdges = Math.max(2, maxEdges);
+		return this;
+	}
+
+	/**
+	 * Probability that a task has a sequence flow to a task in the next lane of its pool
+	 */
+	public BpmnGraphGenerator setLaneHandovers(double probability) {
+		this.laneHandoverProbability = probability;
+		return this;
+	}
+
+	/**
+	 * Probability that a task sends a message flow to a task in another pool
+	 */
+	public BpmnGraphGenerator setMessageFlows(double probability) {
+		this.messageFlowProbability = probability;
+		return this;
+	}
+
+	/**
+	 * Probability that the next element is a sub-process
+	 *
+	 * @param size number of flow nodes in each sub-process
+	 * @param maxDepth maximal nesting depth of sub-processes, 2 by default:
+	 *        sub-processes may contain sub-processes, but no deeper ones
+	 */
+	public BpmnGraphGenerator setSubProcesses(double probability, int size, int maxDepth) {
+		this.subProcessProbability = probability;
+		this.subProcessSize = Math.max(1, size);
+		this.maxSubProcessDepth = maxDepth;
+		return this;
+	}
+
+	/**
+	 * Create a graph.
+	 *
+	 * @param size the approximate number of flow nodes and artifacts,
+	 *        pools and lanes are not counted
+	 */
+	public LGraph generate(int size) {
+		random = new Random(seed);
+		nodeCount = 0;
+		remainingArtifactEdges = new IdentityHashMap<LNode,Integer>();
+		LGraph bpmnGraph = new LGraph();
+
+		if (pools <= 0){
+			createProcess(bpmnGraph, size, "", 0);
+			return bpmnGraph;
+		}
+
+		List<List<LNode>> poolTasks = new ArrayList<List<LNode>>();
+		int processes = pools * Math.max(1, lanesPerPool) * (lanesPerPool > 0 ? Math.max(1, subLanesPerLane) : 1);
+		int processSize = Math.max(1, size / processes);
+		for (int p = 0; p < pools; p++){
+			LGraph poolGraph = createContainer(bpmnGraph, "Pool " + (p + 1));
+			List<LNode> tasks = new ArrayList<LNode>();
+			if (lanesPerPool <= 0){
+				tasks.addAll(createProcess(poolGraph, processSize, (p + 1) + ".", 0));
+			}
+			else {
+				List<LGraph> laneGraphs = new ArrayList<LGraph>();
+				List<String> lanePrefixes = new ArrayList<String>();
+				for (int l = 0; l < lanesPerPool; l++){
+					String lanePrefix = (p + 1) + "." + (l + 1);
+					LGraph laneGraph = createContainer(poolGraph, "Lane " + lanePrefix);
+					if (subLanesPerLane <= 0){
+						laneGraphs.add(laneGraph);
+						lanePrefixes.add(lanePrefix);
+					}
+					else for (int s = 0; s < subLanesPerLane; s++){
+						laneGraphs.add(createContainer(laneGraph, "Lane " + lanePrefix + "." + (s + 1)));
+						lanePrefixes.add(lanePrefix + "." + (s + 1));
+					}
+				}
+				List<LNode> previousLaneTasks = null;
+				for (int l = 0; l < laneGraphs.size(); l++){
+					List<LNode> laneTasks = createProcess(laneGraphs.get(l), processSize, lanePrefixes.get(l) + ".", 0);
+					if (previousLaneTasks != null) connect(previousLaneTasks, laneTasks, laneHandoverProbability, null);
+					previousLaneTasks = laneTasks;
+					tasks.addAll(laneTasks);
+				}
+			}
+			poolTasks.add(tasks);
+		}
+
+		// Message flows between pools
+		if (pools > 1){
+			for (int p = 0; p < pools; p++){
+				int otherPool = random.nextInt(pools - 1);
+				if (otherPool >= p) otherPool++;
+				connect(poolTasks.get(p), poolTasks.get(otherPool), messageFlowProbability, BpmnElementType.MESSAGE_FLOW);
+			}
+		}
+		return bpmnGraph;
+	}
+
+	/**
+	 * Connect tasks of two processes. A task is connected to a task
+	 * at about the same position of the other process.
+	 */
+	private void connect(List<LNode> sources, List<LNode> targets, double probability, BpmnElementType elementType) {
+		if (targets.isEmpty()) return;
+		for (int i = 0; i < sources.size(); i++){
+			if (random.nextDouble() >= probability) continue;
+			int target = Math.min(targets.size() - 1, i * targets.size() / sources.size() + random.nextInt(3));
+			Utils.createEdge(sources.get(i), targets.get(target), "", elementType);
+		}
+	}
+
+	/**
+	 * Create a process from a start to an end event.
+	 *
+	 * @return the tasks of the process, without the tasks of its sub-processes
+	 */
+	private List<LNode> createProcess(LGraph graph, int size, String prefix, int depth) {
+		List<LNode> tasks = new ArrayList<LNode>();
+		List<LNode> sequence = new ArrayList<LNode>(); // candidates for loops
+		List<LNode> openArtifacts = new LinkedList<LNode>();
+		int limit = nodeCount + size;
+
+		LNode previous = createNode(graph, 20, 20, "Start " + prefix, BpmnElementType.EVENT);
+		while (nodeCount < limit){
+			double choice = random.nextDouble();
+			if (choice < gatewayProbability){
+				if (limit - nodeCount >= maxGatewayFanOut + 2) previous = createGatewayBlock(graph, previous, prefix, tasks, openArtifacts);
+				else previous = createTask(graph, previous, prefix, tasks, openArtifacts);
+			}
+			else if ((choice -= gatewayProbability) < loopProbability && sequence.size() > 2){
+				LNode gateway = createNode(graph, 0, 0, "Loop " + prefix + nodeCount, BpmnElementType.GATEWAY);
+				Utils.createEdge(previous, gateway, "");
+				Utils.createEdge(gateway, sequence.get(sequence.size() - 1 - random.nextInt(Math.min(5, sequence.size()))), "again");
+				previous = gateway;
+			}
+			else if ((choice -= loopProbability) < subProcessProbability && depth < maxSubProcessDepth){
+				LNode subProcess = createNode(graph, 0, 0, "Sub-Process " + prefix + nodeCount, BpmnElementType.SUBPROCESS);
+				LGraph subProcessGraph = new LGraph();
+				subProcess.setProperty(InternalProperties.NESTED_LGRAPH, subProcessGraph);
+				createProcess(subProcessGraph, subProcessSize, prefix + nodeCount + ".", depth + 1);
+				Utils.createEdge(previous, subProcess, "");
+				previous = subProcess;
+			}
+			else {
+				previous = createTask(graph, previous, prefix, tasks, openArtifacts);
+			}
+			sequence.add(previous);
+		}
+		LNode end = createNode(graph, 20, 20, "End " + prefix, BpmnElementType.EVENT);
+		Utils.createEdge(previous, end, "");
+		// Open artifacts keep the edges they have
+		return tasks;
+	}
+
+	/**
+	 * Split gateway, 2 to maxGatewayFanOut branches with one task each and a join gateway
+	 *
+	 * @return the join gateway
+	 */
+	private LNode createGatewayBlock(LGraph graph, LNode previous, String prefix, List<LNode> tasks, List<LNode> openArtifacts) {
+		LNode split = createNode(graph, 0, 0, "Split " + prefix + nodeCount, BpmnElementType.GATEWAY);
+		LNode join = createNode(graph, 0, 0, "Join " + prefix + nodeCount, BpmnElementType.GATEWAY);
+		Utils.createEdge(previous, split, "");
+		int branches = 2 + random.nextInt(maxGatewayFanOut - 1);
+		for (int b = 0; b < branches; b++){
+			LNode task = createTask(graph, split, prefix, tasks, openArtifacts);
+			Utils.createEdge(task, join, "");
+		}
+		return join;
+	}
+
+	/**
+	 * Create a task with an optional boundary event and artifact.
+	 * Open artifacts get an edge to the task.
+	 */
+	private LNode createTask(LGraph graph, LNode previous, String prefix, List<LNode> tasks, List<LNode> openArtifacts) {
+		LNode task = createNode(graph, 100, 80, "Task " + prefix + nodeCount, null);
+		Utils.createEdge(previous, task, "");
+		tasks.add(task);
+
+		// Artifacts written by earlier tasks
+		Iterator<LNode> artifacts = openArtifacts.iterator();
+		while (artifacts.hasNext()){
+			LNode artifact = artifacts.next();
+			Utils.createEdge(artifact, task, "");
+			int edges = remainingArtifactEdges.get(artifact) - 1;
+			remainingArtifactEdges.put(artifact, edges);
+			if (edges <= 0) artifacts.remove();
+		}
+
+		if (random.nextDouble() < artifactProbability){
+			LNode artifact = createNode(graph, 40, 50, "Artifact " + prefix + nodeCount, BpmnElementType.ARTIFACT);
+			Utils.createEdge(task, artifact, "");
+			remainingArtifactEdges.put(artifact, 1 + random.nextInt(maxArtifactEdges - 1));
+			openArtifacts.add(artifact);
+		}
+
+		if (random.nextDouble() < boundaryEventProbability){
+			LNode boundaryEvent = createNode(graph, 25, 25, "Boundary Event " + prefix + nodeCount, null);
+			Utils.createEdge(task, boundaryEvent, "").setProperty(BpmnProperties.BOUNDARY_EVENT_DUMMY_EDGE, true);
+			LNode handler = createNode(graph, 100, 80, "Task " + prefix + nodeCount, null);
+			LNode end = createNode(graph, 20, 20, "End " + prefix + nodeCount, BpmnElementType.EVENT);
+			Utils.createEdge(boundaryEvent, handler, "");
+			Utils.createEdge(handler, end, "");
+		}
+		return task;
+	}
+
+	private LGraph createContainer(LGraph parentGraph, String label) {
+		LGraph nestedGraph = new LGraph();
+		// Containers are ordered by their y-position
+		LNode container = Utils.createNode(parentGraph, 0, parentGraph.getLayerlessNodes().size() * 100, 0, 0, label);
+		container.setProperty(InternalProperties.NESTED_LGRAPH, nestedGraph);
+		return nestedGraph;
+	}
+
+	private LNode createNode(LGraph graph, double width, double height, String label, BpmnElementType elementType) {
+		nodeCount++;
+		return Utils.createNode(graph, 0, 0, width, height, label, elementType);
+	}
+
+}
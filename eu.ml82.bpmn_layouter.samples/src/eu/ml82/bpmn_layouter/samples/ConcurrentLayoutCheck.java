@@ -0,0 +1,114 @@
+/*
+ * BPMN Auto-Layouter
+ *
+ * Copyright 2015 by Marvin Ludwig - http://www.marvin-ludwig.de
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+
+package eu.ml82.bpmn_layouter.samples;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import de.cau.cs.kieler.core.math.KVector;
+import de.cau.cs.kieler.klay.layered.graph.LEdge;
+import de.cau.cs.kieler.klay.layered.graph.LGraph;
+import de.cau.cs.kieler.klay.layered.graph.LLabel;
+import de.cau.cs.kieler.klay.layered.graph.LNode;
+import de.cau.cs.kieler.klay.layered.properties.InternalProperties;
+import eu.ml82.bpmn_layouter.core.KlayLayeredForBpmn;
+import eu.ml82.bpmn_layouter.core.properties.BpmnProperties;
+import eu.ml82.bpmn_layouter.core.properties.PosType;
+
+/*
+ *
+ * Stress test for concurrent layout runs: Layouts a number of distinct graphs
+ * one after the other, then again in parallel with a single shared layouter
+ * and compares the results.
+ * Graph i is created by a BpmnGraphGenerator with seed i, with 0 to 2 pools
+ * and 50 to 200 flow nodes, so every graph is different.
+ *
+ * Usage: ConcurrentLayoutCheck [threads] [graphs]
+ *
+ */
+
+public class ConcurrentLayoutCheck {
+
+	public static void main(String[] args) throws Exception {
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+		int graphs = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+
+		final KlayLayeredForBpmn layouter = new KlayLayeredForBpmn();
+
+		// Sequential reference results
+		List<String> expected = new ArrayList<String>();
+		for (int i = 0; i < graphs; i++){
+			expected.add(layout(layouter, i));
+		}
+
+		// Parallel layout
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<String>> results = new ArrayList<Future<String>>();
+		for (int i = 0; i < graphs; i++){
+			final int graphNumber = i;
+			results.add(executor.submit(new Callable<String>() {
+				public String call() {
+					return layout(layouter, graphNumber);
+				}
+			}));
+		}
+
+		int failures = 0;
+		for (int i = 0; i < graphs; i++){
+			String actual = results.get(i).get();
+			if (!actual.equals(expected.get(i))){
+				failures++;
+				System.out.println("Graph " + i + " differs from sequential layout:");
+				System.out.println("expected:\n" + expected.get(i));
+				System.out.println("actual:\n" + actual);
+			}
+		}
+		executor.shutdown();
+
+		System.out.println(graphs + " graphs, " + threads + " threads, " + failures + " failures");
+		if (failures > 0) System.exit(1);
+	}
+
+	private static String layout(KlayLayeredForBpmn layouter, int graphNumber){
+		LGraph graph = new BpmnGraphGenerator(graphNumber)
+				.setPools(graphNumber % 3)
+				.generate(50 + (graphNumber % 7) * 25);
+		// Every second graph also uses the parallel container layout
+		graph.setProperty(BpmnProperties.PARALLEL_LAYOUT, graphNumber % 2 == 1);
+		layouter.doLayout(graph, PosType.ABSOLUTE);
+		StringBuilder dump = new StringBuilder();
+		dump(graph, dump, "");
+		return dump.toString();
+	}
+
+	/**
+	 * Write node positions and sizes and edge bend points.
+	 */
+	private static void dump(LGraph graph, StringBuilder dump, String indent){
+		for (LNode node : graph.getLayerlessNodes()){
+			String name = "";
+			for (LLabel label : node.getLabels()) name += label.getText();
+			dump.append(indent).append(name).append(' ')
+				.append(node.getPosition()).append(' ').append(node.getSize()).append('\n');
+			for (LEdge edge : node.getOutgoingEdges()){
+				dump.append(indent).append("  ->");
+				for (KVector bendPoint : edge.getBendPoints()) dump.append(' ').append(bendPoint);
+				dump.append('\n');
+			}
+			LGraph nestedGraph = node.getProperty(InternalProperties.NESTED_LGRAPH);
+			if (nestedGraph != null) dump(nestedGraph, dump, indent + "  ");
+		}
+	}
+
+}
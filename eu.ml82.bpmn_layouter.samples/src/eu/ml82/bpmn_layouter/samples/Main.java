@@ -28,6 +28,23 @@ import eu.ml82.bpmn_layouter.core.utils.Graph;
 public class Main {
 	
 	public static void main(String[] args) {
+		LGraph bpmnGraph = createGraph(0);
+		
+		// Layout the graph		
+		KlayLayeredForBpmn layouter = new KlayLayeredForBpmn();
+		PosType posType = PosType.RELATIVE;
+		layouter.doLayout(bpmnGraph, posType);
+		
+		// Output graph
+		Graph.draw(bpmnGraph, "./BPMNLayoutTest.png", posType);
+	}
+	
+	/**
+	 * Create the sample graph.
+	 * 
+	 * @param additionalTasks number of tasks appended to the second pool
+	 */
+	public static LGraph createGraph(int additionalTasks) {
 		// Top-Level Graph
 		LGraph bpmnGraph = new LGraph();
 		
@@ -90,13 +107,14 @@ public class Main {
 		Utils.createEdge(boundaryEvent1, task8, "");
 		Utils.createEdge(task6, boundaryEvent1, "").setProperty(BpmnProperties.BOUNDARY_EVENT_DUMMY_EDGE, true);
 		
-		// Layout the graph		
-		KlayLayeredForBpmn layouter = new KlayLayeredForBpmn();
-		PosType posType = PosType.RELATIVE;
-		layouter.doLayout(bpmnGraph, posType);
+		LNode previousTask = task8;
+		for (int i = 0; i < additionalTasks; i++){
+			LNode task = Utils.createNode(poolGraph2, 0,0,100,80,"Task " + (9 + i));
+			Utils.createEdge(previousTask, task, "");
+			previousTask = task;
+		}
 		
-		// Output graph
-		Graph.draw(bpmnGraph, "./BPMNLayoutTest.png", posType);
+		return bpmnGraph;
 	}
 
 }
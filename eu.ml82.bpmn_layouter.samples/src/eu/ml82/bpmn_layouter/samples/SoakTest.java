@@ -0,0 +1,52 @@
+/*
+ * BPMN Auto-Layouter
+ *
+ * Copyright 2015 by Marvin Ludwig - http://www.marvin-ludwig.de
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+
+package eu.ml82.bpmn_layouter.samples;
+
+import de.cau.cs.kieler.klay.layered.graph.LGraph;
+import eu.ml82.bpmn_layouter.core.KlayLayeredForBpmn;
+import eu.ml82.bpmn_layouter.core.properties.BpmnProperties;
+import eu.ml82.bpmn_layouter.core.properties.PosType;
+
+/*
+ *
+ * Soak test: Layouts generated graphs with consecutive seeds and reports
+ * the seeds of failed layouts, so they can be reproduced with
+ * new BpmnGraphGenerator(seed).generate(size).
+ *
+ * Usage: SoakTest [size] [first seed] [graphs]
+ *
+ */
+
+public class SoakTest {
+
+	public static void main(String[] args) {
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		long firstSeed = args.length > 1 ? Long.parseLong(args[1]) : 0;
+		int graphs = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+		KlayLayeredForBpmn layouter = new KlayLayeredForBpmn();
+		int failed = 0;
+		for (long seed = firstSeed; seed < firstSeed + graphs; seed++){
+			LGraph graph = new BpmnGraphGenerator(seed).setPools(1 + (int) (seed % 4)).generate(size);
+			graph.setProperty(BpmnProperties.PARALLEL_LAYOUT, seed % 2 == 1);
+			long start = System.nanoTime();
+			try {
+				layouter.doLayout(graph, PosType.RELATIVE);
+				System.out.println("Seed " + seed + ": " + (System.nanoTime() - start) / 1000000 + " ms");
+			} catch (RuntimeException e) {
+				failed++;
+				System.out.println("Seed " + seed + " FAILED");
+				e.printStackTrace(System.out);
+			}
+		}
+		System.out.println(failed + " of " + graphs + " layouts failed");
+	}
+
+}
@@ -0,0 +1,134 @@
+/*
+ * BPMN Auto-Layouter
+ *
+ * Copyright 2015 by Marvin Ludwig - http://www.marvin-ludwig.de
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+
+package eu.ml82.bpmn_layouter.samples;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.cau.cs.kieler.klay.layered.graph.LEdge;
+import de.cau.cs.kieler.klay.layered.graph.LGraph;
+import de.cau.cs.kieler.klay.layered.graph.LNode;
+import de.cau.cs.kieler.klay.layered.properties.InternalProperties;
+import eu.ml82.bpmn_layouter.core.KlayLayeredForBpmn;
+import eu.ml82.bpmn_layouter.core.cache.LayoutCache;
+import eu.ml82.bpmn_layouter.core.properties.BpmnElementType;
+import eu.ml82.bpmn_layouter.core.properties.BpmnProperties;
+import eu.ml82.bpmn_layouter.core.properties.PosType;
+
+/*
+ *
+ * Check for the sub-process layout cache: Copies of a sub-process have
+ * different BPMN ids, but must share one cache entry, in the same diagram
+ * and in other diagrams.
+ *
+ * Two diagrams with two copies of the same sub-process each are layouted
+ * with one cache. Only the first copy must be layouted, the other three
+ * must be cache hits with the same positions.
+ *
+ */
+
+public class SubProcessCacheCheck {
+
+	public static void main(String[] args) {
+		KlayLayeredForBpmn layouter = new KlayLayeredForBpmn();
+		LayoutCache layoutCache = new LayoutCache(100, 1 << 20);
+		layouter.setLayoutCache(layoutCache);
+
+		List<LNode> subProcesses = new ArrayList<LNode>();
+		for (int diagram = 0; diagram < 2; diagram++){
+			LGraph graph = createDiagram("Diagram_" + diagram, subProcesses);
+			layouter.doLayout(graph, PosType.ABSOLUTE);
+		}
+
+		// The diagrams themselves differ in their ids, so they are two misses
+		long subProcessHits = layoutCache.getHits() + layoutCache.getDiskHits();
+		String reference = dumpRelative(subProcesses.get(0));
+		int failures = 0;
+		for (int i = 1; i < subProcesses.size(); i++){
+			String actual = dumpRelative(subProcesses.get(i));
+			if (!actual.equals(reference)){
+				failures++;
+				System.out.println("Copy " + i + " differs from the first copy:");
+				System.out.println("expected:\n" + reference);
+				System.out.println("actual:\n" + actual);
+			}
+		}
+		if (subProcessHits != subProcesses.size() - 1){
+			failures++;
+			System.out.println("Expected " + (subProcesses.size() - 1) + " sub-process cache hits, got " + subProcessHits);
+		}
+
+		System.out.println(layoutCache);
+		System.out.println(subProcesses.size() + " sub-process copies, " + failures + " failures");
+		if (failures > 0) System.exit(1);
+	}
+
+	/**
+	 * Start event -> sub-process -> sub-process -> end event,
+	 * the sub-processes are copies with their own ids.
+	 */
+	private static LGraph createDiagram(String prefix, List<LNode> subProcesses){
+		LGraph graph = new LGraph();
+		LNode start = createNode(graph, 20, 20, prefix + "_Start", null);
+		LNode copy1 = createSubProcess(graph, prefix + "_Copy1");
+		LNode copy2 = createSubProcess(graph, prefix + "_Copy2");
+		LNode end = createNode(graph, 20, 20, prefix + "_End", null);
+		createEdge(start, copy1, prefix + "_Flow1");
+		createEdge(copy1, copy2, prefix + "_Flow2");
+		createEdge(copy2, end, prefix + "_Flow3");
+		subProcesses.add(copy1);
+		subProcesses.add(copy2);
+		return graph;
+	}
+
+	private static LNode createSubProcess(LGraph graph, String prefix){
+		LNode subProcess = createNode(graph, 0, 0, prefix, BpmnElementType.SUBPROCESS);
+		LGraph subGraph = new LGraph();
+		subProcess.setProperty(InternalProperties.NESTED_LGRAPH, subGraph);
+		LNode start = createNode(subGraph, 20, 20, prefix + "_Start", null);
+		LNode gateway = createNode(subGraph, 0, 0, prefix + "_Gateway", BpmnElementType.GATEWAY);
+		LNode task1 = createNode(subGraph, 100, 80, prefix + "_Task1", null);
+		LNode task2 = createNode(subGraph, 100, 80, prefix + "_Task2", null);
+		LNode end = createNode(subGraph, 20, 20, prefix + "_End", null);
+		createEdge(start, gateway, prefix + "_Flow1");
+		createEdge(gateway, task1, prefix + "_Flow2");
+		createEdge(gateway, task2, prefix + "_Flow3");
+		createEdge(task1, end, prefix + "_Flow4");
+		createEdge(task2, end, prefix + "_Flow5");
+		return subProcess;
+	}
+
+	private static LNode createNode(LGraph graph, double width, double height, String id, BpmnElementType elementType){
+		// The label is the same for all copies, only the id differs
+		LNode node = Utils.createNode(graph, 0, 0, width, height, "", elementType);
+		node.setProperty(BpmnProperties.ID, id);
+		return node;
+	}
+
+	private static void createEdge(LNode source, LNode target, String id){
+		LEdge edge = Utils.createEdge(source, target, "");
+		edge.setProperty(BpmnProperties.ID, id);
+	}
+
+	/**
+	 * Node positions relative to the sub-process, and the sub-process size
+	 */
+	private static String dumpRelative(LNode subProcess){
+		StringBuilder dump = new StringBuilder();
+		dump.append(subProcess.getSize()).append('\n');
+		LGraph subGraph = subProcess.getProperty(InternalProperties.NESTED_LGRAPH);
+		for (LNode node : subGraph.getLayerlessNodes()){
+			dump.append(node.getPosition().x - subProcess.getPosition().x).append(',')
+				.append(node.getPosition().y - subProcess.getPosition().y).append('\n');
+		}
+		return dump.toString();
+	}
+
+}
@@ -0,0 +1,41 @@
+/*
+ * BPMN Auto-Layouter
+ *
+ * Copyright 2015 by Marvin Ludwig - http://www.marvin-ludwig.de
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+
+package eu.ml82.bpmn_layouter.server;
+
+import de.cau.cs.kieler.core.alg.BasicProgressMonitor;
+
+/**
+ * Progress monitor of a layout request.
+ * It is canceled when the deadline has passed or when cancel() is called,
+ * KlayLayeredForBpmn then stops before the next layout processor.
+ */
+public final class DeadlineProgressMonitor extends BasicProgressMonitor {
+
+	private final long deadline;
+	private volatile boolean canceled = false;
+
+	/**
+	 * @param deadline in System.nanoTime()
+	 */
+	public DeadlineProgressMonitor(long deadline) {
+		super(0);
+		this.deadline = deadline;
+	}
+
+	public void cancel() {
+		canceled = true;
+	}
+
+	@Override
+	public boolean isCanceled() {
+		return canceled || System.nanoTime() - deadline > 0;
+	}
+
+}
@@ -0,0 +1,99 @@
+/*
+ * BPMN Auto-Layouter
+ *
+ * Copyright 2015 by Marvin Ludwig - http://www.marvin-ludwig.de
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+
+package eu.ml82.bpmn_layouter.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histogram with fixed buckets from 1 ms to 60 s.
+ *
+ * Recording is lock-free, so it can be done by every request thread.
+ * Percentiles are the upper bound of the bucket that contains them.
+ */
+public final class LatencyHistogram {
+
+	/** Upper bounds of the buckets in milliseconds, the last bucket has no bound */
+	private static final long[] BOUNDS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000, 60000};
+
+	private final AtomicLongArray counts = new AtomicLongArray(BOUNDS.length + 1);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong totalTime = new AtomicLong();
+	private final AtomicLong maxTime = new AtomicLong();
+
+	/**
+	 * @param nanos the latency in nanoseconds
+	 */
+	public void record(long nanos) {
+		long millis = nanos / 1000000;
+		int bucket = 0;
+		while (bucket < BOUNDS.length && millis >= BOUNDS[bucket]){
+			bucket++;
+		}
+		counts.incrementAndGet(bucket);
+		count.incrementAndGet();
+		totalTime.addAndGet(nanos);
+		long max = maxTime.get();
+		while (nanos > max && !maxTime.compareAndSet(max, nanos)){
+			max = maxTime.get();
+		}
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @param percentile e.g. 0.99
+	 * @return the upper bound in milliseconds of the bucket that contains the percentile,
+	 *         Long.MAX_VALUE for the last bucket and 0 if nothing was recorded
+	 */
+	public long getPercentile(double percentile) {
+		long total = 0;
+		for (int i = 0; i < counts.length(); i++){
+			total += counts.get(i);
+		}
+		if (total == 0) return 0;
+		long rank = (long) Math.ceil(percentile * total);
+		long cumulated = 0;
+		for (int i = 0; i < BOUNDS.length; i++){
+			cumulated += counts.get(i);
+			if (cumulated >= rank) return BOUNDS[i];
+		}
+		return Long.MAX_VALUE;
+	}
+
+	/**
+	 * Summary and bucket counts, e.g. "count=12 mean=48ms max=130ms p50<=50ms p90<=100ms p99<=200ms"
+	 * followed by a line with the number of requests per bucket.
+	 */
+	@Override
+	public String toString() {
+		long count = this.count.get();
+		StringBuilder builder = new StringBuilder();
+		builder.append("count=").append(count)
+			.append(" mean=").append(count > 0 ? totalTime.get() / count / 1000000 : 0).append("ms")
+			.append(" max=").append(maxTime.get() / 1000000).append("ms")
+			.append(" p50").append(formatBound(getPercentile(0.5)))
+			.append(" p90").append(formatBound(getPercentile(0.9)))
+			.append(" p99").append(formatBound(getPercentile(0.99)))
+			.append("\n buckets:");
+		for (int i = 0; i < counts.length(); i++){
+			builder.append(' ').append(i < BOUNDS.length ? "<" + BOUNDS[i] + "ms" : ">=" + BOUNDS[BOUNDS.length - 1] + "ms")
+				.append('=').append(counts.get(i));
+		}
+		return builder.toString();
+	}
+
+	private static String formatBound(long bound) {
+		return bound == Long.MAX_VALUE ? ">=" + BOUNDS[BOUNDS.length - 1] + "ms" : "<=" + bound + "ms";
+	}
+
+}
@@ -0,0 +1,308 @@
+/*
+ * BPMN Auto-Layouter
+ *
+ * Copyright 2015 by Marvin Ludwig - http://www.marvin-ludwig.de
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+
+package eu.ml82.bpmn_layouter.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import de.cau.cs.kieler.klay.layered.graph.LGraph;
+import eu.ml82.bpmn_layouter.core.properties.PosType;
+import eu.ml82.bpmn_layouter.headless.BpmnDiWriter;
+import eu.ml82.bpmn_layouter.headless.BpmnXmlImporter;
+import eu.ml82.bpmn_layouter.headless.JsonGraphFormat;
+
+/**
+ * Handles the layout requests of one endpoint.
+ *
+ * A slot of the server's layout executor (a worker or a place in its queue) is
+ * reserved before the request is read. If there is none the request is rejected
+ * with 503 right away, without reading its body. The request is read by the HTTP
+ * thread, parsing, layout and writing the response run on the layout executor.
+ * If the layout isn't done before the request's deadline it is canceled and
+ * answered with 504. Subclasses define the format.
+ */
+abstract class LayoutHandler implements HttpHandler {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final String name;
+	private final LayoutServer server;
+
+	private final LatencyHistogram latency = new LatencyHistogram();
+	private final AtomicLong ok = new AtomicLong();
+	private final AtomicLong badRequests = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong timedOut = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+
+	LayoutHandler(String name, LayoutServer server) {
+		this.name = name;
+		this.server = server;
+	}
+
+	/**
+	 * Parse the request, throw an exception if it's invalid
+	 */
+	protected abstract LGraph read(byte[] request) throws Exception;
+
+	/**
+	 * Write the layouted graph
+	 */
+	protected abstract void write(LGraph graph, byte[] request, OutputStream out) throws Exception;
+
+	protected abstract String getContentType();
+
+	public void handle(HttpExchange exchange) throws IOException {
+		long start = System.nanoTime();
+		try {
+			if (!exchange.getRequestMethod().equals("POST")){
+				exchange.getResponseHeaders().set("Allow", "POST");
+				sendText(exchange, 405, "Use POST");
+				return;
+			}
+			// Reject before the body is read, so an overloaded server doesn't buffer requests
+			Semaphore layoutSlots = server.getLayoutSlots();
+			if (!layoutSlots.tryAcquire()){
+				reject(exchange);
+				return;
+			}
+			FutureTask<byte[]> future = null;
+			final DeadlineProgressMonitor monitor = new DeadlineProgressMonitor(start + server.getTimeout() * 1000000);
+			try {
+				final byte[] request = readRequest(exchange.getRequestBody(), server.getMaxRequestSize());
+				if (request == null){
+					badRequests.incrementAndGet();
+					sendText(exchange, 413, "Request larger than " + server.getMaxRequestSize() + " bytes");
+					return;
+				}
+				future = submit(new Callable<byte[]>() {
+					public byte[] call() throws Exception {
+						return layout(request, monitor);
+					}
+				}, layoutSlots);
+			} catch (RejectedExecutionException e) {
+				reject(exchange);
+				return;
+			} finally {
+				// The submitted task releases the slot
+				if (future == null) layoutSlots.release();
+			}
+			byte[] response;
+			try {
+				response = future.get(Math.max(0, start + server.getTimeout() * 1000000 - System.nanoTime()), TimeUnit.NANOSECONDS);
+			} catch (TimeoutException e) {
+				response = null;
+			} catch (CancellationException e) {
+				response = null;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				response = null;
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof CancellationException){
+					response = null;
+				}
+				else if (cause instanceof InvalidRequestException){
+					badRequests.incrementAndGet();
+					sendText(exchange, 400, String.valueOf(cause.getCause().getMessage()));
+					return;
+				}
+				else {
+					failed.incrementAndGet();
+					sendText(exchange, 500, "Layout failed: " + cause);
+					return;
+				}
+			}
+			if (response == null){
+				// Stop the layout before its next processor, or don't start it at all
+				monitor.cancel();
+				future.cancel(false);
+				timedOut.incrementAndGet();
+				sendText(exchange, 504, "Layout not done within " + server.getTimeout() + " ms");
+				return;
+			}
+			ok.incrementAndGet();
+			exchange.getResponseHeaders().set("Content-Type", getContentType());
+			send(exchange, 200, response);
+		} finally {
+			latency.record(System.nanoTime() - start);
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Run a layout on the layout executor. The task holds a layout slot that is
+	 * released when a worker has taken the task from the queue and finished it,
+	 * a canceled task still occupies its place in the queue until then.
+	 */
+	private FutureTask<byte[]> submit(Callable<byte[]> callable, final Semaphore layoutSlots) {
+		final FutureTask<byte[]> future = new FutureTask<byte[]>(callable);
+		server.getLayoutExecutor().execute(new Runnable() {
+			public void run() {
+				try {
+					future.run();
+				} finally {
+					layoutSlots.release();
+				}
+			}
+		});
+		return future;
+	}
+
+	private void reject(HttpExchange exchange) throws IOException {
+		rejected.incrementAndGet();
+		exchange.getResponseHeaders().set("Retry-After", "1");
+		sendText(exchange, 503, "Too many layout requests");
+	}
+
+	/**
+	 * Runs on the layout executor
+	 */
+	private byte[] layout(byte[] request, DeadlineProgressMonitor monitor) throws Exception {
+		if (monitor.isCanceled()) throw new CancellationException();
+		LGraph graph;
+		try {
+			graph = read(request);
+		} catch (Exception e) {
+			throw new InvalidRequestException(e);
+		}
+		server.getLayouter().doLayout(graph, PosType.ABSOLUTE, monitor);
+		// A canceled layout is incomplete
+		if (monitor.isCanceled()) throw new CancellationException();
+		ByteArrayOutputStream out = new ByteArrayOutputStream(request.length + 1024);
+		write(graph, request, out);
+		return out.toByteArray();
+	}
+
+	/**
+	 * @return null if the request is larger than maxSize
+	 */
+	private static byte[] readRequest(InputStream in, int maxSize) throws IOException {
+		ByteArrayOutputStream request = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		for (int read = in.read(buffer); read >= 0; read = in.read(buffer)){
+			if (request.size() + read > maxSize) return null;
+			request.write(buffer, 0, read);
+		}
+		return request.toByteArray();
+	}
+
+	private static void sendText(HttpExchange exchange, int status, String text) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+		send(exchange, status, (text + "\n").getBytes(UTF_8));
+	}
+
+	static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+		exchange.sendResponseHeaders(status, body.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(body);
+		out.close();
+	}
+
+	String getName() {
+		return name;
+	}
+
+	/**
+	 * Request counts by result and the latency histogram
+	 */
+	@Override
+	public String toString() {
+		return name + ": ok=" + ok.get() + " bad_request=" + badRequests.get() + " rejected=" + rejected.get()
+				+ " timeout=" + timedOut.get() + " error=" + failed.get() + "\n " + latency;
+	}
+
+	/**
+	 * The request couldn't be parsed
+	 */
+	private static final class InvalidRequestException extends Exception {
+
+		private static final long serialVersionUID = 1L;
+
+		InvalidRequestException(Throwable cause) {
+			super(cause);
+		}
+	}
+
+	////////////////////////////////////////////////////////////////////////////////
+	// Formats
+
+	/**
+	 * BPMN 2.0 XML in, the same file with new DI out
+	 */
+	static final class Bpmn extends LayoutHandler {
+
+		private final BpmnXmlImporter importer = new BpmnXmlImporter();
+		private final BpmnDiWriter writer = new BpmnDiWriter();
+
+		Bpmn(LayoutServer server) {
+			super("/layout/bpmn", server);
+		}
+
+		@Override
+		protected LGraph read(byte[] request) throws Exception {
+			return importer.read(new ByteArrayInputStream(request));
+		}
+
+		@Override
+		protected void write(LGraph graph, byte[] request, OutputStream out) throws Exception {
+			writer.write(graph, new ByteArrayInputStream(request), out);
+		}
+
+		@Override
+		protected String getContentType() {
+			return "application/xml";
+		}
+	}
+
+	/**
+	 * JsonGraphFormat in and out
+	 */
+	static final class Json extends LayoutHandler {
+
+		private final JsonGraphFormat format = new JsonGraphFormat();
+
+		Json(LayoutServer server) {
+			super("/layout/json", server);
+		}
+
+		@Override
+		protected LGraph read(byte[] request) throws Exception {
+			return format.read(new ByteArrayInputStream(request));
+		}
+
+		@Override
+		protected void write(LGraph graph, byte[] request, OutputStream out) throws Exception {
+			format.write(graph, out);
+		}
+
+		@Override
+		protected String getContentType() {
+			return "application/json";
+		}
+	}
+
+}
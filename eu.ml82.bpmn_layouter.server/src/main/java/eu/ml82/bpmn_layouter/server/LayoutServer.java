@@ -0,0 +1,270 @@
+/*
+ * BPMN Auto-Layouter
+ *
+ * Copyright 2015 by Marvin Ludwig - http://www.marvin-ludwig.de
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+
+package eu.ml82.bpmn_layouter.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import eu.ml82.bpmn_layouter.core.KlayLayeredForBpmn;
+import eu.ml82.bpmn_layouter.core.cache.LayoutCache;
+import eu.ml82.bpmn_layouter.core.metrics.MetricsAggregator;
+
+/**
+ * Embeddable HTTP layout server based on the JDK's HttpServer.
+ *
+ * Endpoints:
+ * <ul>
+ * <li>POST /layout/bpmn: BPMN 2.0 XML, returns the file with the new layout in its DI section</li>
+ * <li>POST /layout/json: a graph in the JsonGraphFormat, returns the coordinates as JSON</li>
+ * <li>GET /metrics: request counts and latency histograms per endpoint,
+ *     the layout queue and the time spent in each layout processor</li>
+ * </ul>
+ *
+ * Layouts run on a fixed number of worker threads (default: number of processors) with a
+ * bounded queue. Requests that don't fit into the queue are rejected with 503 and Retry-After
+ * before their body is read, so an overloaded server answers quickly instead of piling up requests.
+ * A layout that isn't done within the timeout is canceled through its progress monitor
+ * and answered with 504.
+ *
+ * The HTTP connections are handled by virtual threads if the JVM has them (Java 21),
+ * otherwise by a thread pool.
+ *
+ * Identical layout requests are answered from a LayoutCache if one is set (-cache).
+ *
+ * Usage: LayoutServer [-p port] [-t workers] [-q queue size] [-timeout ms] [-cache entries]
+ */
+public final class LayoutServer {
+
+	private final int port;
+	private int workers = Runtime.getRuntime().availableProcessors();
+	private int queueCapacity = -1;
+	private long timeout = 30000;
+	private int maxRequestSize = 16 * 1024 * 1024;
+
+	private final KlayLayeredForBpmn layouter = new KlayLayeredForBpmn();
+	private final MetricsAggregator processorMetrics = new MetricsAggregator();
+	private final List<LayoutHandler> handlers;
+
+	private HttpServer httpServer;
+	private ExecutorService httpExecutor;
+	private volatile ThreadPoolExecutor layoutExecutor;
+	// One per worker and place in the queue of the layout executor
+	private volatile Semaphore layoutSlots;
+
+	/**
+	 * @param port 0 for any free port, see getPort()
+	 */
+	public LayoutServer(int port) {
+		this.port = port;
+		layouter.setMetricsListener(processorMetrics);
+		handlers = Arrays.<LayoutHandler>asList(new LayoutHandler.Bpmn(this), new LayoutHandler.Json(this));
+	}
+
+	public static void main(String[] args) throws IOException {
+		int port = 8080;
+		int workers = -1, queueCapacity = -1;
+		long timeout = -1;
+		int cacheEntries = 0;
+		for (int i = 0; i + 1 < args.length; i += 2){
+			if (args[i].equals("-p")) port = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-t")) workers = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-q")) queueCapacity = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-timeout")) timeout = Long.parseLong(args[i + 1]);
+			else if (args[i].equals("-cache")) cacheEntries = Integer.parseInt(args[i + 1]);
+		}
+		LayoutServer server = new LayoutServer(port);
+		if (workers > 0) server.setWorkers(workers);
+		if (queueCapacity >= 0) server.setQueueCapacity(queueCapacity);
+		if (timeout > 0) server.setTimeout(timeout);
+		if (cacheEntries > 0) server.setLayoutCache(new LayoutCache(cacheEntries, 256L * 1024 * 1024));
+		server.start();
+		System.out.println("Layout server listening on port " + server.getPort());
+	}
+
+	public synchronized void start() throws IOException {
+		if (httpServer != null) throw new IllegalStateException("Server is running");
+		int queueCapacity = Math.max(1, this.queueCapacity >= 0 ? this.queueCapacity : 4 * workers);
+		final AtomicInteger threadCount = new AtomicInteger();
+		layoutSlots = new Semaphore(workers + queueCapacity);
+		layoutExecutor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueCapacity), new ThreadFactory() {
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, "bpmn-layout-server-" + threadCount.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				},
+				new ThreadPoolExecutor.AbortPolicy());
+		httpExecutor = newHttpExecutor(2 * (workers + queueCapacity));
+
+		httpServer = HttpServer.create(new InetSocketAddress(port), 0);
+		for (LayoutHandler handler : handlers){
+			httpServer.createContext(handler.getName(), handler);
+		}
+		httpServer.createContext("/metrics", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+					LayoutHandler.send(exchange, 200, getMetrics().getBytes(Charset.forName("UTF-8")));
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		httpServer.setExecutor(httpExecutor);
+		httpServer.start();
+	}
+
+	/**
+	 * Stop accepting requests, wait up to delay seconds for running requests
+	 * and stop the threads.
+	 */
+	public synchronized void stop(int delay) {
+		if (httpServer == null) return;
+		httpServer.stop(delay);
+		httpExecutor.shutdownNow();
+		layoutExecutor.shutdownNow();
+		httpServer = null;
+	}
+
+	/**
+	 * A virtual thread per connection if available, they are cheap while
+	 * a request waits for its layout. Else a fixed pool.
+	 */
+	private static ExecutorService newHttpExecutor(int threads) {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (Exception e) {
+			final AtomicInteger threadCount = new AtomicInteger();
+			return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "bpmn-layout-http-" + threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+	}
+
+	/**
+	 * The text returned by /metrics
+	 */
+	public String getMetrics() {
+		StringBuilder builder = new StringBuilder();
+		for (LayoutHandler handler : handlers){
+			builder.append(handler).append('\n');
+		}
+		ThreadPoolExecutor layoutExecutor = this.layoutExecutor;
+		if (layoutExecutor != null){
+			builder.append("layout queue: active=").append(layoutExecutor.getActiveCount())
+				.append(" queued=").append(layoutExecutor.getQueue().size())
+				.append(" capacity=").append(layoutExecutor.getQueue().size() + layoutExecutor.getQueue().remainingCapacity())
+				.append(" completed=").append(layoutExecutor.getCompletedTaskCount()).append('\n');
+		}
+		LayoutCache layoutCache = layouter.getLayoutCache();
+		if (layoutCache != null) builder.append(layoutCache).append('\n');
+		builder.append("processors:\n").append(processorMetrics);
+		return builder.toString();
+	}
+
+	/**
+	 * @return the port the server listens on
+	 */
+	public synchronized int getPort() {
+		return httpServer != null ? httpServer.getAddress().getPort() : port;
+	}
+
+	KlayLayeredForBpmn getLayouter() {
+		return layouter;
+	}
+
+	ThreadPoolExecutor getLayoutExecutor() {
+		return layoutExecutor;
+	}
+
+	/**
+	 * A slot must be reserved before a layout is submitted to the layout executor
+	 */
+	Semaphore getLayoutSlots() {
+		return layoutSlots;
+	}
+
+	public int getWorkers() {
+		return workers;
+	}
+
+	/**
+	 * Number of layouts that run at the same time. Set before start().
+	 */
+	public void setWorkers(int workers) {
+		this.workers = workers;
+	}
+
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+
+	/**
+	 * Number of layouts that wait for a worker before requests are rejected,
+	 * default is 4 per worker. Set before start().
+	 */
+	public void setQueueCapacity(int queueCapacity) {
+		this.queueCapacity = queueCapacity;
+	}
+
+	public long getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * Time in milliseconds from receiving a request to the finished layout, including the time in the queue.
+	 */
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+
+	public int getMaxRequestSize() {
+		return maxRequestSize;
+	}
+
+	/**
+	 * Larger requests are rejected with 413, default is 16 MB
+	 */
+	public void setMaxRequestSize(int maxRequestSize) {
+		this.maxRequestSize = maxRequestSize;
+	}
+
+	public LayoutCache getLayoutCache() {
+		return layouter.getLayoutCache();
+	}
+
+	/**
+	 * Cache for layout results, null (default) for none
+	 */
+	public void setLayoutCache(LayoutCache layoutCache) {
+		layouter.setLayoutCache(layoutCache);
+	}
+
+}